@@ -4,20 +4,38 @@
 
 package javax.jmdns.impl;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.RandomAccess;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jmdns.impl.DNSCacheStatistics.Lookup;
+import javax.jmdns.impl.constants.DNSConstants;
 import javax.jmdns.impl.constants.DNSRecordClass;
 import javax.jmdns.impl.constants.DNSRecordType;
+import javax.jmdns.impl.util.StripedCounter;
 
 /**
  * A table of DNS entries. This is a map table which can handle multiple entries with the same name.
  * <p/>
- * Storing multiple entries with the same name is implemented using a linked list. This is hidden from the user and can change in later implementation.
+ * Storing multiple entries with the same name is implemented using immutable lists which are replaced as a whole whenever an entry is added or removed. Readers can therefore iterate the lists returned by this class without copying or locking.
+ * Writers of a given name are serialized on a lock stripe, they never block readers. This is hidden from the user and can change in later implementation.
  * <p/>
  * Here's how to iterate over all entries:
  *
@@ -36,6 +54,16 @@ import javax.jmdns.impl.constants.DNSRecordType;
  *           ...do something with entry...
  *       }
  * </pre>
+ * <p/>
+ * Next to the name table the cache maintains a secondary index holding, for each lower case name, the entries of each record type so that the typed lookups used when handling responses and resolving services do not have to scan every
+ * entry stored under a name. The typed lookups do not allocate.
+ * The index is only maintained through the DNSEntry methods of this class, the {@link java.util.Map} API is kept for compatibility.
+ * <p/>
+ * The cache can be bounded by entry count and approximate byte size (see {@link #setCapacity(int, long)}). When it is full, records nobody is interested in according to the {@link EvictionPolicy} are evicted first, the least recently used
+ * records after that.
+ * <p/>
+ * Records are also kept in a deadline ordered queue holding the next point in time at which they become stale or expire, so that the record reaper only has to look at the records that are due (see {@link #getDueEntries(long)}).
+ * A second queue holds the cache maintenance queries of RFC 6762 section 5.2, at 80%, 85%, 90% and 95% of the record TTL (see {@link #getRefreshDueEntries(long)}).
  *
  * @author Arthur van Hoff, Werner Randelshofer, Rick Blair, Pierre Frisch
  */
@@ -43,7 +71,352 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
 
     // private static Logger logger = Logger.getLogger(DNSCache.class.getName());
 
-    private static final long    serialVersionUID = 3024739453186759259L;
+    private static final long                                   serialVersionUID   = 3024739453186759259L;
+
+    /**
+     * Number of lock stripes used to serialize the writers of a name.
+     */
+    private static final int                                    WRITE_LOCK_STRIPES = 32;
+
+    /**
+     * Approximate memory used by a cache entry without its name and value.
+     */
+    private static final int                                    ENTRY_OVERHEAD     = 128;
+
+    /**
+     * When the cache is full it is trimmed down to this percentage of its capacity so that eviction does not run for every new record.
+     */
+    private static final int                                    EVICTION_LOW_WATER = 90;
+
+    /**
+     * Number of cached names looked at to choose the entries evicted for a new entry, so that eviction does not walk the whole cache.
+     */
+    private static final int                                    EVICTION_SAMPLE    = 64;
+
+    /**
+     * Percentages of the TTL at which a record is queried again if it has not been refreshed yet, see RFC 6762 section 5.2.
+     */
+    private static final int[]                                  REFRESH_PERCENTS   = { 80, 85, 90, 95 };
+
+    /**
+     * Random variation added to the refresh times, in percent of the TTL.
+     */
+    private static final int                                    REFRESH_JITTER     = 2;
+
+    /**
+     * Record classes in declaration order, values() returns a new array on every call.
+     */
+    private static final DNSRecordClass[]                       RECORD_CLASSES     = DNSRecordClass.values();
+
+    /**
+     * The eviction policy decides which entries are evicted first when the cache is full.
+     */
+    public static interface EvictionPolicy {
+
+        /**
+         * Check if anybody is interested in this entry. Entries without interest are evicted before all others, and are not cached at all if only entries with interest are left to evict.
+         *
+         * @param dnsEntry
+         * @return <code>true</code> if the entry is of interest, <code>false</code> otherwise
+         */
+        public boolean hasInterest(DNSEntry dnsEntry);
+    }
+
+    /**
+     * Orders entries from least to most recently used.
+     */
+    private static final Comparator<DNSEntry> LEAST_RECENTLY_USED = new Comparator<DNSEntry>() {
+        @Override
+        public int compare(DNSEntry entry1, DNSEntry entry2) {
+            long lastUsed1 = entry1.getLastUsed();
+            long lastUsed2 = entry2.getLastUsed();
+            return (lastUsed1 < lastUsed2 ? -1 : (lastUsed1 == lastUsed2 ? 0 : 1));
+        }
+    };
+
+    /**
+     * Immutable list of entries. A new instance is published for every change so that readers never see a list being modified.
+     */
+    private static final class EntryList extends AbstractList<DNSEntry> implements RandomAccess {
+
+        private static final DNSEntry[] NO_ENTRIES = new DNSEntry[0];
+
+        private final DNSEntry[]        _entries;
+
+        EntryList(DNSEntry[] entries) {
+            _entries = entries;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public DNSEntry get(int index) {
+            return _entries[index];
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int size() {
+            return _entries.length;
+        }
+
+        /**
+         * Returns the position of this very instance in the list.
+         *
+         * @param dnsEntry
+         * @return index or -1
+         */
+        int identityIndexOf(DNSEntry dnsEntry) {
+            for (int i = 0; i < _entries.length; i++) {
+                if (_entries[i] == dnsEntry) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @param list
+         *            list to add to, may be <code>null</code>
+         * @param dnsEntry
+         * @return a new list with the entry appended
+         */
+        static EntryList with(EntryList list, DNSEntry dnsEntry) {
+            DNSEntry[] entries = (list != null ? list._entries : NO_ENTRIES);
+            DNSEntry[] newEntries = new DNSEntry[entries.length + 1];
+            System.arraycopy(entries, 0, newEntries, 0, entries.length);
+            newEntries[entries.length] = dnsEntry;
+            return new EntryList(newEntries);
+        }
+
+        /**
+         * @param index
+         * @return a new list without the entry at the index or <code>null</code> if the list would be empty
+         */
+        EntryList without(int index) {
+            if (_entries.length == 1) {
+                return null;
+            }
+            DNSEntry[] newEntries = new DNSEntry[_entries.length - 1];
+            System.arraycopy(_entries, 0, newEntries, 0, index);
+            System.arraycopy(_entries, index + 1, newEntries, index, newEntries.length - index);
+            return new EntryList(newEntries);
+        }
+    }
+
+    /**
+     * Entries of a name in the secondary index, one bucket per record type. Immutable like the entry lists, a new instance is published for every change. A name has a handful of types at most, they are searched linearly.
+     */
+    private static final class NameIndex {
+
+        private static final DNSRecordType[] NO_TYPES   = new DNSRecordType[0];
+
+        private static final EntryList[]     NO_BUCKETS = new EntryList[0];
+
+        private final DNSRecordType[]        _types;
+
+        private final EntryList[]            _buckets;
+
+        NameIndex(DNSRecordType[] types, EntryList[] buckets) {
+            _types = types;
+            _buckets = buckets;
+        }
+
+        /**
+         * @param type
+         * @return entries of the type or <code>null</code>
+         */
+        EntryList bucket(DNSRecordType type) {
+            for (int i = 0; i < _types.length; i++) {
+                if (_types[i] == type) {
+                    return _buckets[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param index
+         *            index to change, may be <code>null</code>
+         * @param type
+         * @param bucket
+         *            new entries of the type, <code>null</code> to drop the type
+         * @return a new index with the bucket of the type replaced or <code>null</code> if the index would be empty
+         */
+        static NameIndex with(NameIndex index, DNSRecordType type, EntryList bucket) {
+            DNSRecordType[] types = (index != null ? index._types : NO_TYPES);
+            EntryList[] buckets = (index != null ? index._buckets : NO_BUCKETS);
+            int position = -1;
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == type) {
+                    position = i;
+                    break;
+                }
+            }
+            if (bucket != null) {
+                if (position >= 0) {
+                    EntryList[] newBuckets = buckets.clone();
+                    newBuckets[position] = bucket;
+                    return new NameIndex(types, newBuckets);
+                }
+                DNSRecordType[] newTypes = new DNSRecordType[types.length + 1];
+                EntryList[] newBuckets = new EntryList[buckets.length + 1];
+                System.arraycopy(types, 0, newTypes, 0, types.length);
+                System.arraycopy(buckets, 0, newBuckets, 0, buckets.length);
+                newTypes[types.length] = type;
+                newBuckets[buckets.length] = bucket;
+                return new NameIndex(newTypes, newBuckets);
+            }
+            if (position < 0) {
+                return index;
+            }
+            if (types.length == 1) {
+                return null;
+            }
+            DNSRecordType[] newTypes = new DNSRecordType[types.length - 1];
+            EntryList[] newBuckets = new EntryList[buckets.length - 1];
+            System.arraycopy(types, 0, newTypes, 0, position);
+            System.arraycopy(types, position + 1, newTypes, position, newTypes.length - position);
+            System.arraycopy(buckets, 0, newBuckets, 0, position);
+            System.arraycopy(buckets, position + 1, newBuckets, position, newBuckets.length - position);
+            return new NameIndex(newTypes, newBuckets);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return Arrays.toString(_types);
+        }
+    }
+
+    /**
+     * Next stale or expiration deadline of a cached record. The record TTL may change after the deadline was queued, it is checked again when the deadline is due. A record has a single current deadline, the ones it replaced stay in
+     * the queue until they are due or purged and are then ignored.
+     */
+    private static class Deadline implements Comparable<Deadline> {
+
+        final long      _time;
+
+        final DNSRecord _record;
+
+        Deadline(long time, DNSRecord record) {
+            _time = time;
+            _record = record;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(Deadline other) {
+            return (_time < other._time ? -1 : (_time == other._time ? 0 : 1));
+        }
+    }
+
+    /**
+     * Next refresh query of a cached record. The expiration time of the record when the refresh was planned tells whether the record has been refreshed since.
+     */
+    private static final class Refresh extends Deadline {
+
+        final long _expiration;
+
+        /**
+         * Index in REFRESH_PERCENTS, or the length of REFRESH_PERCENTS for the final check at expiration time.
+         */
+        final int  _attempt;
+
+        Refresh(long time, DNSRecord record, long expiration, int attempt) {
+            super(time, record);
+            _expiration = expiration;
+            _attempt = attempt;
+        }
+    }
+
+    /**
+     * Secondary index on (name, type), the buckets hold all the classes. Updated while holding the write lock of the name.
+     */
+    private final transient ConcurrentMap<String, NameIndex>     _index                      = new ConcurrentHashMap<String, NameIndex>();
+
+    /**
+     * Lock stripes serializing the writers of a name.
+     */
+    private final transient Object[]                             _writeLocks                 = new Object[WRITE_LOCK_STRIPES];
+
+    /**
+     * Stale and expiration deadlines of the cached records. Must be synchronized on.
+     */
+    private final transient PriorityQueue<Deadline>              _deadlines                  = new PriorityQueue<Deadline>();
+
+    /**
+     * Current deadline of each cached record, the other deadlines of the record in the queue are ignored. Guarded by the deadline queue.
+     */
+    private final transient Map<DNSRecord, Deadline>             _currentDeadlines           = new IdentityHashMap<DNSRecord, Deadline>();
+
+    /**
+     * Refresh query times of the cached records. Must be synchronized on.
+     */
+    private final transient PriorityQueue<Refresh>               _refreshes                  = new PriorityQueue<Refresh>();
+
+    private final transient Random                               _random                     = new Random();
+
+    private final AtomicInteger                                  _entryCount                 = new AtomicInteger();
+
+    private final AtomicLong                                     _byteSize                   = new AtomicLong();
+
+    private final AtomicLong                                     _evictedWithoutInterest     = new AtomicLong();
+
+    private final AtomicLong                                     _evictedLeastRecentlyUsed   = new AtomicLong();
+
+    private final AtomicLong                                     _rejected                   = new AtomicLong();
+
+    /**
+     * Maximum number of entries, 0 means unbounded.
+     */
+    private volatile int                                         _maxEntries;
+
+    /**
+     * Maximum approximate size in bytes, 0 means unbounded.
+     */
+    private volatile long                                        _maxBytes;
+
+    private volatile EvictionPolicy                              _evictionPolicy;
+
+    /**
+     * Serializes evictions.
+     */
+    private final transient Object                               _evictionLock               = new Object();
+
+    /**
+     * Position of the eviction sampling in the cached names, continued by each eviction. Guarded by the eviction lock.
+     */
+    private transient Iterator<List<DNSEntry>>                   _evictionCursor;
+
+    // Statistics, see getStatistics()
+
+    private final long                                           _since                      = System.currentTimeMillis();
+
+    private final transient StripedCounter[]                     _lookups                    = new StripedCounter[Lookup.values().length];
+
+    private final transient StripedCounter[]                     _hits                       = new StripedCounter[Lookup.values().length];
+
+    private final transient AtomicIntegerArray                   _entriesPerType             = new AtomicIntegerArray(DNSRecordType.values().length);
+
+    private final transient StripedCounter                       _adds                       = new StripedCounter();
+
+    private final transient StripedCounter                       _replaces                   = new StripedCounter();
+
+    private final transient StripedCounter                       _removes                    = new StripedCounter();
+
+    private final transient StripedCounter                       _expirations                = new StripedCounter();
+
+    private final transient StripedCounter                       _cleanups                   = new StripedCounter();
+
+    private final transient StripedCounter                       _cleanupNanos               = new StripedCounter();
 
     /**
      *
@@ -58,7 +431,9 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     public DNSCache(DNSCache map) {
         this(map != null ? map.size() : 1024);
         if (map != null) {
-            this.putAll(map);
+            for (DNSEntry entry : map.allValues()) {
+                this.addDNSEntry(entry);
+            }
         }
     }
 
@@ -69,6 +444,13 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
      */
     public DNSCache(int initialCapacity) {
         super(initialCapacity);
+        for (int i = 0; i < _writeLocks.length; i++) {
+            _writeLocks[i] = new Object();
+        }
+        for (int i = 0; i < _lookups.length; i++) {
+            _lookups[i] = new StripedCounter();
+            _hits[i] = new StripedCounter();
+        }
     }
 
     // ====================================================================
@@ -82,6 +464,27 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         return new DNSCache(this);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        _index.clear();
+        synchronized (_deadlines) {
+            _deadlines.clear();
+            _currentDeadlines.clear();
+        }
+        synchronized (_refreshes) {
+            _refreshes.clear();
+        }
+        _entryCount.set(0);
+        _byteSize.set(0);
+        for (int i = 0; i < _entriesPerType.length(); i++) {
+            _entriesPerType.set(i, 0);
+        }
+    }
+
     // ====================================================================
 
     /**
@@ -100,27 +503,21 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     }
 
     /**
-     * Iterate only over items with matching name. Returns an list of DNSEntry or null. To retrieve all entries, one must iterate over this linked list.
+     * Iterate only over items with matching name. Returns an list of DNSEntry or null. To retrieve all entries, one must iterate over this linked list.<br/>
+     * The returned list is an immutable snapshot.
      *
      * @param name
      * @return list of DNSEntries
      */
     public Collection<? extends DNSEntry> getDNSEntryList(String name) {
-        Collection<? extends DNSEntry> entryList = this._getDNSEntryList(name);
-        if (entryList != null) {
-            synchronized (entryList) {
-                entryList = new ArrayList<DNSEntry>(entryList);
-            }
-        } else {
+        Collection<? extends DNSEntry> entryList = (name != null ? this.get(name.toLowerCase()) : null);
+        if (entryList == null) {
             entryList = Collections.emptyList();
         }
+        this.countLookup(Lookup.ENTRY_LIST, !entryList.isEmpty());
         return entryList;
     }
 
-    private Collection<? extends DNSEntry> _getDNSEntryList(String name) {
-        return this.get(name != null ? name.toLowerCase() : null);
-    }
-
     /**
      * Get a matching DNS entry from the table (using isSameEntry). Returns the entry that was found.
      *
@@ -130,18 +527,9 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     public DNSEntry getDNSEntry(DNSEntry dnsEntry) {
         DNSEntry result = null;
         if (dnsEntry != null) {
-            Collection<? extends DNSEntry> entryList = this._getDNSEntryList(dnsEntry.getKey());
-            if (entryList != null) {
-                synchronized (entryList) {
-                    for (DNSEntry testDNSEntry : entryList) {
-                        if (testDNSEntry.isSameEntry(dnsEntry)) {
-                            result = testDNSEntry;
-                            break;
-                        }
-                    }
-                }
-            }
+            result = this._getDNSEntry(dnsEntry.getKey(), dnsEntry.getRecordType(), dnsEntry.getRecordClass(), dnsEntry);
         }
+        this.countLookup(Lookup.ENTRY, result != null);
         return result;
     }
 
@@ -154,21 +542,55 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
      * @return DNSEntry
      */
     public DNSEntry getDNSEntry(String name, DNSRecordType type, DNSRecordClass recordClass) {
-        DNSEntry result = null;
-        Collection<? extends DNSEntry> entryList = this._getDNSEntryList(name);
-        if (entryList != null) {
-            synchronized (entryList) {
-                for (DNSEntry testDNSEntry : entryList) {
-                    if (testDNSEntry.matchRecordType(type) && testDNSEntry.matchRecordClass(recordClass)) {
-                        result = testDNSEntry;
-                        break;
-                    }
+        DNSEntry result = this._getDNSEntry(name != null ? name.toLowerCase() : null, type, recordClass, null);
+        this.countLookup(Lookup.TYPED_ENTRY, result != null);
+        return result;
+    }
+
+    /**
+     * Looks up the index bucket of the name and type for an entry of the class. If <code>sameEntry</code> is not null the result must also satisfy isSameEntry, which for some records compares the value as well.
+     */
+    private DNSEntry _getDNSEntry(String key, DNSRecordType type, DNSRecordClass recordClass, DNSEntry sameEntry) {
+        if ((key == null) || (type == null) || (recordClass == null)) {
+            return null;
+        }
+        EntryList bucket = this.indexBucket(key, type);
+        if (bucket == null) {
+            return null;
+        }
+        if (DNSRecordClass.CLASS_ANY == recordClass) {
+            // Any class matches, look at the classes in order.
+            for (DNSRecordClass aClass : RECORD_CLASSES) {
+                DNSEntry result = this.firstIndexedEntry(bucket, aClass, sameEntry);
+                if (result != null) {
+                    return result;
                 }
             }
+            return null;
+        }
+        DNSEntry result = this.firstIndexedEntry(bucket, recordClass, sameEntry);
+        if (result == null) {
+            // Entries of class ANY match any requested class
+            result = this.firstIndexedEntry(bucket, DNSRecordClass.CLASS_ANY, sameEntry);
         }
         return result;
     }
 
+    private EntryList indexBucket(String key, DNSRecordType type) {
+        NameIndex nameIndex = _index.get(key);
+        return (nameIndex != null ? nameIndex.bucket(type) : null);
+    }
+
+    private DNSEntry firstIndexedEntry(EntryList bucket, DNSRecordClass recordClass, DNSEntry sameEntry) {
+        for (DNSEntry testDNSEntry : bucket._entries) {
+            if ((testDNSEntry.getRecordClass() == recordClass) && ((sameEntry == null) || testDNSEntry.isSameEntry(sameEntry))) {
+                testDNSEntry.setLastUsed(System.currentTimeMillis());
+                return testDNSEntry;
+            }
+        }
+        return null;
+    }
+
     /**
      * Get all matching DNS entries from the table.
      *
@@ -178,21 +600,61 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
      * @return list of entries
      */
     public Collection<? extends DNSEntry> getDNSEntryList(String name, DNSRecordType type, DNSRecordClass recordClass) {
-        Collection<? extends DNSEntry> entryList = this._getDNSEntryList(name);
-        if (entryList != null) {
-            synchronized (entryList) {
-                entryList = new ArrayList<DNSEntry>(entryList);
-                for (Iterator<? extends DNSEntry> i = entryList.iterator(); i.hasNext();) {
-                    DNSEntry testDNSEntry = i.next();
-                    if (!testDNSEntry.matchRecordType(type) || (!testDNSEntry.matchRecordClass(recordClass))) {
-                        i.remove();
-                    }
-                }
+        List<DNSEntry> entryList = null;
+        if ((name != null) && (type != null) && (recordClass != null)) {
+            EntryList bucket = this.indexBucket(name.toLowerCase(), type);
+            if (bucket != null) {
+                entryList = entriesOfClass(bucket, recordClass);
+            }
+        }
+        this.countLookup(Lookup.TYPED_ENTRY_LIST, entryList != null);
+        return (entryList != null ? entryList : Collections.<DNSEntry> emptyList());
+    }
+
+    private void countLookup(Lookup lookup, boolean hit) {
+        _lookups[lookup.ordinal()].increment();
+        if (hit) {
+            _hits[lookup.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Returns the entries of the bucket matching the class, grouped by class with the entries of class ANY after the requested class. The immutable bucket is returned as is when its entries all have the same class, so that the common
+     * lookup does not copy.
+     *
+     * @return matching entries or <code>null</code> if there are none
+     */
+    private static List<DNSEntry> entriesOfClass(EntryList bucket, DNSRecordClass recordClass) {
+        DNSRecordClass bucketClass = bucket._entries[0].getRecordClass();
+        boolean singleClass = true;
+        for (DNSEntry entry : bucket._entries) {
+            if (entry.getRecordClass() != bucketClass) {
+                singleClass = false;
+                break;
+            }
+        }
+        if (singleClass) {
+            boolean matches = (DNSRecordClass.CLASS_ANY == recordClass) || (DNSRecordClass.CLASS_ANY == bucketClass) || (recordClass == bucketClass);
+            return (matches ? bucket : null);
+        }
+        List<DNSEntry> result = new ArrayList<DNSEntry>(bucket.size());
+        if (DNSRecordClass.CLASS_ANY == recordClass) {
+            for (DNSRecordClass aClass : RECORD_CLASSES) {
+                addEntriesOfClass(bucket, aClass, result);
             }
         } else {
-            entryList = Collections.emptyList();
+            addEntriesOfClass(bucket, recordClass, result);
+            addEntriesOfClass(bucket, DNSRecordClass.CLASS_ANY, result);
+        }
+        return (result.isEmpty() ? null : result);
+    }
+
+    private static void addEntriesOfClass(EntryList bucket, DNSRecordClass recordClass, List<DNSEntry> result) {
+        for (DNSEntry entry : bucket._entries) {
+            if (entry.getRecordClass() == recordClass) {
+                result.add(entry);
+            }
         }
-        return entryList;
     }
 
     /**
@@ -204,14 +666,11 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     public boolean addDNSEntry(final DNSEntry dnsEntry) {
         boolean result = false;
         if (dnsEntry != null) {
-            List<DNSEntry> entryList = this.get(dnsEntry.getKey());
-            if (entryList == null) {
-                this.putIfAbsent(dnsEntry.getKey(), new ArrayList<DNSEntry>());
-                entryList = this.get(dnsEntry.getKey());
-            }
-            synchronized (entryList) {
-                entryList.add(dnsEntry);
+            synchronized (this.writeLock(dnsEntry.getKey())) {
+                this.put(dnsEntry.getKey(), EntryList.with(this.entryList(dnsEntry.getKey()), dnsEntry));
+                this.indexEntry(dnsEntry);
             }
+            _adds.increment();
             // This is probably not very informative
             result = true;
         }
@@ -227,11 +686,11 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     public boolean removeDNSEntry(DNSEntry dnsEntry) {
         boolean result = false;
         if (dnsEntry != null) {
-            List<DNSEntry> entryList = this.get(dnsEntry.getKey());
-            if (entryList != null) {
-                synchronized (entryList) {
-                    entryList.remove(dnsEntry);
-                }
+            synchronized (this.writeLock(dnsEntry.getKey())) {
+                result = this._removeDNSEntry(dnsEntry, false);
+            }
+            if (result) {
+                _removes.increment();
             }
         }
         return result;
@@ -248,21 +707,564 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     public boolean replaceDNSEntry(DNSEntry newDNSEntry, DNSEntry existingDNSEntry) {
         boolean result = false;
         if ((newDNSEntry != null) && (existingDNSEntry != null) && (newDNSEntry.getKey().equals(existingDNSEntry.getKey()))) {
-            List<DNSEntry> entryList = this.get(newDNSEntry.getKey());
-            if (entryList == null) {
-                this.putIfAbsent(newDNSEntry.getKey(), new ArrayList<DNSEntry>());
-                entryList = this.get(newDNSEntry.getKey());
-            }
-            synchronized (entryList) {
-                entryList.remove(existingDNSEntry);
-                entryList.add(newDNSEntry);
+            synchronized (this.writeLock(newDNSEntry.getKey())) {
+                this._removeDNSEntry(existingDNSEntry, false);
+                this.put(newDNSEntry.getKey(), EntryList.with(this.entryList(newDNSEntry.getKey()), newDNSEntry));
+                this.indexEntry(newDNSEntry);
             }
+            _replaces.increment();
             // This is probably not very informative
             result = true;
         }
         return result;
     }
 
+    /**
+     * Removes the given instance or the first entry equal to it. The caller must hold the write lock of the entry name.
+     */
+    private boolean _removeDNSEntry(DNSEntry dnsEntry, boolean sameInstance) {
+        EntryList entryList = this.entryList(dnsEntry.getKey());
+        int index = -1;
+        if (entryList != null) {
+            index = (sameInstance ? entryList.identityIndexOf(dnsEntry) : entryList.indexOf(dnsEntry));
+        }
+        if (index < 0) {
+            return false;
+        }
+        EntryList newEntryList = entryList.without(index);
+        if (newEntryList != null) {
+            this.put(dnsEntry.getKey(), newEntryList);
+        } else {
+            this.remove(dnsEntry.getKey(), entryList);
+        }
+        this.unindexEntry(entryList.get(index));
+        return true;
+    }
+
+    /**
+     * Returns the entry list of the name as an EntryList, lists stored through the Map API are converted.
+     */
+    private EntryList entryList(String key) {
+        List<DNSEntry> entryList = this.get(key);
+        if ((entryList == null) || (entryList instanceof EntryList)) {
+            return (EntryList) entryList;
+        }
+        return new EntryList(entryList.toArray(new DNSEntry[entryList.size()]));
+    }
+
+    private Object writeLock(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return _writeLocks[hash & (WRITE_LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Adds the entry to the secondary index. The caller must hold the write lock of the entry name.
+     *
+     * @param dnsEntry
+     */
+    private void indexEntry(DNSEntry dnsEntry) {
+        String key = dnsEntry.getKey();
+        NameIndex nameIndex = _index.get(key);
+        EntryList bucket = (nameIndex != null ? nameIndex.bucket(dnsEntry.getRecordType()) : null);
+        _index.put(key, NameIndex.with(nameIndex, dnsEntry.getRecordType(), EntryList.with(bucket, dnsEntry)));
+        _entryCount.incrementAndGet();
+        _entriesPerType.incrementAndGet(dnsEntry.getRecordType().ordinal());
+        _byteSize.addAndGet(estimateSize(dnsEntry));
+        long now = System.currentTimeMillis();
+        dnsEntry.setLastUsed(now);
+        this.scheduleDeadline(dnsEntry, now);
+        this.scheduleRefresh(dnsEntry, now);
+    }
+
+    /**
+     * Removes the entry from the secondary index. The caller must hold the write lock of the entry name.
+     *
+     * @param dnsEntry
+     *            the instance removed from the entry list
+     */
+    private void unindexEntry(DNSEntry dnsEntry) {
+        String key = dnsEntry.getKey();
+        NameIndex nameIndex = _index.get(key);
+        EntryList bucket = (nameIndex != null ? nameIndex.bucket(dnsEntry.getRecordType()) : null);
+        // Remove the very instance that was removed from the name list, equals() also matches other records with the same value
+        int index = (bucket != null ? bucket.identityIndexOf(dnsEntry) : -1);
+        if (index >= 0) {
+            NameIndex newNameIndex = NameIndex.with(nameIndex, dnsEntry.getRecordType(), bucket.without(index));
+            if (newNameIndex != null) {
+                _index.put(key, newNameIndex);
+            } else {
+                _index.remove(key, nameIndex);
+            }
+            _entryCount.decrementAndGet();
+            _entriesPerType.decrementAndGet(dnsEntry.getRecordType().ordinal());
+            _byteSize.addAndGet(-estimateSize(dnsEntry));
+            if (dnsEntry instanceof DNSRecord) {
+                synchronized (_deadlines) {
+                    _currentDeadlines.remove(dnsEntry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Approximate memory used by the entry.
+     */
+    private static long estimateSize(DNSEntry dnsEntry) {
+        long size = ENTRY_OVERHEAD + 2L * (dnsEntry.getName().length() + dnsEntry.getKey().length() + dnsEntry.getType().length());
+        if (dnsEntry instanceof DNSRecord.Text) {
+            byte[] text = ((DNSRecord.Text) dnsEntry).getText();
+            size += (text != null ? text.length : 0);
+        } else if (dnsEntry instanceof DNSRecord.Pointer) {
+            String alias = ((DNSRecord.Pointer) dnsEntry).getAlias();
+            size += (alias != null ? 2L * alias.length() : 0);
+        } else if (dnsEntry instanceof DNSRecord.Service) {
+            String server = ((DNSRecord.Service) dnsEntry).getServer();
+            size += (server != null ? 2L * server.length() : 0);
+        } else if (dnsEntry instanceof DNSRecord.Address) {
+            size += 32;
+        }
+        return size;
+    }
+
+    // ====================================================================
+    // Capacity
+
+    /**
+     * Bounds the cache. A value of 0 leaves the corresponding dimension unbounded.
+     *
+     * @param maxEntries
+     *            maximum number of entries
+     * @param maxBytes
+     *            maximum approximate memory used by the entries in bytes
+     */
+    public void setCapacity(int maxEntries, long maxBytes) {
+        _maxEntries = Math.max(0, maxEntries);
+        _maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * @return maximum number of entries, 0 if unbounded
+     */
+    public int getMaxEntries() {
+        return _maxEntries;
+    }
+
+    /**
+     * @return maximum approximate memory used by the entries in bytes, 0 if unbounded
+     */
+    public long getMaxBytes() {
+        return _maxBytes;
+    }
+
+    /**
+     * @param evictionPolicy
+     *            the eviction policy, without policy all entries are considered of interest
+     */
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        _evictionPolicy = evictionPolicy;
+    }
+
+    /**
+     * @return the eviction policy
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return _evictionPolicy;
+    }
+
+    /**
+     * @return number of entries in the cache
+     */
+    public int getEntryCount() {
+        return _entryCount.get();
+    }
+
+    /**
+     * @return approximate memory used by the entries in bytes
+     */
+    public long getByteSize() {
+        return _byteSize.get();
+    }
+
+    /**
+     * @return number of entries evicted because nobody was interested in them
+     */
+    public long getEvictedWithoutInterestCount() {
+        return _evictedWithoutInterest.get();
+    }
+
+    /**
+     * @return number of entries of interest evicted because they were the least recently used
+     */
+    public long getEvictedLeastRecentlyUsedCount() {
+        return _evictedLeastRecentlyUsed.get();
+    }
+
+    /**
+     * @return number of new entries which were not cached because the cache was full of entries of interest
+     */
+    public long getRejectedCount() {
+        return _rejected.get();
+    }
+
+    /**
+     * @return number of queued stale and expiration deadlines, including the replaced ones not purged yet
+     */
+    int getDeadlineCount() {
+        synchronized (_deadlines) {
+            return _deadlines.size();
+        }
+    }
+
+    private boolean fits(long entries, long bytes) {
+        int maxEntries = _maxEntries;
+        long maxBytes = _maxBytes;
+        return ((maxEntries <= 0) || (entries <= maxEntries)) && ((maxBytes <= 0) || (bytes <= maxBytes));
+    }
+
+    private boolean hasInterest(DNSEntry dnsEntry) {
+        EvictionPolicy evictionPolicy = _evictionPolicy;
+        return (evictionPolicy == null) || evictionPolicy.hasInterest(dnsEntry);
+    }
+
+    /**
+     * Makes room for a new entry before it is added, evicting other entries if the cache is full.<br/>
+     * The candidates are the entries of the next names of the cache in turn, a bounded sample, so that a full cache does not cost a walk of the whole cache for every new entry. Among them entries nobody is interested in are evicted
+     * first, trimming the cache towards its low water mark, then the least recently used ones until the new entry fits. A new entry nobody is interested in never causes an entry of interest to be evicted, it is rejected at once when
+     * the sample holds no entry without interest.
+     *
+     * @param dnsEntry
+     *            entry about to be added
+     * @return <code>true</code> if the entry can be added, <code>false</code> if it should not be cached
+     */
+    public boolean makeRoomFor(DNSEntry dnsEntry) {
+        if ((dnsEntry == null) || ((_maxEntries <= 0) && (_maxBytes <= 0))) {
+            return true;
+        }
+        long size = estimateSize(dnsEntry);
+        if (this.fits(_entryCount.get() + 1, _byteSize.get() + size)) {
+            return true;
+        }
+        synchronized (_evictionLock) {
+            if (this.fits(_entryCount.get() + 1, _byteSize.get() + size)) {
+                return true;
+            }
+            // Trim to the low water mark so that we do not evict for every new record
+            long entryTarget = (_maxEntries > 0 ? (_maxEntries * (long) EVICTION_LOW_WATER) / 100 : Long.MAX_VALUE);
+            long byteTarget = (_maxBytes > 0 ? (_maxBytes * EVICTION_LOW_WATER) / 100 : Long.MAX_VALUE);
+            boolean interest = this.hasInterest(dnsEntry);
+            List<DNSEntry> withoutInterest = new ArrayList<DNSEntry>();
+            List<DNSEntry> withInterest = (interest ? new ArrayList<DNSEntry>() : null);
+            this.sampleEntries(withoutInterest, withInterest);
+            if (!interest && withoutInterest.isEmpty()) {
+                _rejected.incrementAndGet();
+                return false;
+            }
+            this.evict(withoutInterest, entryTarget, byteTarget, _evictedWithoutInterest);
+            boolean fits = this.fits(_entryCount.get() + 1, _byteSize.get() + size);
+            if (!fits && interest) {
+                // Only evict what the new entry needs
+                long entryLimit = (_maxEntries > 0 ? _maxEntries : Long.MAX_VALUE);
+                long byteLimit = (_maxBytes > 0 ? _maxBytes - size + 1 : Long.MAX_VALUE);
+                this.evict(withInterest, entryLimit, byteLimit, _evictedLeastRecentlyUsed);
+                fits = this.fits(_entryCount.get() + 1, _byteSize.get() + size);
+            }
+            this.purgeDeadlines(_deadlines, _currentDeadlines);
+            this.purgeDeadlines(_refreshes, null);
+            if (!fits) {
+                _rejected.incrementAndGet();
+            }
+            return fits;
+        }
+    }
+
+    /**
+     * Collects the entries of the next EVICTION_SAMPLE names, continuing after the names sampled by the previous eviction and starting over at the end of the cache.
+     *
+     * @param withoutInterest
+     *            receives the entries nobody is interested in
+     * @param withInterest
+     *            receives the entries of interest, <code>null</code> if they are not needed
+     */
+    private void sampleEntries(List<DNSEntry> withoutInterest, List<DNSEntry> withInterest) {
+        boolean restarted = false;
+        for (int names = 0; names < EVICTION_SAMPLE; names++) {
+            if ((_evictionCursor == null) || !_evictionCursor.hasNext()) {
+                if (restarted) {
+                    // The cache has fewer names than the sample
+                    break;
+                }
+                _evictionCursor = this.values().iterator();
+                restarted = true;
+                if (!_evictionCursor.hasNext()) {
+                    break;
+                }
+            }
+            for (DNSEntry entry : _evictionCursor.next()) {
+                if (!this.hasInterest(entry)) {
+                    withoutInterest.add(entry);
+                } else if (withInterest != null) {
+                    withInterest.add(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used candidates until the cache is below the targets.
+     */
+    private void evict(List<DNSEntry> candidates, long entryTarget, long byteTarget, AtomicLong counter) {
+        Collections.sort(candidates, LEAST_RECENTLY_USED);
+        for (DNSEntry entry : candidates) {
+            if ((_entryCount.get() < entryTarget) && (_byteSize.get() < byteTarget)) {
+                break;
+            }
+            boolean evicted;
+            synchronized (this.writeLock(entry.getKey())) {
+                evicted = this._removeDNSEntry(entry, true);
+            }
+            if (evicted) {
+                counter.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops the deadlines of the records no longer in the cache so that evicted records can be garbage collected, and the deadlines which have been replaced. The cost is amortized over the evictions and expiration updates.
+     *
+     * @param queue
+     *            deadline queue
+     * @param current
+     *            current deadline of each record, guarded by the queue, or <code>null</code> if a record may have several deadlines
+     */
+    private <T extends Deadline> void purgeDeadlines(PriorityQueue<T> queue, Map<DNSRecord, T> current) {
+        List<T> deadlines;
+        synchronized (queue) {
+            // Only walk the queue once it holds as many dropped deadlines as live ones
+            if (queue.size() <= 2 * _entryCount.get()) {
+                return;
+            }
+            deadlines = new ArrayList<T>(queue);
+        }
+        List<T> stale = new ArrayList<T>();
+        if (current == null) {
+            for (T deadline : deadlines) {
+                if (!this.isCached(deadline._record)) {
+                    stale.add(deadline);
+                }
+            }
+        }
+        if ((current != null) || !stale.isEmpty()) {
+            synchronized (queue) {
+                Set<T> staleSet = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+                staleSet.addAll(stale);
+                List<T> kept = new ArrayList<T>(queue.size());
+                for (T deadline : queue) {
+                    if ((current != null) ? (current.get(deadline._record) == deadline) : !staleSet.contains(deadline)) {
+                        kept.add(deadline);
+                    }
+                }
+                queue.clear();
+                queue.addAll(kept);
+            }
+        }
+    }
+
+    private boolean isCached(DNSEntry dnsEntry) {
+        EntryList bucket = this.indexBucket(dnsEntry.getKey(), dnsEntry.getRecordType());
+        return (bucket != null) && (bucket.identityIndexOf(dnsEntry) >= 0);
+    }
+
+    /**
+     * Queue the next deadline of the entry, this is the stale time if it is still ahead and the expiration time otherwise. It replaces the previous deadline of the entry.
+     */
+    private void scheduleDeadline(DNSEntry dnsEntry, long now) {
+        if (dnsEntry instanceof DNSRecord) {
+            DNSRecord record = (DNSRecord) dnsEntry;
+            long stale = record.getExpirationTime(50);
+            this.queueDeadline(record, (stale > now ? stale : record.getExpirationTime(100)));
+        }
+    }
+
+    private void queueDeadline(DNSRecord record, long time) {
+        Deadline deadline = new Deadline(time, record);
+        synchronized (_deadlines) {
+            _deadlines.add(deadline);
+            _currentDeadlines.put(record, deadline);
+        }
+    }
+
+    /**
+     * Queue the first refresh query of the entry which is still ahead. Records about to go away are not refreshed.
+     */
+    private void scheduleRefresh(DNSEntry dnsEntry, long now) {
+        if (dnsEntry instanceof DNSRecord) {
+            DNSRecord record = (DNSRecord) dnsEntry;
+            if (record.getTTL() > DNSConstants.RECORD_EXPIRY_DELAY) {
+                int attempt = 0;
+                while ((attempt < REFRESH_PERCENTS.length) && (record.getExpirationTime(REFRESH_PERCENTS[attempt]) <= now)) {
+                    attempt++;
+                }
+                this.scheduleRefresh(record, attempt);
+            }
+        }
+    }
+
+    private void scheduleRefresh(DNSRecord record, int attempt) {
+        long expiration = record.getExpirationTime(100);
+        long time = expiration;
+        if (attempt < REFRESH_PERCENTS.length) {
+            // The TTL is in seconds, 1% of it is ttl * 10 ms
+            time = record.getExpirationTime(REFRESH_PERCENTS[attempt]) + (long) (_random.nextDouble() * REFRESH_JITTER * record.getTTL() * 10L);
+        }
+        Refresh refresh = new Refresh(time, record, expiration, attempt);
+        synchronized (_refreshes) {
+            _refreshes.add(refresh);
+        }
+    }
+
+    /**
+     * Returns the cached records that should be queried again because they are getting close to their expiration and have not been refreshed. A record is returned at most 4 times per TTL, at 80%, 85%, 90% and 95% of its TTL plus a random
+     * variation of up to 2% of the TTL. Records refreshed since are rescheduled instead. This only looks at the records that are due and never walks the whole cache.
+     *
+     * @param now
+     *            update date
+     * @return records to query
+     */
+    public Collection<DNSRecord> getRefreshDueEntries(long now) {
+        List<Refresh> due = null;
+        synchronized (_refreshes) {
+            while (!_refreshes.isEmpty() && (_refreshes.peek()._time <= now)) {
+                if (due == null) {
+                    due = new ArrayList<Refresh>();
+                }
+                due.add(_refreshes.poll());
+            }
+        }
+        if (due == null) {
+            return Collections.emptyList();
+        }
+        List<DNSRecord> result = new ArrayList<DNSRecord>(due.size());
+        for (Refresh refresh : due) {
+            DNSRecord record = refresh._record;
+            if (!this.isCached(record)) {
+                // Removed or replaced since, drop the refresh
+                continue;
+            }
+            if (record.getExpirationTime(100) != refresh._expiration) {
+                // Refreshed or flushed in the meantime, start over
+                this.scheduleRefresh(record, now);
+            } else if (refresh._attempt < REFRESH_PERCENTS.length) {
+                if (!record.isExpired(now)) {
+                    result.add(record);
+                }
+                this.scheduleRefresh(record, refresh._attempt + 1);
+            }
+            // else the last query was not answered, the reaper removes the record
+        }
+        return result;
+    }
+
+    /**
+     * Notify the cache that the TTL of a cached entry has been shortened, e.g. after it has been flushed. Extending the TTL does not need to be notified.
+     *
+     * @param dnsEntry
+     *            cached entry
+     */
+    public void updateDNSEntryExpiration(DNSEntry dnsEntry) {
+        if ((dnsEntry != null) && this.isCached(dnsEntry)) {
+            this.scheduleDeadline(dnsEntry, System.currentTimeMillis());
+            this.purgeDeadlines(_deadlines, _currentDeadlines);
+        }
+    }
+
+    /**
+     * Returns the cached entries that have become stale or have expired since the last call. Entries which are still stale are not returned again until they expire. This only looks at the entries that are due and never walks the whole cache.
+     *
+     * @param now
+     *            update date
+     * @return stale and expired entries
+     */
+    public Collection<DNSEntry> getDueEntries(long now) {
+        List<Deadline> due = null;
+        synchronized (_deadlines) {
+            while (!_deadlines.isEmpty() && (_deadlines.peek()._time <= now)) {
+                Deadline deadline = _deadlines.poll();
+                if (_currentDeadlines.get(deadline._record) != deadline) {
+                    // Replaced since or the record was removed
+                    continue;
+                }
+                _currentDeadlines.remove(deadline._record);
+                if (due == null) {
+                    due = new ArrayList<Deadline>();
+                }
+                due.add(deadline);
+            }
+        }
+        if (due == null) {
+            return Collections.emptyList();
+        }
+        Set<DNSEntry> result = Collections.newSetFromMap(new IdentityHashMap<DNSEntry, Boolean>());
+        for (Deadline deadline : due) {
+            DNSRecord record = deadline._record;
+            if (!this.isCached(record)) {
+                // Removed or replaced since, drop the deadline
+                continue;
+            }
+            if (record.isExpired(now)) {
+                result.add(record);
+            } else if (record.isStale(now)) {
+                result.add(record);
+                this.queueDeadline(record, record.getExpirationTime(100));
+            } else {
+                // The TTL was reset in the meantime
+                this.scheduleDeadline(record, now);
+            }
+        }
+        return result;
+    }
+
+    // ====================================================================
+    // Statistics
+
+    /**
+     * Records a cache cleanup.
+     *
+     * @param expired
+     *            number of expired entries removed
+     * @param nanos
+     *            time spent in nanoseconds
+     */
+    void countCleanup(int expired, long nanos) {
+        _expirations.add(expired);
+        _cleanups.increment();
+        _cleanupNanos.add(nanos);
+    }
+
+    /**
+     * Returns a copy of the cache counters. The counters are cheap to update and are only summed here, this should not be called on every lookup.
+     *
+     * @return cache statistics
+     */
+    public DNSCacheStatistics getStatistics() {
+        long[] lookups = new long[_lookups.length];
+        long[] hits = new long[_hits.length];
+        for (int i = 0; i < lookups.length; i++) {
+            // Read the hits first so that they never exceed the lookups
+            hits[i] = _hits[i].sum();
+            lookups[i] = _lookups[i].sum();
+        }
+        Map<DNSRecordType, Integer> entriesPerType = new EnumMap<DNSRecordType, Integer>(DNSRecordType.class);
+        for (DNSRecordType type : DNSRecordType.values()) {
+            int count = _entriesPerType.get(type.ordinal());
+            if (count > 0) {
+                entriesPerType.put(type, Integer.valueOf(count));
+            }
+        }
+        return new DNSCacheStatistics(System.currentTimeMillis(), _since, lookups, hits, entriesPerType, this.getEntryCount(), this.getByteSize(), _adds.sum(), _replaces.sum(), _removes.sum(), _expirations.sum(),
+                this.getEvictedWithoutInterestCount(), this.getEvictedLeastRecentlyUsedCount(), this.getRejectedCount(), _cleanups.sum(), _cleanupNanos.sum());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -277,11 +1279,9 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
             aLog.append("' ");
             List<? extends DNSEntry> entryList = this.get(key);
             if ((entryList != null) && (!entryList.isEmpty())) {
-                synchronized (entryList) {
-                    for (DNSEntry entry : entryList) {
-                        aLog.append("\n\t\t\t");
-                        aLog.append(entry.toString());
-                    }
+                for (DNSEntry entry : entryList) {
+                    aLog.append("\n\t\t\t");
+                    aLog.append(entry.toString());
                 }
             } else {
                 aLog.append(" no entries");
@@ -0,0 +1,283 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jmdns.impl.constants.DNSRecordClass;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+/**
+ * Persistent snapshot of the non expired records of a {@link DNSCache}. This lets a new or recovering JmDNS know about the previously discovered peers before the first query round completes.
+ * <p>
+ * The file holds a small header followed by one entry per record:
+ *
+ * <pre>
+ * header: magic (int) version (short) count (int)
+ * record: type (short) class (short, with the unique bit) ttl (int) expiration time in ms (long) name (short length + UTF-8) rdata (short length + bytes)
+ * </pre>
+ *
+ * The rdata holds the value of the record in a type specific layout, the expiration time is absolute so that the remaining TTL is preserved across restarts. The file is read at once into a heap buffer rather than mapped, as some platforms cannot
+ * replace or delete a file while a mapping of it is alive.
+ * </p>
+ * <p>
+ * <b>Note: </b> This is not considered as part of the general public API of JmDNS.
+ * </p>
+ */
+public final class DNSCacheSnapshot {
+    private static Logger    logger  = Logger.getLogger(DNSCacheSnapshot.class.getName());
+
+    private static final int MAGIC   = 0x4A4D4443;                                          // JMDC
+
+    private static final int VERSION = 1;
+
+    private DNSCacheSnapshot() {
+        super();
+    }
+
+    /**
+     * Writes the records of the cache which have not expired yet. The file is replaced atomically with <code>java.nio.file.Files.move</code> where it is available, or by renaming over it. On the platforms where neither works the
+     * previous file is deleted first, a crash in between only loses the snapshot.
+     *
+     * @param cache
+     *            cache to save
+     * @param file
+     *            snapshot file
+     * @return number of records written
+     * @exception IOException
+     */
+    public static int write(DNSCache cache, File file) throws IOException {
+        final long now = System.currentTimeMillis();
+        List<DNSRecord> records = new ArrayList<DNSRecord>();
+        List<byte[]> values = new ArrayList<byte[]>();
+        for (DNSEntry entry : cache.allValues()) {
+            if ((entry instanceof DNSRecord) && !entry.isExpired(now)) {
+                byte[] value = encodeValue((DNSRecord) entry);
+                if (value != null) {
+                    records.add((DNSRecord) entry);
+                    values.add(value);
+                }
+            }
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                DNSRecord record = records.get(i);
+                byte[] name = record.getName().getBytes("UTF-8");
+                byte[] value = values.get(i);
+                out.writeShort(record.getRecordType().indexValue());
+                out.writeShort(record.getRecordClass().indexValue() | (record.isUnique() ? DNSRecordClass.CLASS_UNIQUE : 0));
+                out.writeInt(record.getTTL());
+                out.writeLong(record.getExpirationTime(100));
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeShort(value.length);
+                out.write(value);
+            }
+        } finally {
+            out.close();
+        }
+        if (!moveAtomically(temporary, file) && !temporary.renameTo(file)) {
+            // Some platforms cannot rename over an existing file
+            if (!file.delete() || !temporary.renameTo(file)) {
+                throw new IOException("Could not replace cache snapshot " + file);
+            }
+        }
+        return records.size();
+    }
+
+    /**
+     * Replaces the target with <code>Files.move(source, target, ATOMIC_MOVE, REPLACE_EXISTING)</code>. java.nio.file is looked up by reflection as older Android releases do not have it.
+     *
+     * @return <code>true</code> if the file was moved, <code>false</code> if java.nio.file is missing or the move failed
+     */
+    private static boolean moveAtomically(File source, File target) {
+        try {
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> copyOptionClass = Class.forName("java.nio.file.CopyOption");
+            Class<?> standardCopyOptionClass = Class.forName("java.nio.file.StandardCopyOption");
+            Object options = Array.newInstance(copyOptionClass, 2);
+            Array.set(options, 0, standardCopyOptionClass.getField("ATOMIC_MOVE").get(null));
+            Array.set(options, 1, standardCopyOptionClass.getField("REPLACE_EXISTING").get(null));
+            Method toPath = File.class.getMethod("toPath");
+            Method move = Class.forName("java.nio.file.Files").getMethod("move", pathClass, pathClass, options.getClass());
+            move.invoke(null, toPath.invoke(source), toPath.invoke(target), options);
+            return true;
+        } catch (InvocationTargetException exception) {
+            // AtomicMoveNotSupportedException or another I/O error, try renaming
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer("moveAtomically() could not move " + source + ": " + exception.getCause());
+            }
+            return false;
+        } catch (Exception exception) {
+            // No java.nio.file
+            return false;
+        }
+    }
+
+    /**
+     * Reads the records of a snapshot which have not expired yet. Each record keeps its original expiration time.
+     *
+     * @param file
+     *            snapshot file
+     * @return restored records, empty if the file does not exist
+     * @exception IOException
+     *                if the file is corrupted
+     */
+    public static Collection<DNSRecord> read(File file) throws IOException {
+        List<DNSRecord> records = new ArrayList<DNSRecord>();
+        if (!file.isFile()) {
+            return records;
+        }
+        final long now = System.currentTimeMillis();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Cache snapshot too large: " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+                // Read the whole file
+            }
+            buffer.flip();
+            if ((buffer.remaining() < 10) || (buffer.getInt() != MAGIC)) {
+                throw new IOException("Not a cache snapshot: " + file);
+            }
+            int version = buffer.getShort() & 0xFFFF;
+            if (version != VERSION) {
+                throw new IOException("Unsupported cache snapshot version " + version + ": " + file);
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                DNSRecordType type = DNSRecordType.typeForIndex(buffer.getShort() & 0xFFFF);
+                int recordClassIndex = buffer.getShort() & 0xFFFF;
+                DNSRecordClass recordClass = DNSRecordClass.classForIndex(recordClassIndex);
+                boolean unique = recordClass.isUnique(recordClassIndex);
+                int ttl = buffer.getInt();
+                long expirationTime = buffer.getLong();
+                String name = new String(readBytes(buffer), "UTF-8");
+                ByteBuffer value = ByteBuffer.wrap(readBytes(buffer));
+                if (expirationTime <= now) {
+                    continue;
+                }
+                DNSRecord record = decodeValue(name, type, recordClass, unique, ttl, value);
+                if (record != null) {
+                    record.restoreTTL(ttl, expirationTime);
+                    records.add(record);
+                }
+            }
+        } catch (BufferUnderflowException exception) {
+            IOException ioe = new IOException("Truncated cache snapshot: " + file);
+            ioe.initCause(exception);
+            throw ioe;
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+
+    /**
+     * Loads the records of a snapshot into the cache. Records already in the cache are kept.
+     *
+     * @param cache
+     *            cache to fill
+     * @param file
+     *            snapshot file
+     * @return number of records added
+     */
+    public static int restore(DNSCache cache, File file) {
+        int restored = 0;
+        try {
+            for (DNSRecord record : read(file)) {
+                if ((cache.getDNSEntry(record) == null) && cache.makeRoomFor(record)) {
+                    cache.addDNSEntry(record);
+                    restored++;
+                }
+            }
+        } catch (IOException exception) {
+            logger.log(Level.WARNING, "restore() could not read cache snapshot " + file, exception);
+        }
+        return restored;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the value of the record or <code>null</code> if the record type is not saved
+     */
+    private static byte[] encodeValue(DNSRecord record) throws IOException {
+        switch (record.getRecordType()) {
+            case TYPE_A:
+            case TYPE_AAAA:
+                DNSRecord.Address address = (DNSRecord.Address) record;
+                return (address.getAddress() != null ? address.getAddress().getAddress() : null);
+            case TYPE_CNAME:
+            case TYPE_PTR:
+                return ((DNSRecord.Pointer) record).getAlias().getBytes("UTF-8");
+            case TYPE_TXT:
+                return ((DNSRecord.Text) record).getText();
+            case TYPE_SRV:
+                DNSRecord.Service service = (DNSRecord.Service) record;
+                byte[] server = service.getServer().getBytes("UTF-8");
+                ByteBuffer buffer = ByteBuffer.allocate(6 + server.length);
+                buffer.putShort((short) service.getPriority());
+                buffer.putShort((short) service.getWeight());
+                buffer.putShort((short) service.getPort());
+                buffer.put(server);
+                return buffer.array();
+            default:
+                return null;
+        }
+    }
+
+    private static DNSRecord decodeValue(String name, DNSRecordType type, DNSRecordClass recordClass, boolean unique, int ttl, ByteBuffer value) throws IOException {
+        switch (type) {
+            case TYPE_A:
+                return new DNSRecord.IPv4Address(name, recordClass, unique, ttl, value.array());
+            case TYPE_AAAA:
+                return new DNSRecord.IPv6Address(name, recordClass, unique, ttl, value.array());
+            case TYPE_CNAME:
+            case TYPE_PTR:
+                return new DNSRecord.Pointer(name, recordClass, unique, ttl, new String(value.array(), "UTF-8"));
+            case TYPE_TXT:
+                return new DNSRecord.Text(name, recordClass, unique, ttl, value.array());
+            case TYPE_SRV:
+                int priority = value.getShort() & 0xFFFF;
+                int weight = value.getShort() & 0xFFFF;
+                int port = value.getShort() & 0xFFFF;
+                byte[] server = new byte[value.remaining()];
+                value.get(server);
+                return new DNSRecord.Service(name, recordClass, unique, ttl, priority, weight, port, new String(server, "UTF-8"));
+            default:
+                return null;
+        }
+    }
+
+}
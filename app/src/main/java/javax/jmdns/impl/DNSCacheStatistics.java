@@ -0,0 +1,267 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.jmdns.impl.constants.DNSRecordType;
+
+/**
+ * Point in time copy of the counters of a {@link DNSCache}. The counters are never reset, rates are computed between two statistics of the same cache.
+ * <p>
+ * <b>Note: </b> This is not considered as part of the general public API of JmDNS.
+ * </p>
+ */
+public final class DNSCacheStatistics {
+
+    /**
+     * Lookup methods of the cache.
+     */
+    public enum Lookup {
+        /**
+         * {@link DNSCache#getDNSEntry(DNSEntry)}
+         */
+        ENTRY,
+        /**
+         * {@link DNSCache#getDNSEntry(String, DNSRecordType, javax.jmdns.impl.constants.DNSRecordClass)}
+         */
+        TYPED_ENTRY,
+        /**
+         * {@link DNSCache#getDNSEntryList(String)}
+         */
+        ENTRY_LIST,
+        /**
+         * {@link DNSCache#getDNSEntryList(String, DNSRecordType, javax.jmdns.impl.constants.DNSRecordClass)}
+         */
+        TYPED_ENTRY_LIST,
+    }
+
+    private final long                        _time;
+
+    private final long                        _since;
+
+    private final long[]                      _lookups;
+
+    private final long[]                      _hits;
+
+    private final Map<DNSRecordType, Integer> _entriesPerType;
+
+    private final int                         _entryCount;
+
+    private final long                        _byteSize;
+
+    private final long                        _adds;
+
+    private final long                        _replaces;
+
+    private final long                        _removes;
+
+    private final long                        _expirations;
+
+    private final long                        _evictedWithoutInterest;
+
+    private final long                        _evictedLeastRecentlyUsed;
+
+    private final long                        _rejected;
+
+    private final long                        _cleanups;
+
+    private final long                        _cleanupNanos;
+
+    DNSCacheStatistics(long time, long since, long[] lookups, long[] hits, Map<DNSRecordType, Integer> entriesPerType, int entryCount, long byteSize, long adds, long replaces, long removes, long expirations, long evictedWithoutInterest,
+            long evictedLeastRecentlyUsed, long rejected, long cleanups, long cleanupNanos) {
+        super();
+        _time = time;
+        _since = since;
+        _lookups = lookups;
+        _hits = hits;
+        _entriesPerType = Collections.unmodifiableMap(new EnumMap<DNSRecordType, Integer>(entriesPerType));
+        _entryCount = entryCount;
+        _byteSize = byteSize;
+        _adds = adds;
+        _replaces = replaces;
+        _removes = removes;
+        _expirations = expirations;
+        _evictedWithoutInterest = evictedWithoutInterest;
+        _evictedLeastRecentlyUsed = evictedLeastRecentlyUsed;
+        _rejected = rejected;
+        _cleanups = cleanups;
+        _cleanupNanos = cleanupNanos;
+    }
+
+    /**
+     * @return time at which these statistics were taken
+     */
+    public long getTime() {
+        return _time;
+    }
+
+    /**
+     * @return time at which the cache started counting
+     */
+    public long getSince() {
+        return _since;
+    }
+
+    /**
+     * @param lookup
+     *            lookup method
+     * @return number of calls to the lookup method
+     */
+    public long getLookups(Lookup lookup) {
+        return _lookups[lookup.ordinal()];
+    }
+
+    /**
+     * @param lookup
+     *            lookup method
+     * @return number of calls to the lookup method which found something
+     */
+    public long getHits(Lookup lookup) {
+        return _hits[lookup.ordinal()];
+    }
+
+    /**
+     * @param lookup
+     *            lookup method
+     * @return number of calls to the lookup method which found nothing
+     */
+    public long getMisses(Lookup lookup) {
+        return Math.max(0L, _lookups[lookup.ordinal()] - _hits[lookup.ordinal()]);
+    }
+
+    /**
+     * @return number of cached entries per record type, types without entries are left out
+     */
+    public Map<DNSRecordType, Integer> getEntriesPerType() {
+        return _entriesPerType;
+    }
+
+    /**
+     * @return number of cached entries
+     */
+    public int getEntryCount() {
+        return _entryCount;
+    }
+
+    /**
+     * @return approximate memory used by the cached entries
+     */
+    public long getByteSize() {
+        return _byteSize;
+    }
+
+    /**
+     * @return number of entries added
+     */
+    public long getAdds() {
+        return _adds;
+    }
+
+    /**
+     * @return number of entries replaced by a new one
+     */
+    public long getReplaces() {
+        return _replaces;
+    }
+
+    /**
+     * @return number of entries removed, including the expired ones
+     */
+    public long getRemoves() {
+        return _removes;
+    }
+
+    /**
+     * @return number of entries removed because they expired
+     */
+    public long getExpirations() {
+        return _expirations;
+    }
+
+    /**
+     * @return number of entries evicted because the cache was full and nobody was interested in them
+     */
+    public long getEvictedWithoutInterest() {
+        return _evictedWithoutInterest;
+    }
+
+    /**
+     * @return number of entries evicted because the cache was full and they were the least recently used
+     */
+    public long getEvictedLeastRecentlyUsed() {
+        return _evictedLeastRecentlyUsed;
+    }
+
+    /**
+     * @return number of entries not cached because the cache was full
+     */
+    public long getRejected() {
+        return _rejected;
+    }
+
+    /**
+     * @return number of cache cleanups
+     */
+    public long getCleanups() {
+        return _cleanups;
+    }
+
+    /**
+     * @return total time spent cleaning the cache in nanoseconds
+     */
+    public long getCleanupNanos() {
+        return _cleanupNanos;
+    }
+
+    /**
+     * @param previous
+     *            earlier statistics of the same cache, <code>null</code> for the rate since the cache started counting
+     * @return entries added per second
+     */
+    public double getAddRate(DNSCacheStatistics previous) {
+        return this.rate(_adds, (previous != null ? previous._adds : 0L), previous);
+    }
+
+    /**
+     * @param previous
+     *            earlier statistics of the same cache, <code>null</code> for the rate since the cache started counting
+     * @return entries replaced per second
+     */
+    public double getReplaceRate(DNSCacheStatistics previous) {
+        return this.rate(_replaces, (previous != null ? previous._replaces : 0L), previous);
+    }
+
+    /**
+     * @param previous
+     *            earlier statistics of the same cache, <code>null</code> for the rate since the cache started counting
+     * @return entries removed per second
+     */
+    public double getRemoveRate(DNSCacheStatistics previous) {
+        return this.rate(_removes, (previous != null ? previous._removes : 0L), previous);
+    }
+
+    private double rate(long count, long previousCount, DNSCacheStatistics previous) {
+        long elapsed = _time - (previous != null ? previous._time : _since);
+        return (elapsed > 0 ? ((count - previousCount) * 1000.0) / elapsed : 0.0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder aLog = new StringBuilder(500);
+        aLog.append("[DNSCacheStatistics entries: " + _entryCount + " bytes: " + _byteSize + " per type: " + _entriesPerType);
+        for (Lookup lookup : Lookup.values()) {
+            aLog.append(", " + lookup + ": " + this.getHits(lookup) + "/" + this.getLookups(lookup));
+        }
+        aLog.append(", adds: " + _adds + ", replaces: " + _replaces + ", removes: " + _removes + ", expirations: " + _expirations);
+        aLog.append(", evicted: " + _evictedWithoutInterest + "/" + _evictedLeastRecentlyUsed + ", rejected: " + _rejected);
+        aLog.append(", cleanups: " + _cleanups + " in " + (_cleanupNanos / 1000000L) + "ms]");
+        return aLog.toString();
+    }
+
+}
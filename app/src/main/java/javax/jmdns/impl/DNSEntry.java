@@ -11,8 +11,10 @@ import java.util.Collections;
 import java.util.Map;
 
 import javax.jmdns.ServiceInfo.Fields;
+import javax.jmdns.impl.constants.DNSConstants;
 import javax.jmdns.impl.constants.DNSRecordClass;
 import javax.jmdns.impl.constants.DNSRecordType;
+import javax.jmdns.impl.util.InternPool;
 
 /**
  * DNS entry with a name, type, and class. This is the base class for questions and records.
@@ -21,6 +23,60 @@ import javax.jmdns.impl.constants.DNSRecordType;
  */
 public abstract class DNSEntry {
     // private static Logger logger = Logger.getLogger(DNSEntry.class.getName());
+
+    /**
+     * Canonical names, labels, types and keys shared by the entries and the decoder.
+     */
+    static final InternPool              NAMES           = new InternPool(DNSConstants.NAME_POOL_SIZE);
+
+    /**
+     * Decoded names, so that the qualified name map of a name is built once. Like the name pool this is a direct mapped table.
+     */
+    private static final QualifiedName[] QUALIFIED_NAMES = newQualifiedNames(DNSConstants.NAME_POOL_SIZE);
+
+    /**
+     * Immutable result of the decoding of a name.
+     */
+    private static final class QualifiedName {
+        final String              _name;
+
+        final Map<Fields, String> _qualifiedNameMap;
+
+        final String              _type;
+
+        final String              _key;
+
+        QualifiedName(String name) {
+            _name = name;
+            Map<Fields, String> qualifiedNameMap = ServiceInfoImpl.decodeQualifiedNameMapForType(name);
+            String domain = qualifiedNameMap.get(Fields.Domain);
+            String protocol = qualifiedNameMap.get(Fields.Protocol);
+            String application = qualifiedNameMap.get(Fields.Application);
+            String instance = qualifiedNameMap.get(Fields.Instance).toLowerCase();
+            _qualifiedNameMap = Collections.unmodifiableMap(qualifiedNameMap);
+            _type = NAMES.intern((application.length() > 0 ? "_" + application + "." : "") + (protocol.length() > 0 ? "_" + protocol + "." : "") + domain + ".");
+            _key = NAMES.intern(((instance.length() > 0 ? instance + "." : "") + _type).toLowerCase());
+        }
+
+        static QualifiedName forName(String name) {
+            int slot = (name.hashCode() ^ (name.hashCode() >>> 16)) & (QUALIFIED_NAMES.length - 1);
+            QualifiedName qualifiedName = QUALIFIED_NAMES[slot];
+            if ((qualifiedName == null) || !qualifiedName._name.equals(name)) {
+                qualifiedName = new QualifiedName(name);
+                QUALIFIED_NAMES[slot] = qualifiedName;
+            }
+            return qualifiedName;
+        }
+    }
+
+    private static QualifiedName[] newQualifiedNames(int size) {
+        int capacity = 16;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        return new QualifiedName[capacity];
+    }
+
     private final String         _key;
 
     private final String         _name;
@@ -35,22 +91,25 @@ public abstract class DNSEntry {
 
     final Map<Fields, String>    _qualifiedNameMap;
 
+    /**
+     * Last time this entry was added to or found in the cache, used for LRU eviction.
+     */
+    private volatile long        _lastUsed;
+
     /**
      * Create an entry.
      */
     DNSEntry(String name, DNSRecordType type, DNSRecordClass recordClass, boolean unique) {
-        _name = name;
+        _name = NAMES.intern(name);
         // _key = (name != null ? name.trim().toLowerCase() : null);
         _recordType = type;
         _dnsClass = recordClass;
         _unique = unique;
-        _qualifiedNameMap = ServiceInfoImpl.decodeQualifiedNameMapForType(this.getName());
-        String domain = _qualifiedNameMap.get(Fields.Domain);
-        String protocol = _qualifiedNameMap.get(Fields.Protocol);
-        String application = _qualifiedNameMap.get(Fields.Application);
-        String instance = _qualifiedNameMap.get(Fields.Instance).toLowerCase();
-        _type = (application.length() > 0 ? "_" + application + "." : "") + (protocol.length() > 0 ? "_" + protocol + "." : "") + domain + ".";
-        _key = ((instance.length() > 0 ? instance + "." : "") + _type).toLowerCase();
+        // The decoding of the name is shared by all the entries with the same name
+        QualifiedName qualifiedName = QualifiedName.forName(this.getName());
+        _qualifiedNameMap = qualifiedName._qualifiedNameMap;
+        _type = qualifiedName._type;
+        _key = qualifiedName._key;
     }
 
     /*
@@ -163,8 +222,23 @@ public abstract class DNSEntry {
         return _unique;
     }
 
+    /**
+     * @return last time this entry was added to or found in the cache
+     */
+    long getLastUsed() {
+        return _lastUsed;
+    }
+
+    /**
+     * @param now
+     *            time of use
+     */
+    void setLastUsed(long now) {
+        _lastUsed = now;
+    }
+
     public Map<Fields, String> getQualifiedNameMap() {
-        return Collections.unmodifiableMap(_qualifiedNameMap);
+        return _qualifiedNameMap;
     }
 
     public boolean isServicesDiscoveryMetaQuery() {
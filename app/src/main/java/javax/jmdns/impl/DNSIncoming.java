@@ -4,12 +4,13 @@
 
 package javax.jmdns.impl;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,10 +33,40 @@ public final class DNSIncoming extends DNSMessage {
     // It is sending out target strings that don't follow the "domain name" format.
     public static boolean USE_DOMAIN_NAME_FORMAT_FOR_SRV_TARGET = true;
 
-    public static class MessageInputStream extends ByteArrayInputStream {
-        private static Logger      logger1 = Logger.getLogger(MessageInputStream.class.getName());
+    /**
+     * Reads the message from a byte buffer using absolute indexes, so that the buffer of the packet is never copied and the reads are not synchronized. Name compression pointers are relative to the position of the buffer when the stream
+     * is created.
+     */
+    public static class MessageInputStream {
+        private static Logger                    logger1     = Logger.getLogger(MessageInputStream.class.getName());
+
+        /**
+         * Marks the names of the name table being decoded, to detect circular names.
+         */
+        private static final String              IN_PROGRESS = new String("");
+
+        /**
+         * Scratch buffer used to decode strings, one per receiving thread.
+         */
+        private static final ThreadLocal<char[]> _scratch    = new ThreadLocal<char[]>() {
+                                                                 @Override
+                                                                 protected char[] initialValue() {
+                                                                     return new char[256];
+                                                                 }
+                                                             };
+
+        private final ByteBuffer                 _buffer;
+
+        private final int                        _start;
+
+        private final int                        _limit;
+
+        private int                              _position;
 
-        final Map<Integer, String> _names;
+        /**
+         * Names starting at each offset of the message, filled as they are decoded.
+         */
+        private String[]                         _nameTable;
 
         public MessageInputStream(byte[] buffer, int length) {
             this(buffer, 0, length);
@@ -47,16 +78,73 @@ public final class DNSIncoming extends DNSMessage {
          * @param length
          */
         public MessageInputStream(byte[] buffer, int offset, int length) {
-            super(buffer, offset, length);
-            _names = new HashMap<Integer, String>();
+            this(ByteBuffer.wrap(buffer, offset, length));
+        }
+
+        /**
+         * @param buffer
+         *            message between the position and the limit of the buffer, the buffer position is not changed
+         */
+        public MessageInputStream(ByteBuffer buffer) {
+            super();
+            _buffer = buffer;
+            _start = buffer.position();
+            _limit = buffer.limit();
+            _position = _start;
+        }
+
+        /**
+         * Returns the scratch buffer of the current thread, grown to hold at least <code>length</code> characters.
+         */
+        private static char[] scratch(int length) {
+            char[] chars = _scratch.get();
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+                _scratch.set(chars);
+            }
+            return chars;
+        }
+
+        /**
+         * @return number of bytes left to read
+         */
+        public int available() {
+            return _limit - _position;
+        }
+
+        /**
+         * Skips bytes, never beyond the end of the message.
+         *
+         * @param n
+         *            number of bytes to skip
+         * @return number of bytes skipped
+         */
+        public long skip(long n) {
+            int skipped = (int) Math.max(0L, Math.min(n, this.available()));
+            _position += skipped;
+            return skipped;
+        }
+
+        /**
+         * @return offset of the next byte from the start of the message
+         */
+        public int offset() {
+            return _position - _start;
+        }
+
+        private int get() {
+            if (_position >= _limit) {
+                throw new IndexOutOfBoundsException("Read past the end of the message at 0x" + Integer.toHexString(this.offset()));
+            }
+            return _buffer.get(_position++);
         }
 
         public int readByte() {
-            return this.read();
+            return this.get();
         }
 
         public int readUnsignedByte() {
-            return (this.read() & 0xFF);
+            return (this.get() & 0xFF);
         }
 
         public int readUnsignedShort() {
@@ -68,14 +156,46 @@ public final class DNSIncoming extends DNSMessage {
         }
 
         public byte[] readBytes(int len) {
+            if (len > this.available()) {
+                throw new IndexOutOfBoundsException("Read of " + len + " bytes past the end of the message at 0x" + Integer.toHexString(this.offset()));
+            }
             byte bytes[] = new byte[len];
-            this.read(bytes, 0, len);
+            if (_buffer.hasArray()) {
+                System.arraycopy(_buffer.array(), _buffer.arrayOffset() + _position, bytes, 0, len);
+            } else {
+                for (int index = 0; index < len; index++) {
+                    bytes[index] = _buffer.get(_position + index);
+                }
+            }
+            _position += len;
             return bytes;
         }
 
         public String readUTF(int len) {
-            StringBuilder buffer = new StringBuilder(len);
-            for (int index = 0; index < len; index++) {
+            char[] chars = scratch(len);
+            return new String(chars, 0, this.decodeUTF(len, chars));
+        }
+
+        /**
+         * Decodes <code>len</code> bytes of modified UTF-8 into the characters.
+         *
+         * @return number of characters decoded
+         */
+        private int decodeUTF(int len, char[] chars) {
+            int count = 0;
+            int index = 0;
+            // Fast path, labels are mostly plain ASCII
+            int end = Math.min(_position + len, _limit);
+            while (_position < end) {
+                int ch = _buffer.get(_position);
+                if (ch < 0) {
+                    break;
+                }
+                chars[count++] = (char) ch;
+                _position++;
+                index++;
+            }
+            for (; index < len; index++) {
                 int ch = this.readUnsignedByte();
                 switch (ch >> 4) {
                     case 0:
@@ -106,61 +226,144 @@ public final class DNSIncoming extends DNSMessage {
                         index++;
                         break;
                 }
-                buffer.append((char) ch);
+                chars[count++] = (char) ch;
             }
-            return buffer.toString();
+            return count;
         }
 
-        protected synchronized int peek() {
-            return (pos < count) ? (buf[pos] & 0xff) : -1;
+        protected int peek() {
+            return (_position < _limit) ? (_buffer.get(_position) & 0xff) : -1;
         }
 
+        /**
+         * Reads a possibly compressed name. Names are materialized from the compression table, see {@link #nameAt(int)}.
+         *
+         * @return name
+         */
         public String readName() {
-            Map<Integer, StringBuilder> names = new HashMap<Integer, StringBuilder>();
-            StringBuilder buffer = new StringBuilder();
+            int offset = this.offset();
+            this.skipName();
+            return this.nameAt(offset);
+        }
+
+        /**
+         * Moves past a possibly compressed name without decoding it.
+         */
+        void skipName() {
             boolean finished = false;
             while (!finished) {
                 int len = this.readUnsignedByte();
-                if (len == 0) {
-                    finished = true;
-                    break;
-                }
                 switch (DNSLabel.labelForByte(len)) {
                     case Standard:
-                        int offset = pos - 1;
-                        String label = this.readUTF(len) + ".";
-                        buffer.append(label);
-                        for (StringBuilder previousLabel : names.values()) {
-                            previousLabel.append(label);
-                        }
-                        names.put(Integer.valueOf(offset), new StringBuilder(label));
+                        finished = (len == 0);
+                        this.skip(len);
                         break;
                     case Compressed:
-                        int index = (DNSLabel.labelValue(len) << 8) | this.readUnsignedByte();
-                        String compressedLabel = _names.get(Integer.valueOf(index));
-                        if (compressedLabel == null) {
-                            logger1.severe("bad domain name: possible circular name detected. Bad offset: 0x" + Integer.toHexString(index) + " at 0x" + Integer.toHexString(pos - 2));
-                            compressedLabel = "";
-                        }
-                        buffer.append(compressedLabel);
-                        for (StringBuilder previousLabel : names.values()) {
-                            previousLabel.append(compressedLabel);
-                        }
+                        this.readUnsignedByte();
                         finished = true;
                         break;
                     case Extended:
-                        // int extendedLabelClass = DNSLabel.labelValue(len);
-                        logger1.severe("Extended label are not currently supported.");
-                        break;
                     case Unknown:
                     default:
-                        logger1.severe("unsupported dns label type: '" + Integer.toHexString(len & 0xC0) + "'");
+                        break;
                 }
             }
-            for (Integer index : names.keySet()) {
-                _names.put(index, names.get(index).toString());
+        }
+
+        /**
+         * Moves the read position.
+         *
+         * @param offset
+         *            offset from the start of the message
+         */
+        void seek(int offset) {
+            if ((offset < 0) || (offset > _limit - _start)) {
+                throw new IndexOutOfBoundsException("Seek outside of the message to 0x" + Integer.toHexString(offset));
+            }
+            _position = _start + offset;
+        }
+
+        /**
+         * Returns the name starting at the offset. Each label of the message points to the rest of its name, either the next label or a compression pointer. The names are materialized at most once per offset, so that decoding all the
+         * names of a message is linear in the message size.
+         *
+         * @param offset
+         *            offset from the start of the message
+         * @return name starting at the offset
+         */
+        String nameAt(int offset) {
+            if (_nameTable == null) {
+                _nameTable = new String[_limit - _start];
+            }
+            String name = _nameTable[offset];
+            if (name == IN_PROGRESS) {
+                logger1.severe("bad domain name: circular name detected at 0x" + Integer.toHexString(offset));
+                return "";
+            }
+            if (name != null) {
+                return name;
+            }
+            _nameTable[offset] = IN_PROGRESS;
+            int len = _buffer.get(_start + offset) & 0xFF;
+            switch (DNSLabel.labelForByte(len)) {
+                case Standard:
+                    if (len == 0) {
+                        name = "";
+                    } else {
+                        int next = offset + 1 + len;
+                        if (next >= _nameTable.length) {
+                            throw new IndexOutOfBoundsException("Label past the end of the message at 0x" + Integer.toHexString(offset));
+                        }
+                        String label = this.utfAt(offset + 1, len);
+                        String suffix = this.nameAt(next);
+                        // The same names come again and again, share them instead of creating new ones
+                        int length = label.length() + 1 + suffix.length();
+                        char[] chars = scratch(length);
+                        label.getChars(0, label.length(), chars, 0);
+                        chars[label.length()] = '.';
+                        suffix.getChars(0, suffix.length(), chars, label.length() + 1);
+                        name = DNSEntry.NAMES.intern(chars, 0, length);
+                    }
+                    break;
+                case Compressed:
+                    if (offset + 1 >= _nameTable.length) {
+                        throw new IndexOutOfBoundsException("Compression pointer past the end of the message at 0x" + Integer.toHexString(offset));
+                    }
+                    int index = (DNSLabel.labelValue(len) << 8) | (_buffer.get(_start + offset + 1) & 0xFF);
+                    if (index < offset) {
+                        name = this.nameAt(index);
+                    } else {
+                        // Compression pointers must refer to a prior occurrence of the name
+                        logger1.severe("bad domain name: possible circular name detected. Bad offset: 0x" + Integer.toHexString(index) + " at 0x" + Integer.toHexString(offset));
+                        name = "";
+                    }
+                    break;
+                case Extended:
+                    // int extendedLabelClass = DNSLabel.labelValue(len);
+                    logger1.severe("Extended label are not currently supported.");
+                    name = this.nameAt(offset + 1);
+                    break;
+                case Unknown:
+                default:
+                    logger1.severe("unsupported dns label type: '" + Integer.toHexString(len & 0xC0) + "'");
+                    name = this.nameAt(offset + 1);
+            }
+            _nameTable[offset] = name;
+            return name;
+        }
+
+        /**
+         * Decodes a label at the offset without moving the read position. The label is taken from the name pool.
+         */
+        private String utfAt(int offset, int len) {
+            int position = _position;
+            _position = _start + offset;
+            try {
+                char[] chars = scratch(len);
+                return DNSEntry.NAMES.intern(chars, 0, this.decodeUTF(len, chars));
+            } finally {
+                _position = position;
             }
-            return buffer.toString();
         }
 
         public String readNonNameString() {
@@ -170,14 +373,53 @@ public final class DNSIncoming extends DNSMessage {
 
     }
 
+    /**
+     * Filter on the name and type of the records of a message. This lets the receiver decode only the records it cares about.
+     */
+    public static interface RecordFilter {
+
+        /**
+         * @param name
+         *            record name
+         * @param type
+         *            record type
+         * @return <code>true</code> if the record should be decoded, <code>false</code> otherwise
+         */
+        public boolean accept(String name, DNSRecordType type);
+
+    }
+
     private final DatagramPacket     _packet;
 
+    private final InetAddress        _source;
+
     private final long               _receivedTime;
 
     private final MessageInputStream _messageInputStream;
 
     private int                      _senderUDPPayload;
 
+    /**
+     * Offsets of the records not decoded yet, answers first then authorities and additionals. OPT records are decoded right away and have an offset of -1. This is <code>null</code> once all the records are decoded.
+     */
+    private int[]                    _recordOffsets;
+
+    /**
+     * Type index of the records not decoded yet.
+     */
+    private int[]                    _recordTypes;
+
+    /**
+     * Records already decoded through a filter, by record index.
+     */
+    private DNSRecord[]              _filteredRecords;
+
+    private boolean[]                _filteredDecoded;
+
+    private int                      _numAnswers;
+
+    private int                      _numAuthorities;
+
     /**
      * Parse a message from a datagram packet.
      *
@@ -185,10 +427,23 @@ public final class DNSIncoming extends DNSMessage {
      * @exception IOException
      */
     public DNSIncoming(DatagramPacket packet) throws IOException {
+        this(packet, false);
+    }
+
+    /**
+     * Parse a message from a datagram packet. In lazy mode only the header and the questions are decoded, the answer, authority and additional records are only located. They are decoded when they are first accessed, or through
+     * {@link #getAllAnswers(RecordFilter)} for the records that match a filter. The packet data must not change until then.
+     *
+     * @param packet
+     * @param lazy
+     *            <code>true</code> to decode the records on demand
+     * @exception IOException
+     */
+    public DNSIncoming(DatagramPacket packet, boolean lazy) throws IOException {
         super(0, 0, packet.getPort() == DNSConstants.MDNS_PORT);
         this._packet = packet;
-        InetAddress source = packet.getAddress();
-        this._messageInputStream = new MessageInputStream(packet.getData(), packet.getLength());
+        this._source = packet.getAddress();
+        this._messageInputStream = new MessageInputStream(packet.getData(), packet.getOffset(), packet.getLength());
         this._receivedTime = System.currentTimeMillis();
         this._senderUDPPayload = DNSConstants.MAX_MSG_TYPICAL;
 
@@ -221,40 +476,25 @@ public final class DNSIncoming extends DNSMessage {
                 }
             }
 
-            // parse answers
-            if (numAnswers > 0) {
-                for (int i = 0; i < numAnswers; i++) {
-                    DNSRecord rec = this.readAnswer(source);
-                    if (rec != null) {
-                        // Add a record, if we were able to create one.
-                        _answers.add(rec);
-                    }
-                }
+            // locate the records, they are decoded afterwards
+            int numRecords = numAnswers + numAuthorities + numAdditionals;
+            int[] recordOffsets = new int[numRecords];
+            int[] recordTypes = new int[numRecords];
+            for (int i = 0; i < numRecords; i++) {
+                recordOffsets[i] = this.skipRecord(recordTypes, i);
             }
+            _recordOffsets = recordOffsets;
+            _recordTypes = recordTypes;
+            _numAnswers = numAnswers;
+            _numAuthorities = numAuthorities;
 
-            if (numAuthorities > 0) {
-                for (int i = 0; i < numAuthorities; i++) {
-                    DNSRecord rec = this.readAnswer(source);
-                    if (rec != null) {
-                        // Add a record, if we were able to create one.
-                        _authoritativeAnswers.add(rec);
-                    }
-                }
-            }
-
-            if (numAdditionals > 0) {
-                for (int i = 0; i < numAdditionals; i++) {
-                    DNSRecord rec = this.readAnswer(source);
-                    if (rec != null) {
-                        // Add a record, if we were able to create one.
-                        _additionals.add(rec);
-                    }
-                }
-            }
             // We should have drained the entire stream by now
             if (_messageInputStream.available() > 0) {
                 throw new IOException("Received a message with the wrong length.");
             }
+            if (!lazy) {
+                this.decodeRecords(true);
+            }
         } catch (Exception e) {
             logger.log(Level.WARNING, "DNSIncoming() dump " + print(true) + "\n exception ", e);
             // This ugly but some JVM don't implement the cause on IOException
@@ -264,20 +504,177 @@ public final class DNSIncoming extends DNSMessage {
         }
     }
 
-    private DNSIncoming(int flags, int id, boolean multicast, DatagramPacket packet, long receivedTime) {
+    private DNSIncoming(int flags, int id, boolean multicast, DatagramPacket packet, InetAddress source, long receivedTime) {
         super(flags, id, multicast);
         this._packet = packet;
-        this._messageInputStream = new MessageInputStream(packet.getData(), packet.getLength());
+        this._source = source;
+        this._messageInputStream = new MessageInputStream(packet.getData(), packet.getOffset(), packet.getLength());
         this._receivedTime = receivedTime;
     }
 
+    /**
+     * Moves past a record, an OPT record is decoded as it changes the message settings.
+     *
+     * @return offset of the record or -1 for an OPT record
+     */
+    private int skipRecord(int[] recordTypes, int index) throws IOException {
+        int offset = _messageInputStream.offset();
+        _messageInputStream.skipName();
+        int typeIndex = _messageInputStream.readUnsignedShort();
+        _messageInputStream.readUnsignedShort();
+        _messageInputStream.readInt();
+        int len = _messageInputStream.readUnsignedShort();
+        if (len > _messageInputStream.available()) {
+            throw new IOException("Record data past the end of the message at 0x" + Integer.toHexString(offset));
+        }
+        int end = _messageInputStream.offset() + len;
+        recordTypes[index] = typeIndex;
+        if (DNSRecordType.typeForIndex(typeIndex) == DNSRecordType.TYPE_OPT) {
+            _messageInputStream.seek(offset);
+            this.readAnswer(_source);
+            offset = -1;
+        }
+        _messageInputStream.seek(end);
+        return offset;
+    }
+
+    /**
+     * Decodes the records not decoded yet into the answers, authorities and additionals.
+     *
+     * @param strict
+     *            <code>true</code> to fail on a malformed record, <code>false</code> to log and skip it
+     */
+    private synchronized void decodeRecords(boolean strict) {
+        int[] recordOffsets = _recordOffsets;
+        if (recordOffsets == null) {
+            return;
+        }
+        // Cleared first so that logging the message while decoding does not decode again
+        _recordOffsets = null;
+        for (int i = 0; i < recordOffsets.length; i++) {
+            DNSRecord rec = null;
+            if ((_filteredDecoded != null) && _filteredDecoded[i]) {
+                rec = _filteredRecords[i];
+            } else if (recordOffsets[i] >= 0) {
+                rec = (strict ? this.decodeRecord(recordOffsets[i]) : this.decodeRecordQuietly(recordOffsets[i]));
+            }
+            if (rec != null) {
+                // Add a record, if we were able to create one.
+                if (i < _numAnswers) {
+                    _answers.add(rec);
+                } else if (i < _numAnswers + _numAuthorities) {
+                    _authoritativeAnswers.add(rec);
+                } else {
+                    _additionals.add(rec);
+                }
+            }
+        }
+        _recordTypes = null;
+        _filteredRecords = null;
+        _filteredDecoded = null;
+    }
+
+    private DNSRecord decodeRecord(int offset) {
+        _messageInputStream.seek(offset);
+        return this.readAnswer(_source);
+    }
+
+    private DNSRecord decodeRecordQuietly(int offset) {
+        try {
+            return this.decodeRecord(offset);
+        } catch (RuntimeException exception) {
+            logger.log(Level.WARNING, "DNSIncoming() could not decode record at 0x" + Integer.toHexString(offset) + " of " + this.print(true), exception);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the answers, authorities and additionals whose name and type are accepted by the filter. With a lazy message the other records are not decoded.
+     *
+     * @param filter
+     *            record filter
+     * @return matching records
+     */
+    public synchronized Collection<? extends DNSRecord> getAllAnswers(RecordFilter filter) {
+        List<DNSRecord> aList = new ArrayList<DNSRecord>();
+        int[] recordOffsets = _recordOffsets;
+        if (recordOffsets == null) {
+            for (DNSRecord rec : super.getAllAnswers()) {
+                if (filter.accept(rec.getName(), rec.getRecordType())) {
+                    aList.add(rec);
+                }
+            }
+            return aList;
+        }
+        if (_filteredDecoded == null) {
+            _filteredRecords = new DNSRecord[recordOffsets.length];
+            _filteredDecoded = new boolean[recordOffsets.length];
+        }
+        for (int i = 0; i < recordOffsets.length; i++) {
+            int offset = recordOffsets[i];
+            if (offset < 0) {
+                continue;
+            }
+            if (!_filteredDecoded[i]) {
+                if (!filter.accept(_messageInputStream.nameAt(offset), DNSRecordType.typeForIndex(_recordTypes[i]))) {
+                    continue;
+                }
+                _filteredRecords[i] = this.decodeRecordQuietly(offset);
+                _filteredDecoded[i] = true;
+            } else if ((_filteredRecords[i] == null) || !filter.accept(_filteredRecords[i].getName(), _filteredRecords[i].getRecordType())) {
+                continue;
+            }
+            if (_filteredRecords[i] != null) {
+                aList.add(_filteredRecords[i]);
+            }
+        }
+        return aList;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<? extends DNSRecord> getAllAnswers() {
+        this.decodeRecords(false);
+        return super.getAllAnswers();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<? extends DNSRecord> getAnswers() {
+        this.decodeRecords(false);
+        return super.getAnswers();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<? extends DNSRecord> getAuthorities() {
+        this.decodeRecords(false);
+        return super.getAuthorities();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<? extends DNSRecord> getAdditionals() {
+        this.decodeRecords(false);
+        return super.getAdditionals();
+    }
+
     /*
      * (non-Javadoc)
      * @see java.lang.Object#clone()
      */
     @Override
     public DNSIncoming clone() {
-        DNSIncoming in = new DNSIncoming(this.getFlags(), this.getId(), this.isMulticast(), this._packet, this._receivedTime);
+        this.decodeRecords(false);
+        DNSIncoming in = new DNSIncoming(this.getFlags(), this.getId(), this.isMulticast(), this._packet, this._source, this._receivedTime);
         in._senderUDPPayload = this._senderUDPPayload;
         in._questions.addAll(this._questions);
         in._answers.addAll(this._answers);
@@ -558,6 +955,7 @@ public final class DNSIncoming extends DNSMessage {
      */
     void append(DNSIncoming that) {
         if (this.isQuery() && this.isTruncated() && that.isQuery()) {
+            this.decodeRecords(false);
             this._questions.addAll(that.getQuestions());
             this._answers.addAll(that.getAnswers());
             this._authoritativeAnswers.addAll(that.getAuthorities());
@@ -567,6 +965,13 @@ public final class DNSIncoming extends DNSMessage {
         }
     }
 
+    /**
+     * @return address of the sender
+     */
+    public InetAddress getSource() {
+        return _source;
+    }
+
     public int elapseSinceArrival() {
         return (int) (System.currentTimeMillis() - _receivedTime);
     }
@@ -4,10 +4,12 @@
 
 package javax.jmdns.impl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.jmdns.impl.constants.DNSConstants;
 import javax.jmdns.impl.constants.DNSRecordClass;
@@ -19,9 +21,16 @@ import javax.jmdns.impl.constants.DNSRecordClass;
  */
 public final class DNSOutgoing extends DNSMessage {
 
-    public static class MessageOutputStream extends ByteArrayOutputStream {
+    /**
+     * Writes a message into a byte buffer. The writes are not synchronized and the buffer grows as needed.
+     */
+    public static class MessageOutputStream {
+        private ByteBuffer        _buffer;
+
         private final DNSOutgoing _out;
 
+        private final int         _start;
+
         private final int         _offset;
 
         /**
@@ -37,18 +46,79 @@ public final class DNSOutgoing extends DNSMessage {
         }
 
         MessageOutputStream(int size, DNSOutgoing out, int offset) {
-            super(size);
+            this(ByteBuffer.allocate(size), out, offset);
+        }
+
+        /**
+         * Creates a new message stream writing from the position of the buffer.
+         *
+         * @param buffer
+         *            buffer to write to, replaced by a larger one if it is too small
+         * @param out
+         *            message whose name compression table is used
+         * @param offset
+         *            offset of the position of the buffer in the message
+         */
+        MessageOutputStream(ByteBuffer buffer, DNSOutgoing out, int offset) {
+            super();
+            _buffer = buffer;
             _out = out;
+            _start = buffer.position();
             _offset = offset;
         }
 
+        /**
+         * Makes room for <code>length</code> more bytes.
+         */
+        private void ensureCapacity(int length) {
+            if (_buffer.remaining() < length) {
+                ByteBuffer buffer = ByteBuffer.allocate(Math.max(_buffer.capacity() * 2, _buffer.position() + length));
+                _buffer.flip();
+                buffer.put(_buffer);
+                _buffer = buffer;
+            }
+        }
+
+        /**
+         * @return the buffer written to, which may have been replaced by a larger one
+         */
+        ByteBuffer buffer() {
+            return _buffer;
+        }
+
+        /**
+         * @return number of bytes written
+         */
+        public int size() {
+            return _buffer.position() - _start;
+        }
+
+        /**
+         * @return offset in the message of the next byte written
+         */
+        int offset() {
+            return _offset + this.size();
+        }
+
+        /**
+         * @return copy of the bytes written
+         */
+        public byte[] toByteArray() {
+            int size = this.size();
+            byte[] bytes = new byte[size];
+            System.arraycopy(_buffer.array(), _buffer.arrayOffset() + _start, bytes, 0, size);
+            return bytes;
+        }
+
         void writeByte(int value) {
-            this.write(value & 0xFF);
+            this.ensureCapacity(1);
+            _buffer.put((byte) value);
         }
 
         void writeBytes(String str, int off, int len) {
+            this.ensureCapacity(len);
             for (int i = 0; i < len; i++) {
-                writeByte(str.charAt(off + i));
+                _buffer.put((byte) str.charAt(off + i));
             }
         }
 
@@ -59,54 +129,53 @@ public final class DNSOutgoing extends DNSMessage {
         }
 
         void writeBytes(byte data[], int off, int len) {
-            for (int i = 0; i < len; i++) {
-                writeByte(data[off + i]);
-            }
+            this.ensureCapacity(len);
+            _buffer.put(data, off, len);
         }
 
         void writeShort(int value) {
-            writeByte(value >> 8);
-            writeByte(value);
+            this.ensureCapacity(2);
+            _buffer.putShort((short) value);
         }
 
         void writeInt(int value) {
-            writeShort(value >> 16);
-            writeShort(value);
+            this.ensureCapacity(4);
+            _buffer.putInt(value);
         }
 
         void writeUTF(String str, int off, int len) {
-            // compute utf length
-            int utflen = 0;
-            for (int i = 0; i < len; i++) {
-                int ch = str.charAt(off + i);
-                if ((ch >= 0x0001) && (ch <= 0x007F)) {
-                    utflen += 1;
-                } else {
-                    if (ch > 0x07FF) {
-                        utflen += 3;
-                    } else {
-                        utflen += 2;
-                    }
-                }
-            }
+            this.ensureCapacity(1 + 3 * len);
+            byte[] bytes = _buffer.array();
+            int start = _buffer.arrayOffset() + _buffer.position();
+            int end = encodeUTF(str, off, len, bytes, start + 1);
             // write utf length
-            writeByte(utflen);
-            // write utf data
-            for (int i = 0; i < len; i++) {
-                int ch = str.charAt(off + i);
+            bytes[start] = (byte) (end - start - 1);
+            _buffer.position(end - _buffer.arrayOffset());
+        }
+
+        /**
+         * Encodes characters of the string in modified UTF-8. The array must have room for 3 bytes per character.
+         *
+         * @return index following the last byte written
+         */
+        static int encodeUTF(String str, int off, int len, byte[] bytes, int index) {
+            int i = index;
+            for (int j = 0; j < len; j++) {
+                int ch = str.charAt(off + j);
                 if ((ch >= 0x0001) && (ch <= 0x007F)) {
-                    writeByte(ch);
+                    bytes[i++] = (byte) ch;
                 } else {
                     if (ch > 0x07FF) {
-                        writeByte(0xE0 | ((ch >> 12) & 0x0F));
-                        writeByte(0x80 | ((ch >> 6) & 0x3F));
-                        writeByte(0x80 | ((ch >> 0) & 0x3F));
+                        bytes[i++] = (byte) (0xE0 | ((ch >> 12) & 0x0F));
+                        bytes[i++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                        bytes[i++] = (byte) (0x80 | ((ch >> 0) & 0x3F));
                     } else {
-                        writeByte(0xC0 | ((ch >> 6) & 0x1F));
-                        writeByte(0x80 | ((ch >> 0) & 0x3F));
+                        bytes[i++] = (byte) (0xC0 | ((ch >> 6) & 0x1F));
+                        bytes[i++] = (byte) (0x80 | ((ch >> 0) & 0x3F));
                     }
                 }
             }
+            return i;
         }
 
         void writeName(String name) {
@@ -114,78 +183,447 @@ public final class DNSOutgoing extends DNSMessage {
         }
 
         void writeName(String name, boolean useCompression) {
-            String aName = name;
-            while (true) {
-                int n = aName.indexOf('.');
-                if (n < 0) {
-                    n = aName.length();
-                }
-                if (n <= 0) {
-                    writeByte(0);
-                    return;
-                }
-                String label = aName.substring(0, n);
-                if (useCompression && USE_DOMAIN_NAME_COMPRESSION) {
-                    Integer offset = _out._names.get(aName);
-                    if (offset != null) {
-                        int val = offset.intValue();
-                        writeByte((val >> 8) | 0xC0);
-                        writeByte(val & 0xFF);
-                        return;
-                    }
-                    _out._names.put(aName, Integer.valueOf(this.size() + _offset));
-                    writeUTF(label, 0, label.length());
-                } else {
-                    writeUTF(label, 0, label.length());
-                }
-                aName = aName.substring(n);
-                if (aName.startsWith(".")) {
-                    aName = aName.substring(1);
+            EncodedName[] names = _encodedNames.get();
+            int slot = (name.hashCode() * 0x9E3779B9) >>> (32 - ENCODED_NAMES_BITS);
+            EncodedName encoded = names[slot];
+            if ((encoded == null) || !name.equals(encoded._name)) {
+                encoded = new EncodedName(name);
+                names[slot] = encoded;
+            }
+            writeName(encoded, useCompression);
+        }
+
+        /**
+         * Writes a name whose labels are encoded. The longest suffix of the name already in the message is replaced by a pointer, the labels are compared ignoring case.
+         */
+        void writeName(EncodedName name, boolean useCompression) {
+            if (!useCompression || !USE_DOMAIN_NAME_COMPRESSION) {
+                writeBytes(name._bytes, 0, name._bytes.length);
+                writeByte(0);
+                return;
+            }
+            NameTable names = _out._names;
+            int parent = NameTable.ROOT;
+            int count = name._count;
+            while (count > 0) {
+                int offset = names.find(name, count - 1, parent);
+                if (offset < 0) {
+                    break;
                 }
+                parent = offset;
+                count--;
+            }
+            for (int i = 0; i < count; i++) {
+                int start = name._starts[i];
+                int length = name.end(i) - start;
+                int offset = this.offset();
+                names.add(name, i, (i + 1 < count ? offset + length : parent), offset);
+                writeBytes(name._bytes, start, length);
+            }
+            if (parent == NameTable.ROOT) {
+                writeByte(0);
+            } else {
+                writeByte((parent >> 8) | 0xC0);
+                writeByte(parent & 0xFF);
             }
         }
 
         void writeQuestion(DNSQuestion question) {
             writeName(question.getName());
             writeShort(question.getRecordType().indexValue());
-            writeShort(question.getRecordClass().indexValue());
+            // on a question the unique bit asks for a unicast response (QU)
+            writeShort(question.getRecordClass().indexValue() | ((question.isUnique() && _out.isMulticast()) ? DNSRecordClass.CLASS_UNIQUE : 0));
         }
 
         void writeRecord(DNSRecord rec, long now) {
+            EncodedRecord encoded = rec.getEncoded();
+            if (encoded != null) {
+                this.writeRecord(rec, encoded);
+                return;
+            }
             writeName(rec.getName());
             writeShort(rec.getRecordType().indexValue());
             writeShort(rec.getRecordClass().indexValue() | ((rec.isUnique() && _out.isMulticast()) ? DNSRecordClass.CLASS_UNIQUE : 0));
             writeInt((now == 0) ? rec.getTTL() : rec.getRemainingTTL(now));
 
-            // We need to take into account the 2 size bytes
-            MessageOutputStream record = new MessageOutputStream(512, _out, _offset + this.size() + 2);
-            rec.write(record);
-            byte[] byteArray = record.toByteArray();
+            // The data is written in place, its length is filled in afterwards
+            writeShort(0);
+            int start = _buffer.position();
+            rec.write(this);
+            _buffer.putShort(start - 2, (short) (_buffer.position() - start));
+        }
 
-            writeShort(byteArray.length);
-            write(byteArray, 0, byteArray.length);
+        /**
+         * Writes one of our own records from its pre-encoded form. Only the names are compressed against the message, the rest is copied. Our own records always carry their full TTL.
+         */
+        private void writeRecord(DNSRecord rec, EncodedRecord encoded) {
+            writeName(encoded._name, true);
+            writeShort(rec.getRecordType().indexValue());
+            writeShort(rec.getRecordClass().indexValue() | ((rec.isUnique() && _out.isMulticast()) ? DNSRecordClass.CLASS_UNIQUE : 0));
+            writeInt(rec.getTTL());
+
+            writeShort(0);
+            int start = _buffer.position();
+            int from = 0;
+            for (int i = 0; i < encoded._names.length; i++) {
+                writeBytes(encoded._data, from, encoded._namePositions[i] - from);
+                writeName(encoded._names[i], encoded._compressed[i]);
+                from = encoded._namePositions[i];
+            }
+            writeBytes(encoded._data, from, encoded._data.length - from);
+            _buffer.putShort(start - 2, (short) (_buffer.position() - start));
         }
 
     }
 
+    /**
+     * Name split into its encoded labels, each preceded by its length.
+     */
+    static final class EncodedName {
+        final String _name;
+
+        final byte[] _bytes;
+
+        final int[]  _starts;
+
+        /**
+         * Hash of each label ignoring case, see {@link NameTable}.
+         */
+        final int[]  _hashes;
+
+        final int    _count;
+
+        EncodedName(String name) {
+            super();
+            _name = name;
+            byte[] bytes = new byte[3 * name.length()];
+            int[] starts = new int[8];
+            int[] hashes = new int[8];
+            int count = 0;
+            int length = 0;
+            int start = 0;
+            while (start < name.length()) {
+                int n = name.indexOf('.', start);
+                if (n < 0) {
+                    n = name.length();
+                }
+                if (n == start) {
+                    break;
+                }
+                if (starts.length == count) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    hashes = Arrays.copyOf(hashes, count * 2);
+                }
+                int end = MessageOutputStream.encodeUTF(name, start, n - start, bytes, length + 1);
+                bytes[length] = (byte) (end - length - 1);
+                starts[count] = length;
+                hashes[count] = NameTable.hash(bytes, length);
+                count++;
+                length = end;
+                start = n + 1;
+            }
+            _bytes = Arrays.copyOf(bytes, length);
+            _starts = Arrays.copyOf(starts, count);
+            _hashes = Arrays.copyOf(hashes, count);
+            _count = count;
+        }
+
+        /**
+         * @return index following the label
+         */
+        int end(int label) {
+            return (label + 1 < _count ? _starts[label + 1] : _bytes.length);
+        }
+    }
+
+    /**
+     * Labels written in a message, used to compress names. Each label is known by its bytes and the offset of the rest of its name, so that a name is matched label by label from its end without building any string. This is an open
+     * addressing hash table over a byte arena, it does not allocate once it has grown to the size of the messages.
+     */
+    static final class NameTable {
+        /**
+         * Parent of the last label of a name.
+         */
+        static final int ROOT       = -1;
+
+        /**
+         * Compression pointers have 14 bits.
+         */
+        private static final int MAX_OFFSET = 0x3FFF;
+
+        private byte[]           _labels;
+
+        private int              _labelsLength;
+
+        /**
+         * Index of the label in the arena, offset of its parent, offset of the label in the message and hash of the label, for each entry.
+         */
+        private int[]            _entries;
+
+        /**
+         * Entry index plus 1 for each slot, 0 for free slots.
+         */
+        private int[]            _slots;
+
+        private int              _size;
+
+        NameTable() {
+            super();
+            _labels = new byte[256];
+            _entries = new int[4 * 16];
+            _slots = new int[32];
+        }
+
+        /**
+         * Looks for a label of the name followed by the parent.
+         *
+         * @param name
+         *            encoded name
+         * @param label
+         *            index of the label in the name
+         * @param parent
+         *            offset of the rest of the name or {@link #ROOT}
+         * @return offset of the label in the message, or -1 if it was not written
+         */
+        int find(EncodedName name, int label, int parent) {
+            int hash = name._hashes[label];
+            int mask = _slots.length - 1;
+            for (int slot = slot(hash, parent) & mask; _slots[slot] != 0; slot = (slot + 1) & mask) {
+                int entry = 4 * (_slots[slot] - 1);
+                if ((_entries[entry + 3] == hash) && (_entries[entry + 1] == parent) && sameLabel(name._bytes, name._starts[label], _labels, _entries[entry])) {
+                    return _entries[entry + 2];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Adds a label of the name written at the offset.
+         */
+        void add(EncodedName name, int label, int parent, int offset) {
+            if (offset > MAX_OFFSET) {
+                return;
+            }
+            if (2 * (_size + 1) > _slots.length) {
+                this.grow();
+            }
+            int start = name._starts[label];
+            int length = name.end(label) - start;
+            if (_labelsLength + length > _labels.length) {
+                _labels = Arrays.copyOf(_labels, Math.max(_labels.length * 2, _labelsLength + length));
+            }
+            System.arraycopy(name._bytes, start, _labels, _labelsLength, length);
+            if (_entries.length < 4 * (_size + 1)) {
+                _entries = Arrays.copyOf(_entries, _entries.length * 2);
+            }
+            int entry = 4 * _size;
+            _entries[entry] = _labelsLength;
+            _entries[entry + 1] = parent;
+            _entries[entry + 2] = offset;
+            _entries[entry + 3] = name._hashes[label];
+            _labelsLength += length;
+            _size++;
+            this.insert(slot(name._hashes[label], parent), _size);
+        }
+
+        private void insert(int slot, int value) {
+            int mask = _slots.length - 1;
+            int i = slot & mask;
+            while (_slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            _slots[i] = value;
+        }
+
+        private void grow() {
+            _slots = new int[_slots.length * 2];
+            for (int i = 0; i < _size; i++) {
+                this.insert(slot(_entries[4 * i + 3], _entries[4 * i + 1]), i + 1);
+            }
+        }
+
+        /**
+         * Forgets all the labels.
+         */
+        void clear() {
+            Arrays.fill(_slots, 0);
+            _size = 0;
+            _labelsLength = 0;
+        }
+
+        /**
+         * Forgets the labels added since the table had the size. They are removed from the last one so that the probe sequences of the others stay valid.
+         */
+        void truncate(int size) {
+            int mask = _slots.length - 1;
+            while (_size > size) {
+                int entry = 4 * (_size - 1);
+                int slot = slot(_entries[entry + 3], _entries[entry + 1]) & mask;
+                while (_slots[slot] != _size) {
+                    slot = (slot + 1) & mask;
+                }
+                _slots[slot] = 0;
+                _labelsLength = _entries[entry];
+                _size--;
+            }
+        }
+
+        /**
+         * @return number of labels
+         */
+        int size() {
+            return _size;
+        }
+
+        /**
+         * Hash of the label starting with its length byte, ignoring the case of ASCII letters.
+         */
+        static int hash(byte[] bytes, int start) {
+            int hash = 0;
+            for (int i = start, end = start + 1 + (bytes[start] & 0xFF); i < end; i++) {
+                hash = 31 * hash + toLowerCase(bytes[i]);
+            }
+            return hash;
+        }
+
+        private static int slot(int hash, int parent) {
+            // Labels and offsets often differ by their last bits only, spread them before probing
+            int slot = (hash + 31 * parent) * 0x9E3779B9;
+            return slot ^ (slot >>> 15);
+        }
+
+        private static boolean sameLabel(byte[] bytes, int start, byte[] other, int otherStart) {
+            int length = bytes[start] & 0xFF;
+            if ((other[otherStart] & 0xFF) != length) {
+                return false;
+            }
+            for (int i = 1; i <= length; i++) {
+                byte b = bytes[start + i];
+                byte o = other[otherStart + i];
+                if ((b != o) && (toLowerCase(b) != toLowerCase(o))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Names are compared ignoring the case of ASCII letters only.
+         */
+        private static int toLowerCase(byte b) {
+            return ((b >= 'A') && (b <= 'Z') ? b + ('a' - 'A') : b);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "NameTable[" + _size + " labels]";
+        }
+    }
+
+    /**
+     * Wire form of a record that does not depend on the message it is written to: the name of the record and its data, with the names of the data kept apart so that they can be compressed against the message.
+     */
+    static final class EncodedRecord {
+        final EncodedName   _name;
+
+        final byte[]        _data;
+
+        final int[]         _namePositions;
+
+        final EncodedName[] _names;
+
+        final boolean[]     _compressed;
+
+        /**
+         * Encodes the record.
+         *
+         * @param rec
+         *            record to encode
+         */
+        EncodedRecord(DNSRecord rec) {
+            super();
+            final List<Integer> positions = new ArrayList<Integer>();
+            final List<EncodedName> names = new ArrayList<EncodedName>();
+            final List<Boolean> compressed = new ArrayList<Boolean>();
+            // Records where the names of the data go instead of writing them
+            MessageOutputStream data = new MessageOutputStream(64, null) {
+                @Override
+                void writeName(String name, boolean useCompression) {
+                    positions.add(Integer.valueOf(this.size()));
+                    names.add(new EncodedName(name));
+                    compressed.add(Boolean.valueOf(useCompression));
+                }
+            };
+            rec.write(data);
+            _name = new EncodedName(rec.getName());
+            _data = data.toByteArray();
+            _namePositions = new int[positions.size()];
+            _names = names.toArray(new EncodedName[names.size()]);
+            _compressed = new boolean[compressed.size()];
+            for (int i = 0; i < _namePositions.length; i++) {
+                _namePositions[i] = positions.get(i).intValue();
+                _compressed[i] = compressed.get(i).booleanValue();
+            }
+        }
+    }
+
     /**
      * This can be used to turn off domain name compression. This was helpful for tracking problems interacting with other mdns implementations.
      */
-    public static boolean             USE_DOMAIN_NAME_COMPRESSION = true;
+    public static boolean                        USE_DOMAIN_NAME_COMPRESSION = true;
 
-    Map<String, Integer>              _names;
+    private static final int                     ENCODED_NAMES_BITS          = 8;
+
+    /**
+     * Names recently written by the current thread, as the same names are written in message after message. This is a direct mapped cache, a name pushed out is encoded again the next time.
+     */
+    private static final ThreadLocal<EncodedName[]> _encodedNames            = new ThreadLocal<EncodedName[]>() {
+                                                                                 @Override
+                                                                                 protected EncodedName[] initialValue() {
+                                                                                     return new EncodedName[1 << ENCODED_NAMES_BITS];
+                                                                                 }
+                                                                             };
 
-    private int                       _maxUDPPayload;
+    /**
+     * Buffer the messages are encoded into, one per sending thread.
+     */
+    private static final ThreadLocal<ByteBuffer> _buffers                    = new ThreadLocal<ByteBuffer>() {
+                                                                                 @Override
+                                                                                 protected ByteBuffer initialValue() {
+                                                                                     return ByteBuffer.allocate(DNSConstants.MAX_MSG_ABSOLUTE);
+                                                                                 }
+                                                                             };
 
-    private final MessageOutputStream _questionsBytes;
+    /**
+     * Labels already written, for name compression.
+     */
+    final NameTable                              _names;
+
+    private int                                  _maxUDPPayload;
+
+    /**
+     * Size of the questions and records, measured as they are added.
+     */
+    private int                                  _size;
+
+    /**
+     * Encoded message, <code>null</code> until it is built or when the message changed since.
+     */
+    private byte[]                               _data;
 
-    private final MessageOutputStream _answersBytes;
+    private int                                  _dataId;
 
-    private final MessageOutputStream _authoritativeAnswersBytes;
+    private int                                  _dataFlags;
 
-    private final MessageOutputStream _additionalsAnswersBytes;
+    /**
+     * Unicast address the message is sent to, <code>null</code> for the mDNS group.
+     */
+    private InetSocketAddress                    _destination;
 
-    private final static int          HEADER_SIZE                 = 12;
+    private final static int                     HEADER_SIZE                 = 12;
 
     /**
      * Create an outgoing multicast query or response.
@@ -216,12 +654,35 @@ public final class DNSOutgoing extends DNSMessage {
      */
     public DNSOutgoing(int flags, boolean multicast, int senderUDPPayload) {
         super(flags, 0, multicast);
-        _names = new HashMap<String, Integer>();
+        _names = new NameTable();
         _maxUDPPayload = (senderUDPPayload > 0 ? senderUDPPayload : DNSConstants.MAX_MSG_TYPICAL);
-        _questionsBytes = new MessageOutputStream(senderUDPPayload, this);
-        _answersBytes = new MessageOutputStream(senderUDPPayload, this);
-        _authoritativeAnswersBytes = new MessageOutputStream(senderUDPPayload, this);
-        _additionalsAnswersBytes = new MessageOutputStream(senderUDPPayload, this);
+    }
+
+    /**
+     * Returns a stream writing into the buffer of the current thread, which must be handed back with {@link #release(MessageOutputStream)}.
+     */
+    private MessageOutputStream acquire(int offset) {
+        ByteBuffer buffer = _buffers.get();
+        buffer.clear();
+        return new MessageOutputStream(buffer, this, offset);
+    }
+
+    /**
+     * Keeps the buffer of the stream for the next message of the current thread.
+     *
+     * @return number of bytes written by the stream
+     */
+    private int release(MessageOutputStream stream) {
+        _buffers.set(stream.buffer());
+        return stream.size();
+    }
+
+    /**
+     * Accounts for a question or a record just added.
+     */
+    private void added(int size) {
+        _size += size;
+        _data = null;
     }
 
     /**
@@ -230,25 +691,18 @@ public final class DNSOutgoing extends DNSMessage {
      * @return available space
      */
     public int availableSpace() {
-        return _maxUDPPayload - HEADER_SIZE - _questionsBytes.size() - _answersBytes.size() - _authoritativeAnswersBytes.size() - _additionalsAnswersBytes.size();
+        return _maxUDPPayload - HEADER_SIZE - _size;
     }
 
     /**
-     * Add a question to the message.
+     * Add a question to the message. A message which grows larger than a datagram is split when it is sent, see {@link MessagePacker}.
      *
      * @param rec
      * @exception IOException
      */
     public void addQuestion(DNSQuestion rec) throws IOException {
-        MessageOutputStream record = new MessageOutputStream(512, this);
-        record.writeQuestion(rec);
-        byte[] byteArray = record.toByteArray();
-        if (byteArray.length < this.availableSpace()) {
-            _questions.add(rec);
-            _questionsBytes.write(byteArray, 0, byteArray.length);
-        } else {
-            throw new IOException("message full");
-        }
+        _questions.add(rec);
+        this.added(this.measure(rec));
     }
 
     /**
@@ -274,15 +728,8 @@ public final class DNSOutgoing extends DNSMessage {
     public void addAnswer(DNSRecord rec, long now) throws IOException {
         if (rec != null) {
             if ((now == 0) || !rec.isExpired(now)) {
-                MessageOutputStream record = new MessageOutputStream(512, this);
-                record.writeRecord(rec, now);
-                byte[] byteArray = record.toByteArray();
-                if (byteArray.length < this.availableSpace()) {
-                    _answers.add(rec);
-                    _answersBytes.write(byteArray, 0, byteArray.length);
-                } else {
-                    throw new IOException("message full");
-                }
+                _answers.add(rec);
+                this.added(this.measure(rec, now));
             }
         }
     }
@@ -294,46 +741,109 @@ public final class DNSOutgoing extends DNSMessage {
      * @exception IOException
      */
     public void addAuthorativeAnswer(DNSRecord rec) throws IOException {
-        MessageOutputStream record = new MessageOutputStream(512, this);
-        record.writeRecord(rec, 0);
-        byte[] byteArray = record.toByteArray();
-        if (byteArray.length < this.availableSpace()) {
-            _authoritativeAnswers.add(rec);
-            _authoritativeAnswersBytes.write(byteArray, 0, byteArray.length);
-        } else {
-            throw new IOException("message full");
-        }
+        _authoritativeAnswers.add(rec);
+        this.added(this.measure(rec, 0));
     }
 
     /**
-     * Add an additional answer to the record. Omit if there is no room.
+     * Add an additional answer to the record. It is omitted when the message is split and there is no room for it.
      *
      * @param in
      * @param rec
      * @exception IOException
      */
     public void addAdditionalAnswer(DNSIncoming in, DNSRecord rec) throws IOException {
-        MessageOutputStream record = new MessageOutputStream(512, this);
-        record.writeRecord(rec, 0);
-        byte[] byteArray = record.toByteArray();
-        if (byteArray.length < this.availableSpace()) {
-            _additionals.add(rec);
-            _additionalsAnswersBytes.write(byteArray, 0, byteArray.length);
-        } else {
-            throw new IOException("message full");
+        _additionals.add(rec);
+        this.added(this.measure(rec, 0));
+    }
+
+    /**
+     * Add a question if it fits in the datagram. An empty datagram takes any question, as it cannot be split any further.
+     *
+     * @return <code>true</code> if the question was added
+     */
+    boolean offerQuestion(DNSQuestion rec) {
+        int names = _names.size();
+        int size = this.measure(rec);
+        if ((size < this.availableSpace()) || this.isEmpty()) {
+            _questions.add(rec);
+            this.added(size);
+            return true;
+        }
+        _names.truncate(names);
+        return false;
+    }
+
+    /**
+     * Add an answer if it fits in the datagram. An empty datagram takes any answer.
+     *
+     * @return <code>true</code> if the answer was added
+     */
+    boolean offerAnswer(DNSRecord rec) {
+        return this.offer(_answers, rec);
+    }
+
+    /**
+     * Add an authoritative answer if it fits in the datagram.
+     *
+     * @return <code>true</code> if the answer was added
+     */
+    boolean offerAuthorativeAnswer(DNSRecord rec) {
+        return this.offer(_authoritativeAnswers, rec);
+    }
+
+    /**
+     * Add an additional answer if it fits in the datagram.
+     *
+     * @return <code>true</code> if the answer was added
+     */
+    boolean offerAdditionalAnswer(DNSRecord rec) {
+        return this.offer(_additionals, rec);
+    }
+
+    private boolean offer(List<DNSRecord> section, DNSRecord rec) {
+        int names = _names.size();
+        int size = this.measure(rec, 0);
+        if ((size < this.availableSpace()) || this.isEmpty()) {
+            section.add(rec);
+            this.added(size);
+            return true;
         }
+        _names.truncate(names);
+        return false;
     }
 
     /**
-     * Builds the final message buffer to be send and returns it.
+     * Returns the size of the question, compressed against the names already in the message.
+     */
+    private int measure(DNSQuestion rec) {
+        MessageOutputStream question = this.acquire(HEADER_SIZE + _size);
+        question.writeQuestion(rec);
+        return this.release(question);
+    }
+
+    /**
+     * Returns the size of the record, compressed against the names already in the message.
+     */
+    private int measure(DNSRecord rec, long now) {
+        MessageOutputStream record = this.acquire(HEADER_SIZE + _size);
+        record.writeRecord(rec, now);
+        return this.release(record);
+    }
+
+    /**
+     * Builds the final message buffer to be send and returns it. The message is encoded in a single pass and kept until it changes.
      *
      * @return bytes to send.
      */
     public byte[] data() {
+        if ((_data != null) && (_dataId == this.getId()) && (_dataFlags == this.getFlags())) {
+            return _data;
+        }
         long now = System.currentTimeMillis(); // System.currentTimeMillis()
         _names.clear();
 
-        MessageOutputStream message = new MessageOutputStream(_maxUDPPayload, this);
+        MessageOutputStream message = this.acquire(0);
         message.writeShort(_multicast ? 0 : this.getId());
         message.writeShort(this.getFlags());
         message.writeShort(this.getNumberOfQuestions());
@@ -352,7 +862,11 @@ public final class DNSOutgoing extends DNSMessage {
         for (DNSRecord record : _additionals) {
             message.writeRecord(record, now);
         }
-        return message.toByteArray();
+        _data = message.toByteArray();
+        _dataId = this.getId();
+        _dataFlags = this.getFlags();
+        this.release(message);
+        return _data;
     }
 
     /**
@@ -443,4 +957,19 @@ public final class DNSOutgoing extends DNSMessage {
         return this._maxUDPPayload;
     }
 
+    /**
+     * @return unicast address the message is sent to, <code>null</code> for the mDNS group
+     */
+    public InetSocketAddress getDestination() {
+        return _destination;
+    }
+
+    /**
+     * @param destination
+     *            unicast address the message is sent to, <code>null</code> for the mDNS group
+     */
+    public void setDestination(InetSocketAddress destination) {
+        _destination = destination;
+    }
+
 }
@@ -230,7 +230,7 @@ public class DNSQuestion extends DNSEntry {
      * @param recordClass
      *            Record class to resolve
      * @param unique
-     *            Request unicast response (Currently not supported in this implementation)
+     *            Request unicast response (QU), only for the first queries of a resolver as the peers learn nothing from a unicast response
      * @return new question
      */
     public static DNSQuestion newQuestion(String name, DNSRecordType type, DNSRecordClass recordClass, boolean unique) {
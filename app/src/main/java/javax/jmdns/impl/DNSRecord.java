@@ -30,14 +30,19 @@ import javax.jmdns.impl.constants.DNSRecordType;
  * @author Arthur van Hoff, Rick Blair, Werner Randelshofer, Pierre Frisch
  */
 public abstract class DNSRecord extends DNSEntry {
-    private static Logger logger = Logger.getLogger(DNSRecord.class.getName());
-    private int           _ttl;
-    private long          _created;
+    private static Logger                      logger = Logger.getLogger(DNSRecord.class.getName());
+    private int                                _ttl;
+    private long                               _created;
 
     /**
      * This source is mainly for debugging purposes, should be the address that sent this record.
      */
-    private InetAddress   _source;
+    private InetAddress                        _source;
+
+    /**
+     * Wire form of our own records, <code>null</code> for the other records.
+     */
+    private volatile DNSOutgoing.EncodedRecord _encoded;
 
     /**
      * Create a DNSRecord with a name, type, class, and ttl.
@@ -91,7 +96,7 @@ public abstract class DNSRecord extends DNSEntry {
     /**
      * True if this record is suppressed by the answers in a message.
      */
-    boolean suppressedBy(DNSIncoming msg) {
+    public boolean suppressedBy(DNSIncoming msg) {
         try {
             for (DNSRecord answer : msg.getAllAnswers()) {
                 if (suppressedBy(answer)) {
@@ -157,6 +162,19 @@ public abstract class DNSRecord extends DNSEntry {
         _ttl = other._ttl;
     }
 
+    /**
+     * Restore the TTL of a record read from a cache snapshot so that it expires at the saved time.
+     *
+     * @param ttl
+     *            original TTL in seconds
+     * @param expirationTime
+     *            absolute expiration time in milliseconds
+     */
+    void restoreTTL(int ttl, long expirationTime) {
+        _created = expirationTime - (ttl * 1000L);
+        _ttl = ttl;
+    }
+
     /**
      * When a record flushed we don't remove it immediately, but mark it for rapid decay.
      */
@@ -170,6 +188,22 @@ public abstract class DNSRecord extends DNSEntry {
      */
     abstract void write(MessageOutputStream out);
 
+    /**
+     * Encodes the record once, so that it is copied instead of encoded each time it is sent. This is meant for our own records, which do not change and are sent again and again.
+     */
+    void preEncode() {
+        if (_encoded == null) {
+            _encoded = new DNSOutgoing.EncodedRecord(this);
+        }
+    }
+
+    /**
+     * @return wire form of the record or <code>null</code> if it was not pre-encoded
+     */
+    DNSOutgoing.EncodedRecord getEncoded() {
+        return _encoded;
+    }
+
     public static class IPv4Address extends Address {
 
         IPv4Address(String name, DNSRecordClass recordClass, boolean unique, int ttl, InetAddress addr) {
@@ -11,6 +11,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.jmdns.impl.tasks.RecordReaper;
+import javax.jmdns.impl.tasks.RecordRefresher;
 import javax.jmdns.impl.tasks.Responder;
 import javax.jmdns.impl.tasks.resolver.ServiceInfoResolver;
 import javax.jmdns.impl.tasks.resolver.ServiceResolver;
@@ -358,6 +359,15 @@ public interface DNSTaskStarter {
             new RecordReaper(_jmDNSImpl).start(_timer);
         }
 
+        /*
+         * (non-Javadoc)
+         * @see javax.jmdns.impl.DNSTaskStarter#startRefresher()
+         */
+        @Override
+        public void startRefresher() {
+            new RecordRefresher(_jmDNSImpl).start(_timer);
+        }
+
         /*
          * (non-Javadoc)
          * @see javax.jmdns.impl.DNSTaskStarter#startServiceInfoResolver(javax.jmdns.impl.ServiceInfoImpl)
@@ -440,6 +450,11 @@ public interface DNSTaskStarter {
      */
     public void startReaper();
 
+    /**
+     * Start a new refresher task. There is only supposed to be one refresher running at a time.
+     */
+    public void startRefresher();
+
     /**
      * Start a new service info resolver task
      *
@@ -0,0 +1,286 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jmdns.impl.constants.DNSConstants;
+
+/**
+ * This class is used by JmDNS to send and receive the datagrams of the mDNS port. The default transport uses a multicast socket, or a channel of the shared {@link SelectorListener}. Another transport, like the in memory
+ * {@link MulticastBus}, can be plugged in through the factory class delegate to run JmDNS without a network.
+ * <p>
+ * Once open a transport hands the datagrams it receives to {@link JmDNSImpl#packetReceived(DatagramPacket)}, always from the same thread.
+ * </p>
+ * <p>
+ * <b>Note: </b> This is not considered as part of the general public API of JmDNS.
+ * </p>
+ */
+public interface DNSTransport {
+
+    /**
+     * DNSTransport.Factory enable the creation of new instance of DNSTransport.
+     */
+    public static final class Factory {
+
+        /**
+         * This interface defines a delegate to the DNSTransport class to enable subclassing.
+         */
+        public static interface ClassDelegate {
+
+            /**
+             * Allows the delegate the opportunity to construct and return a different DNSTransport.
+             *
+             * @param jmDNSImpl
+             *            jmDNS instance
+             * @return Should return a new DNSTransport Object.
+             * @see #classDelegate()
+             * @see #setClassDelegate(ClassDelegate anObject)
+             */
+            public DNSTransport newDNSTransport(JmDNSImpl jmDNSImpl);
+        }
+
+        private static final AtomicReference<ClassDelegate> _databaseClassDelegate = new AtomicReference<ClassDelegate>();
+
+        private Factory() {
+            super();
+        }
+
+        /**
+         * Assigns <code>delegate</code> as DNSTransport's class delegate. The class delegate is optional.
+         *
+         * @param delegate
+         *            The object to set as DNSTransport's class delegate.
+         * @see #classDelegate()
+         * @see ClassDelegate
+         */
+        public static void setClassDelegate(ClassDelegate delegate) {
+            _databaseClassDelegate.set(delegate);
+        }
+
+        /**
+         * Returns DNSTransport's class delegate.
+         *
+         * @return DNSTransport's class delegate.
+         * @see #setClassDelegate(ClassDelegate anObject)
+         * @see ClassDelegate
+         */
+        public static ClassDelegate classDelegate() {
+            return _databaseClassDelegate.get();
+        }
+
+        /**
+         * Returns a new instance of DNSTransport using the class delegate if it exists.
+         *
+         * @param jmDNSImpl
+         *            jmDNS instance
+         * @return new instance of DNSTransport
+         */
+        public static DNSTransport newDNSTransport(JmDNSImpl jmDNSImpl) {
+            DNSTransport instance = null;
+            ClassDelegate delegate = _databaseClassDelegate.get();
+            if (delegate != null) {
+                instance = delegate.newDNSTransport(jmDNSImpl);
+            }
+            return (instance != null ? instance : new DNSTransportImpl(jmDNSImpl));
+        }
+
+    }
+
+    /**
+     * Bind to the mDNS port, join the group and start handing the datagrams received to the instance.
+     *
+     * @param group
+     *            mDNS multicast group
+     * @param networkInterface
+     *            interface to join the group on and to send from, may be <code>null</code>
+     * @param dualStack
+     *            <code>true</code> if the group of the other IP family will be joined too
+     * @exception IOException
+     */
+    public void open(InetAddress group, NetworkInterface networkInterface, boolean dualStack) throws IOException;
+
+    /**
+     * Join another group, the group of the other IP family when both are used.
+     *
+     * @param group
+     * @param networkInterface
+     * @exception IOException
+     */
+    public void join(InetAddress group, NetworkInterface networkInterface) throws IOException;
+
+    /**
+     * Send a datagram to a group or to a peer.
+     *
+     * @param packet
+     * @exception IOException
+     */
+    public void send(DatagramPacket packet) throws IOException;
+
+    /**
+     * Leave the groups and stop receiving. Does nothing if the transport is not open.
+     */
+    public void close();
+
+    /**
+     * Transport of the datagrams through the network.
+     */
+    public static final class DNSTransportImpl implements DNSTransport {
+        static Logger                     logger = Logger.getLogger(DNSTransportImpl.class.getName());
+
+        private final JmDNSImpl           _jmDNSImpl;
+
+        private final List<InetAddress>   _groups;
+
+        private volatile MulticastSocket  _socket;
+
+        /**
+         * Channel used instead of the socket when the instances share a {@link SelectorListener}.
+         */
+        private volatile DatagramChannel  _channel;
+
+        private Thread                    _incomingListener;
+
+        /**
+         * @param jmDNSImpl
+         */
+        public DNSTransportImpl(JmDNSImpl jmDNSImpl) {
+            super();
+            _jmDNSImpl = jmDNSImpl;
+            _groups = new ArrayList<InetAddress>(2);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void open(InetAddress group, NetworkInterface networkInterface, boolean dualStack) throws IOException {
+            if (SelectorListener.isEnabled() && (networkInterface != null)) {
+                try {
+                    _channel = SelectorListener.getInstance().open(_jmDNSImpl, group, dualStack, networkInterface);
+                    return;
+                } catch (IOException exception) {
+                    logger.log(Level.WARNING, "open() Open channel exception, using a socket ", exception);
+                }
+            }
+            _socket = new MulticastSocket(DNSConstants.MDNS_PORT);
+            if (networkInterface != null) {
+                try {
+                    _socket.setNetworkInterface(networkInterface);
+                } catch (SocketException e) {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine("open() Set network interface exception: " + e.getMessage());
+                    }
+                }
+            }
+            _socket.setTimeToLive(255);
+            this.join(group, networkInterface);
+            _incomingListener = new SocketListener(_jmDNSImpl, _socket);
+            _incomingListener.start();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void join(InetAddress group, NetworkInterface networkInterface) throws IOException {
+            if (_channel != null) {
+                SelectorListener.getInstance().join(_channel, group, networkInterface);
+            } else {
+                // The socket is bound to the wildcard address, it receives both IP families if the platform is dual stack
+                _socket.joinGroup(new InetSocketAddress(group, DNSConstants.MDNS_PORT), networkInterface);
+                _groups.add(group);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            final DatagramChannel channel = _channel;
+            if (channel != null && channel.isOpen()) {
+                if (channel.send(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()), packet.getSocketAddress()) == 0) {
+                    logger.fine("send(" + _jmDNSImpl.getName() + ") socket buffer full, message dropped");
+                }
+                return;
+            }
+            final MulticastSocket ms = _socket;
+            if (ms != null && !ms.isClosed()) {
+                ms.send(packet);
+            }
+        }
+
+        /**
+         * @return the multicast socket, <code>null</code> if the datagrams go through a channel of the {@link SelectorListener} or the transport is closed
+         */
+        public MulticastSocket getSocket() {
+            return _socket;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            if (_channel != null) {
+                SelectorListener.getInstance().close(_channel);
+                _channel = null;
+            }
+            if (_socket != null) {
+                // close socket
+                try {
+                    for (InetAddress group : _groups) {
+                        try {
+                            _socket.leaveGroup(group);
+                        } catch (SocketException exception) {
+                            //
+                        }
+                    }
+                    _groups.clear();
+                    _socket.close();
+                    // jP: 20010-01-18. It isn't safe to join() on the listener
+                    // thread - it attempts to lock the IoLock object, and deadlock
+                    // ensues. Per issue #2933183, changed this to wait on the JmDNS
+                    // monitor, checking on each notify (or timeout) that the
+                    // listener thread has stopped.
+                    //
+                    while (_incomingListener != null && _incomingListener.isAlive()) {
+                        synchronized (_jmDNSImpl) {
+                            try {
+                                if (_incomingListener != null && _incomingListener.isAlive()) {
+                                    // wait time is arbitrary, we're really expecting notification.
+                                    if (logger.isLoggable(Level.FINER)) {
+                                        logger.finer("close(): waiting for jmDNS monitor");
+                                    }
+                                    _jmDNSImpl.wait(1000);
+                                }
+                            } catch (InterruptedException ignored) {
+                                // Ignored
+                            }
+                        }
+                    }
+                    _incomingListener = null;
+                } catch (final Exception exception) {
+                    logger.log(Level.WARNING, "close() Close socket exception ", exception);
+                }
+                _socket = null;
+            }
+        }
+
+    }
+
+}
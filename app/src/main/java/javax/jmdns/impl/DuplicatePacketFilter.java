@@ -0,0 +1,140 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.net.DatagramPacket;
+
+import javax.jmdns.impl.constants.DNSConstants;
+
+/**
+ * Drops the responses which are byte for byte identical to the previous response received from the same source within a short window, such as the repeated announcements of a peer or a datagram received twice. Processing them again
+ * would not change anything.
+ * <p>
+ * Only the last response of each source is remembered, so a response is never dropped if anything else was received from that source in between. The sources are kept in a small direct mapped table, a source pushed out by another one
+ * simply loses its fingerprint. Queries are never dropped as a repeated query asks for an answer again.
+ * </p>
+ * <p>
+ * <b>Note: </b> This is not considered as part of the general public API of JmDNS.
+ * </p>
+ */
+public final class DuplicatePacketFilter {
+
+    private static final int SLOTS = 64;
+
+    private final long       _window;
+
+    private final long[]     _sources;
+
+    private final long[]     _fingerprints;
+
+    private final long[]     _times;
+
+    private long             _packets;
+
+    private long             _duplicates;
+
+    private long             _duplicateBytes;
+
+    /**
+     * Create a filter using the default window.
+     */
+    public DuplicatePacketFilter() {
+        this(DNSConstants.DUPLICATE_PACKET_WINDOW);
+    }
+
+    /**
+     * @param window
+     *            milliseconds during which a repeated response is dropped, 0 disables the filter
+     */
+    public DuplicatePacketFilter(long window) {
+        super();
+        _window = window;
+        _sources = new long[SLOTS];
+        _fingerprints = new long[SLOTS];
+        _times = new long[SLOTS];
+    }
+
+    /**
+     * Check if the datagram was not just processed.
+     *
+     * @param packet
+     *            received datagram
+     * @return <code>true</code> if the packet should be processed, <code>false</code> if it repeats the previous response of its source
+     */
+    public synchronized boolean accept(DatagramPacket packet) {
+        _packets++;
+        byte[] data = packet.getData();
+        int offset = packet.getOffset();
+        int length = packet.getLength();
+        if ((_window <= 0) || (length < 12) || ((readUnsignedShort(data, offset + 2) & DNSConstants.FLAGS_QR_MASK) != DNSConstants.FLAGS_QR_RESPONSE)) {
+            return true;
+        }
+        long source = (((long) packet.getAddress().hashCode()) << 16) ^ packet.getPort();
+        long fingerprint = fingerprint(data, offset, length);
+        long now = System.currentTimeMillis();
+        int slot = (int) (source ^ (source >>> 29)) & (SLOTS - 1);
+        if ((_sources[slot] == source) && (_fingerprints[slot] == fingerprint) && (now - _times[slot] < _window)) {
+            _duplicates++;
+            _duplicateBytes += length;
+            return false;
+        }
+        _sources[slot] = source;
+        _fingerprints[slot] = fingerprint;
+        _times[slot] = now;
+        return true;
+    }
+
+    /**
+     * Forget the previous responses, the next ones are always processed.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < SLOTS; i++) {
+            _times[i] = Long.MIN_VALUE / 2;
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the payload, mixed with its length.
+     */
+    private static long fingerprint(byte[] data, int offset, int length) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash = (hash ^ (data[i] & 0xFF)) * 0x100000001B3L;
+        }
+        return hash ^ length;
+    }
+
+    private static int readUnsignedShort(byte[] data, int index) {
+        return ((data[index] & 0xFF) << 8) | (data[index + 1] & 0xFF);
+    }
+
+    /**
+     * @return number of packets checked
+     */
+    public synchronized long getPacketCount() {
+        return _packets;
+    }
+
+    /**
+     * @return number of repeated responses dropped
+     */
+    public synchronized long getDuplicateCount() {
+        return _duplicates;
+    }
+
+    /**
+     * @return number of bytes of the repeated responses dropped, which were not decoded nor processed
+     */
+    public synchronized long getDuplicateBytes() {
+        return _duplicateBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "DuplicatePacketFilter dropped " + _duplicates + " of " + _packets + " packets (" + _duplicateBytes + " bytes)";
+    }
+
+}
@@ -13,6 +13,7 @@ import java.net.NetworkInterface;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,8 +39,32 @@ public class HostInfo implements DNSStatefulObject {
 
     protected NetworkInterface  _interfaze;
 
+    /**
+     * Address of the other IP family on the same interface when both families are used, <code>null</code> otherwise.
+     */
+    protected InetAddress       _alternateAddress;
+
     private final HostInfoState _state;
 
+    /**
+     * Address records of the host, kept pre-encoded while its name does not change.
+     */
+    private final OwnRecords    _answers = new OwnRecords() {
+                                             @Override
+                                             protected Collection<DNSRecord> build(boolean unique, int ttl, String hostName) {
+                                                 List<DNSRecord> list = new ArrayList<DNSRecord>();
+                                                 DNSRecord answer = HostInfo.this.getDNS4AddressRecord(unique, ttl);
+                                                 if (answer != null) {
+                                                     list.add(answer);
+                                                 }
+                                                 answer = HostInfo.this.getDNS6AddressRecord(unique, ttl);
+                                                 if (answer != null) {
+                                                     list.add(answer);
+                                                 }
+                                                 return list;
+                                             }
+                                         };
+
     private final static class HostInfoState extends DNSStatefulObject.DefaultImplementation {
 
         private static final long serialVersionUID = -8191476803620402088L;
@@ -129,9 +154,32 @@ public class HostInfo implements DNSStatefulObject {
             } catch (Exception exception) {
                 logger.log(Level.SEVERE, "LocalHostInfo() exception ", exception);
             }
+            if (DNSConstants.DUAL_STACK && (_interfaze != null)) {
+                _alternateAddress = alternateAddress(_interfaze, address);
+            }
         }
     }
 
+    /**
+     * Finds an address of the other IP family on the interface, preferring the routable addresses to the link local ones.
+     */
+    private static InetAddress alternateAddress(NetworkInterface networkInterface, InetAddress address) {
+        InetAddress linkLocal = null;
+        for (Enumeration<InetAddress> addresses = networkInterface.getInetAddresses(); addresses.hasMoreElements();) {
+            InetAddress candidate = addresses.nextElement();
+            if (((candidate instanceof Inet6Address) == (address instanceof Inet6Address)) || candidate.isLoopbackAddress()) {
+                continue;
+            }
+            if (!candidate.isLinkLocalAddress()) {
+                return candidate;
+            }
+            if (linkLocal == null) {
+                linkLocal = candidate;
+            }
+        }
+        return linkLocal;
+    }
+
     public String getName() {
         return _name;
     }
@@ -140,10 +188,20 @@ public class HostInfo implements DNSStatefulObject {
         return _address;
     }
 
+    /**
+     * @return address of the other IP family used on the same interface, <code>null</code> if only one family is used
+     */
+    public InetAddress getAlternateAddress() {
+        return _alternateAddress;
+    }
+
     Inet4Address getInet4Address() {
         if (this.getInetAddress() instanceof Inet4Address) {
             return (Inet4Address) _address;
         }
+        if (_alternateAddress instanceof Inet4Address) {
+            return (Inet4Address) _alternateAddress;
+        }
         return null;
     }
 
@@ -151,6 +209,9 @@ public class HostInfo implements DNSStatefulObject {
         if (this.getInetAddress() instanceof Inet6Address) {
             return (Inet6Address) _address;
         }
+        if (_alternateAddress instanceof Inet6Address) {
+            return (Inet6Address) _alternateAddress;
+        }
         return null;
     }
 
@@ -176,7 +237,12 @@ public class HostInfo implements DNSStatefulObject {
         if (this.getInetAddress() != null) {
             InetAddress from = packet.getAddress();
             if (from != null) {
-                if ((this.getInetAddress().isLinkLocalAddress() || this.getInetAddress().isMCLinkLocal()) && (!from.isLinkLocalAddress())) {
+                // With both IP families the address of the family of the sender decides
+                InetAddress local = (from instanceof Inet6Address ? this.getInet6Address() : this.getInet4Address());
+                if (local == null) {
+                    local = this.getInetAddress();
+                }
+                if ((local.isLinkLocalAddress() || local.isMCLinkLocal()) && (!from.isLinkLocalAddress())) {
                     // A host sending Multicast DNS queries to a link-local destination
                     // address (including the 224.0.0.251 and FF02::FB link-local multicast
                     // addresses) MUST only accept responses to that query that originate
@@ -216,15 +282,17 @@ public class HostInfo implements DNSStatefulObject {
     }
 
     private DNSRecord.Address getDNS4AddressRecord(boolean unique, int ttl) {
-        if (this.getInetAddress() instanceof Inet4Address) {
-            return new DNSRecord.IPv4Address(this.getName(), DNSRecordClass.CLASS_IN, unique, ttl, this.getInetAddress());
+        InetAddress address = this.getInet4Address();
+        if (address != null) {
+            return new DNSRecord.IPv4Address(this.getName(), DNSRecordClass.CLASS_IN, unique, ttl, address);
         }
         return null;
     }
 
     private DNSRecord.Address getDNS6AddressRecord(boolean unique, int ttl) {
-        if (this.getInetAddress() instanceof Inet6Address) {
-            return new DNSRecord.IPv6Address(this.getName(), DNSRecordClass.CLASS_IN, unique, ttl, this.getInetAddress());
+        InetAddress address = this.getInet6Address();
+        if (address != null) {
+            return new DNSRecord.IPv6Address(this.getName(), DNSRecordClass.CLASS_IN, unique, ttl, address);
         }
         return null;
     }
@@ -242,15 +310,17 @@ public class HostInfo implements DNSStatefulObject {
     }
 
     private DNSRecord.Pointer getDNS4ReverseAddressRecord(boolean unique, int ttl) {
-        if (this.getInetAddress() instanceof Inet4Address) {
-            return new DNSRecord.Pointer(this.getInetAddress().getHostAddress() + ".in-addr.arpa.", DNSRecordClass.CLASS_IN, unique, ttl, this.getName());
+        InetAddress address = this.getInet4Address();
+        if (address != null) {
+            return new DNSRecord.Pointer(address.getHostAddress() + ".in-addr.arpa.", DNSRecordClass.CLASS_IN, unique, ttl, this.getName());
         }
         return null;
     }
 
     private DNSRecord.Pointer getDNS6ReverseAddressRecord(boolean unique, int ttl) {
-        if (this.getInetAddress() instanceof Inet6Address) {
-            return new DNSRecord.Pointer(this.getInetAddress().getHostAddress() + ".ip6.arpa.", DNSRecordClass.CLASS_IN, unique, ttl, this.getName());
+        InetAddress address = this.getInet6Address();
+        if (address != null) {
+            return new DNSRecord.Pointer(address.getHostAddress() + ".ip6.arpa.", DNSRecordClass.CLASS_IN, unique, ttl, this.getName());
         }
         return null;
     }
@@ -264,6 +334,10 @@ public class HostInfo implements DNSStatefulObject {
         buf.append(getInterface() != null ? getInterface().getDisplayName() : "???");
         buf.append(":");
         buf.append(getInetAddress() != null ? getInetAddress().getHostAddress() : "no address");
+        if (_alternateAddress != null) {
+            buf.append(", ");
+            buf.append(_alternateAddress.getHostAddress());
+        }
         buf.append(", ");
         buf.append(_state);
         buf.append("]");
@@ -272,13 +346,10 @@ public class HostInfo implements DNSStatefulObject {
 
     public Collection<DNSRecord> answers(DNSRecordClass recordClass, boolean unique, int ttl) {
         List<DNSRecord> list = new ArrayList<DNSRecord>();
-        DNSRecord answer = this.getDNS4AddressRecord(unique, ttl);
-        if ((answer != null) && answer.matchRecordClass(recordClass)) {
-            list.add(answer);
-        }
-        answer = this.getDNS6AddressRecord(unique, ttl);
-        if ((answer != null) && answer.matchRecordClass(recordClass)) {
-            list.add(answer);
+        for (DNSRecord answer : _answers.get(unique, ttl, this.getName())) {
+            if (answer.matchRecordClass(recordClass)) {
+                list.add(answer);
+            }
         }
         return list;
     }
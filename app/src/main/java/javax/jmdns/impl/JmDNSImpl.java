@@ -4,6 +4,7 @@
 
 package javax.jmdns.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.Inet4Address;
@@ -11,7 +12,6 @@ import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
-import java.net.SocketException;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,6 +29,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,6 +48,7 @@ import javax.jmdns.impl.constants.DNSRecordClass;
 import javax.jmdns.impl.constants.DNSRecordType;
 import javax.jmdns.impl.constants.DNSState;
 import javax.jmdns.impl.tasks.DNSTask;
+import javax.jmdns.impl.tasks.Responder;
 import javax.jmdns.impl.util.NamedThreadFactory;
 
 // REMIND: multiple IP addresses
@@ -66,10 +69,15 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
      * This is the multicast group, we are listening to for multicast DNS messages.
      */
     private volatile InetAddress                                     _group;
+
+    /**
+     * Group of the other IP family joined on the same socket when both families are used, <code>null</code> otherwise.
+     */
+    private volatile InetAddress                                     _alternateGroup;
     /**
-     * This is our multicast socket.
+     * This is our multicast transport, see {@link DNSTransport}.
      */
-    private volatile MulticastSocket                                 _socket;
+    private volatile DNSTransport                                    _transport;
 
     /**
      * Holds instances of JmDNS.DNSListener. Must by a synchronized collection, because it is updated from concurrent threads.
@@ -91,6 +99,11 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
      */
     private final DNSCache                                           _cache;
 
+    /**
+     * File holding the cache snapshot used for a warm start, <code>null</code> if disabled.
+     */
+    private volatile File                                            _cacheSnapshot;
+
     /**
      * This hashtable holds the services that have been registered. Keys are instances of String which hold an all lower-case version of the fully qualified service name. Values are instances of ServiceInfo.
      */
@@ -103,6 +116,51 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
      */
     private final ConcurrentMap<String, ServiceTypeEntry>            _serviceTypes;
 
+    /**
+     * Selects the records of the incoming responses worth decoding.
+     */
+    private final DNSIncoming.RecordFilter                           _responseFilter = new ResponseFilter();
+
+    /**
+     * Drops the incoming datagrams nobody is interested in before they are decoded.
+     */
+    private final PacketFilter                                       _packetFilter = new PacketFilter(this);
+
+    /**
+     * Drops the responses repeated by their source before they are decoded.
+     */
+    private final DuplicatePacketFilter                              _duplicateFilter = new DuplicatePacketFilter();
+
+    /**
+     * Limits the datagrams processed per source address.
+     */
+    private volatile RateLimiter                                     _sourceLimiter = new RateLimiter("source", DNSConstants.SOURCE_RATE_LIMIT, DNSConstants.SOURCE_RATE_BURST);
+
+    /**
+     * Limits the queries handled per question name.
+     */
+    private volatile RateLimiter                                     _questionLimiter = new RateLimiter("question", DNSConstants.QUESTION_RATE_LIMIT, DNSConstants.QUESTION_RATE_BURST);
+
+    /**
+     * When our records were last multicast to the group, to decide if a query asking for a unicast response can get one.
+     */
+    private final MulticastHistory                                   _multicastHistory = new MulticastHistory();
+
+    /**
+     * When our records were last multicast to the group of the other IP family, the peers of each family only see the responses sent to their group.
+     */
+    private final MulticastHistory                                   _alternateMulticastHistory = new MulticastHistory();
+
+    /**
+     * Datagrams received and waiting to be processed, <code>null</code> if they are processed by the receiving thread.
+     */
+    private final PacketQueue                                        _packetQueue = (DNSConstants.PACKET_QUEUE_SIZE > 0 ? new PacketQueue() : null);
+
+    /**
+     * Incremented each time the service types that are browsed, resolved or registered change.
+     */
+    private final AtomicInteger                                      _interestVersion = new AtomicInteger();
+
     private volatile Delegate                                        _delegate;
 
     /**
@@ -304,7 +362,17 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
      */
     private HostInfo                                      _localHost;
 
-    private Thread                                        _incomingListener;
+    private PacketProcessor                               _packetProcessor;
+
+    /**
+     * Handles the incoming records on worker threads, <code>null</code> if they are handled by the processing thread.
+     */
+    private volatile RecordProcessor                      _recordProcessor;
+
+    /**
+     * Held while the incoming records are checked for conflicts with our host and services, as they may be checked by several workers.
+     */
+    private final Object                                  _conflictLock = new Object();
 
     /**
      * Throttle count. This is used to count the overall number of probes sent by JmDNS. When the last throttle increment happened .
@@ -346,6 +414,11 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
      */
     private DNSIncoming                                   _plannedAnswer;
 
+    /**
+     * Delayed multicast response the queries received meanwhile are merged into, guarded by the io lock.
+     */
+    private Responder                                     _plannedResponder;
+
     // State machine
 
     /**
@@ -397,6 +470,8 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
             logger.finer("JmDNS instance created");
         }
         _cache = new DNSCache(100);
+        _cache.setCapacity(DNSConstants.CACHE_MAX_ENTRIES, DNSConstants.CACHE_MAX_BYTES);
+        _cache.setEvictionPolicy(new CacheEvictionPolicy());
 
         _listeners = Collections.synchronizedList(new ArrayList<DNSListener>());
         _serviceListeners = new ConcurrentHashMap<String, List<ServiceListenerStatus>>();
@@ -409,6 +484,13 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         _localHost = HostInfo.newHostInfo(address, this, name);
         _name = (name != null ? name : _localHost.getName());
 
+        if (DNSConstants.CACHE_SNAPSHOT_DIRECTORY.length() > 0) {
+            // One snapshot per interface as the cache content depends on the network
+            String suffix = (_localHost.getInetAddress() != null ? _localHost.getInetAddress().getHostAddress() : _localHost.getName());
+            _cacheSnapshot = new File(DNSConstants.CACHE_SNAPSHOT_DIRECTORY, "jmdns-" + suffix.replaceAll("[^A-Za-z0-9.-]", "_") + ".cache");
+            this.loadCacheSnapshot();
+        }
+
         // _cancelerTimer = new Timer("JmDNS.cancelerTimer");
 
         // (ldeck 2.1.1) preventing shutdown blocking thread
@@ -423,12 +505,17 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         this.start(this.getServices().values());
 
         this.startReaper();
+        this.startRefresher();
     }
 
     private void start(Collection<? extends ServiceInfo> serviceInfos) {
-        if (_incomingListener == null) {
-            _incomingListener = new SocketListener(this);
-            _incomingListener.start();
+        if ((_packetQueue != null) && (_packetProcessor == null)) {
+            _packetProcessor = new PacketProcessor(this, _packetQueue);
+            _packetProcessor.start();
+        }
+        if ((DNSConstants.RECORD_WORKERS > 0) && (_recordProcessor == null)) {
+            _recordProcessor = new RecordProcessor(this.getName(), DNSConstants.RECORD_WORKERS);
+            _recordProcessor.start();
         }
         this.startProber();
         for (ServiceInfo info : serviceInfos) {
@@ -448,73 +535,50 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                 _group = InetAddress.getByName(DNSConstants.MDNS_GROUP);
             }
         }
-        if (_socket != null) {
+        if (_transport != null) {
             this.closeMulticastSocket();
         }
-        // SocketAddress address = new InetSocketAddress((hostInfo != null ? hostInfo.getInetAddress() : null), DNSConstants.MDNS_PORT);
-        // System.out.println("Socket Address: " + address);
-        // try {
-        // _socket = new MulticastSocket(address);
-        // } catch (Exception exception) {
-        // logger.log(Level.WARNING, "openMulticastSocket() Open socket exception Address: " + address + ", ", exception);
-        // // The most likely cause is a duplicate address lets open without specifying the address
-        // _socket = new MulticastSocket(DNSConstants.MDNS_PORT);
-        // }
-        _socket = new MulticastSocket(DNSConstants.MDNS_PORT);
-        if ((hostInfo != null) && (hostInfo.getInterface() != null)) {
+        InetAddress alternateGroup = null;
+        if ((hostInfo != null) && (hostInfo.getAlternateAddress() != null)) {
+            alternateGroup = InetAddress.getByName(_group instanceof Inet6Address ? DNSConstants.MDNS_GROUP : DNSConstants.MDNS_GROUP_IPV6);
+        }
+        _alternateGroup = null;
+        DNSTransport transport = DNSTransport.Factory.newDNSTransport(this);
+        try {
+            transport.open(_group, hostInfo.getInterface(), alternateGroup != null);
+        } catch (IOException exception) {
+            transport.close();
+            throw exception;
+        }
+        _transport = transport;
+        if (alternateGroup != null) {
             try {
-                _socket.setNetworkInterface(hostInfo.getInterface());
-            } catch (SocketException e) {
-                if (logger.isLoggable(Level.FINE)) {
-                    logger.fine("openMulticastSocket() Set network interface exception: " + e.getMessage());
-                }
+                transport.join(alternateGroup, hostInfo.getInterface());
+                _alternateGroup = alternateGroup;
+            } catch (IOException exception) {
+                logger.log(Level.WARNING, "openMulticastSocket() Join " + alternateGroup + " exception, using a single IP family ", exception);
             }
         }
-        _socket.setTimeToLive(255);
-        _socket.joinGroup(new InetSocketAddress(_group, DNSConstants.MDNS_PORT), hostInfo.getInterface());
     }
 
     private void closeMulticastSocket() {
-        // jP: 20010-01-18. See below. We'll need this monitor...
+        // jP: 20010-01-18. See DNSTransportImpl.close(). We'll need this monitor...
         // assert (Thread.holdsLock(this));
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("closeMulticastSocket()");
         }
-        if (_socket != null) {
-            // close socket
-            try {
-                try {
-                    _socket.leaveGroup(_group);
-                } catch (SocketException exception) {
-                    //
-                }
-                _socket.close();
-                // jP: 20010-01-18. It isn't safe to join() on the listener
-                // thread - it attempts to lock the IoLock object, and deadlock
-                // ensues. Per issue #2933183, changed this to wait on the JmDNS
-                // monitor, checking on each notify (or timeout) that the
-                // listener thread has stopped.
-                //
-                while (_incomingListener != null && _incomingListener.isAlive()) {
-                    synchronized (this) {
-                        try {
-                            if (_incomingListener != null && _incomingListener.isAlive()) {
-                                // wait time is arbitrary, we're really expecting notification.
-                                if (logger.isLoggable(Level.FINER)) {
-                                    logger.finer("closeMulticastSocket(): waiting for jmDNS monitor");
-                                }
-                                this.wait(1000);
-                            }
-                        } catch (InterruptedException ignored) {
-                            // Ignored
-                        }
-                    }
-                }
-                _incomingListener = null;
-            } catch (final Exception exception) {
-                logger.log(Level.WARNING, "closeMulticastSocket() Close socket exception ", exception);
-            }
-            _socket = null;
+        if (_packetProcessor != null) {
+            _packetProcessor.stopProcessing();
+            _packetProcessor = null;
+        }
+        if (_recordProcessor != null) {
+            _recordProcessor.stop();
+            _recordProcessor = null;
+        }
+        if (_transport != null) {
+            // the transport waits on our monitor for its listener to stop
+            _transport.close();
+            _transport = null;
         }
     }
 
@@ -672,6 +736,73 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         return _cache;
     }
 
+    /**
+     * Returns a copy of the counters of the cache: lookups, hits and misses, entries per record type, adds, replaces, removes, expirations, evictions and time spent cleaning the cache.
+     *
+     * @return cache statistics
+     */
+    public DNSCacheStatistics getCacheStatistics() {
+        return this.getCache().getStatistics();
+    }
+
+    /**
+     * Returns the file holding the cache snapshot used for a warm start.
+     *
+     * @return snapshot file, <code>null</code> if snapshots are disabled
+     */
+    public File getCacheSnapshot() {
+        return _cacheSnapshot;
+    }
+
+    /**
+     * Sets the file holding the cache snapshot used for a warm start. The snapshot is written when this JmDNS is closed or recovers and read when it recovers.
+     *
+     * @param snapshot
+     *            snapshot file, <code>null</code> to disable snapshots
+     */
+    public void setCacheSnapshot(File snapshot) {
+        _cacheSnapshot = snapshot;
+    }
+
+    /**
+     * Writes the records of the cache which have not expired to the cache snapshot.
+     *
+     * @return number of records written
+     */
+    public int saveCacheSnapshot() {
+        File snapshot = _cacheSnapshot;
+        if (snapshot == null) {
+            return 0;
+        }
+        try {
+            int count = DNSCacheSnapshot.write(this.getCache(), snapshot);
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer(this.getName() + ".saveCacheSnapshot() saved " + count + " records to " + snapshot);
+            }
+            return count;
+        } catch (IOException exception) {
+            logger.log(Level.WARNING, this.getName() + ".saveCacheSnapshot() could not write " + snapshot, exception);
+            return 0;
+        }
+    }
+
+    /**
+     * Adds the records of the cache snapshot which have not expired to the cache. The restored records keep their original expiration time and are revalidated by the normal cache maintenance.
+     *
+     * @return number of records restored
+     */
+    public int loadCacheSnapshot() {
+        File snapshot = _cacheSnapshot;
+        if (snapshot == null) {
+            return 0;
+        }
+        int count = DNSCacheSnapshot.restore(this.getCache(), snapshot);
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer(this.getName() + ".loadCacheSnapshot() restored " + count + " records from " + snapshot);
+        }
+        return count;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -711,7 +842,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
     @Override
     @Deprecated
     public InetAddress getInterface() throws IOException {
-        return _socket.getInterface();
+        return _localHost.getInetAddress();
     }
 
     /**
@@ -753,6 +884,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         String loType = type.toLowerCase();
         this.registerServiceType(type);
         if (_serviceCollectors.putIfAbsent(loType, new ServiceCollector(type)) == null) {
+            _interestVersion.incrementAndGet();
             this.addServiceListener(loType, _serviceCollectors.get(loType), ListenerStatus.SYNCHONEOUS);
         }
 
@@ -938,6 +1070,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         List<ServiceListenerStatus> list = _serviceListeners.get(loType);
         if (list == null) {
             if (_serviceListeners.putIfAbsent(loType, new LinkedList<ServiceListenerStatus>()) == null) {
+                _interestVersion.incrementAndGet();
                 if (_serviceCollectors.putIfAbsent(loType, new ServiceCollector(type)) == null) {
                     // We have a problem here. The service collectors must be called synchronously so that their cache get cleaned up immediately or we will report .
                     this.addServiceListener(loType, _serviceCollectors.get(loType), ListenerStatus.SYNCHONEOUS);
@@ -986,6 +1119,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                 list.remove(status);
                 if (list.isEmpty()) {
                     _serviceListeners.remove(loType, list);
+                    _interestVersion.incrementAndGet();
                 }
             }
         }
@@ -1107,6 +1241,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         if (!_serviceTypes.containsKey(loname) && !application.toLowerCase().equals("dns-sd") && !domain.toLowerCase().endsWith("in-addr.arpa") && !domain.toLowerCase().endsWith("ip6.arpa")) {
             typeAdded = _serviceTypes.putIfAbsent(loname, new ServiceTypeEntry(name)) == null;
             if (typeAdded) {
+                _interestVersion.incrementAndGet();
                 final ServiceTypeListenerStatus[] list = _typeListeners.toArray(new ServiceTypeListenerStatus[_typeListeners.size()]);
                 final ServiceEvent event = new ServiceEventImpl(this, name, "", null);
                 for (final ServiceTypeListenerStatus status : list) {
@@ -1234,6 +1369,149 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         }
     }
 
+    /**
+     * Check if a cached record should be kept alive with refresh queries before it expires. This is the case when someone listens to the service type of the record.
+     *
+     * @param record
+     *            cached record
+     * @return <code>true</code> if the record should be queried again, <code>false</code> otherwise
+     */
+    public boolean needsRefresh(DNSRecord record) {
+        if (_serviceListeners.isEmpty() && _serviceCollectors.isEmpty()) {
+            return false;
+        }
+        return this.hasInterest(record);
+    }
+
+    /**
+     * Check if someone listens to the service type of the entry. Address records are of interest when a cached service of a type someone listens to runs on their host.
+     */
+    boolean hasInterest(DNSEntry dnsEntry) {
+        if (DNSRecordType.TYPE_A.equals(dnsEntry.getRecordType()) || DNSRecordType.TYPE_AAAA.equals(dnsEntry.getRecordType())) {
+            return this.isServerOfInterest(dnsEntry.getName());
+        }
+        String loType = dnsEntry.getType().toLowerCase();
+        return _serviceListeners.containsKey(loType) || _serviceCollectors.containsKey(loType);
+    }
+
+    /**
+     * Check if the host is the target of a cached service record of a type someone listens to. The services are found through the cached pointers of the types.
+     */
+    private boolean isServerOfInterest(String host) {
+        for (String type : _serviceListeners.keySet()) {
+            if (this.isServerOf(host, type)) {
+                return true;
+            }
+        }
+        for (String type : _serviceCollectors.keySet()) {
+            if (this.isServerOf(host, type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isServerOf(String host, String type) {
+        for (DNSEntry pointer : this.getCache().getDNSEntryList(type, DNSRecordType.TYPE_PTR, DNSRecordClass.CLASS_ANY)) {
+            if (pointer instanceof DNSRecord.Pointer) {
+                DNSEntry service = this.getCache().getDNSEntry(((DNSRecord.Pointer) pointer).getAlias(), DNSRecordType.TYPE_SRV, DNSRecordClass.CLASS_ANY);
+                if ((service instanceof DNSRecord.Service) && host.equalsIgnoreCase(((DNSRecord.Service) service).getServer())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> if someone listens to all the incoming records
+     */
+    boolean isInterestedInAllRecords() {
+        return !_typeListeners.isEmpty() || !_listeners.isEmpty();
+    }
+
+    /**
+     * @return version of the service types of interest, changed each time they change
+     */
+    int getInterestVersion() {
+        return _interestVersion.get();
+    }
+
+    /**
+     * @return lower case service types that are browsed, resolved or registered
+     */
+    Collection<String> getInterestingNames() {
+        Set<String> names = new HashSet<String>(_serviceListeners.keySet());
+        names.addAll(_serviceCollectors.keySet());
+        names.addAll(_serviceTypes.keySet());
+        return names;
+    }
+
+    /**
+     * Returns the filter dropping the incoming datagrams nobody is interested in. It keeps count of the dropped datagrams.
+     *
+     * @return packet filter
+     */
+    public PacketFilter getPacketFilter() {
+        return _packetFilter;
+    }
+
+    /**
+     * Returns the filter dropping the responses repeated by their source. It keeps count of the dropped datagrams.
+     *
+     * @return duplicate packet filter
+     */
+    public DuplicatePacketFilter getDuplicateFilter() {
+        return _duplicateFilter;
+    }
+
+    /**
+     * Returns the queue of the datagrams waiting to be processed. It keeps count of the datagrams dropped when it is full.
+     *
+     * @return packet queue, <code>null</code> if the datagrams are processed by the receiving thread
+     */
+    public PacketQueue getPacketQueue() {
+        return _packetQueue;
+    }
+
+    /**
+     * Returns the rate limit of the datagrams per source address. It keeps count of the suppressed datagrams.
+     *
+     * @return source rate limiter
+     */
+    public RateLimiter getSourceRateLimiter() {
+        return _sourceLimiter;
+    }
+
+    /**
+     * Replaces the rate limit of the datagrams per source address, to limit this instance otherwise than the <code>net.mdns.limit.source</code> properties.
+     *
+     * @param limiter
+     *            source rate limiter
+     */
+    public void setSourceRateLimiter(RateLimiter limiter) {
+        _sourceLimiter = limiter;
+    }
+
+    /**
+     * Returns the rate limit of the queries per question name. It keeps count of the suppressed queries.
+     *
+     * @return question rate limiter
+     */
+    public RateLimiter getQuestionRateLimiter() {
+        return _questionLimiter;
+    }
+
+    /**
+     * Replaces the rate limit of the queries per question name, to limit this instance otherwise than the <code>net.mdns.limit.question</code> properties.
+     *
+     * @param limiter
+     *            question rate limiter
+     */
+    public void setQuestionRateLimiter(RateLimiter limiter) {
+        _questionLimiter = limiter;
+    }
+
     // Remind: Method updateRecord should receive a better name.
     /**
      * Notify all listeners that a record was updated.
@@ -1338,9 +1616,10 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                 logger.fine(this.getName() + " handle response cached record: " + cachedRecord);
             }
             if (unique) {
-                for (DNSEntry entry : this.getCache().getDNSEntryList(newRecord.getKey())) {
-                    if (newRecord.getRecordType().equals(entry.getRecordType()) && newRecord.getRecordClass().equals(entry.getRecordClass()) && (entry != cachedRecord)) {
+                for (DNSEntry entry : this.getCache().getDNSEntryList(newRecord.getKey(), newRecord.getRecordType(), newRecord.getRecordClass())) {
+                    if (newRecord.getRecordClass().equals(entry.getRecordClass()) && (entry != cachedRecord)) {
                         ((DNSRecord) entry).setWillExpireSoon(now);
+                        this.getCache().updateDNSEntryExpiration(entry);
                     }
                 }
             }
@@ -1350,6 +1629,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                     if (newRecord.getTTL() == 0) {
                         cacheOperation = Operation.Noop;
                         cachedRecord.setWillExpireSoon(now);
+                        this.getCache().updateDNSEntryExpiration(cachedRecord);
                         // the actual record will be disposed of by the record reaper.
                     } else {
                         cacheOperation = Operation.Remove;
@@ -1361,7 +1641,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                         if (newRecord.isSingleValued()) {
                             cacheOperation = Operation.Update;
                             this.getCache().replaceDNSEntry(newRecord, cachedRecord);
-                        } else {
+                        } else if (this.getCache().makeRoomFor(newRecord)) {
                             // Address record can have more than one value on multi-homed machines
                             cacheOperation = Operation.Add;
                             this.getCache().addDNSEntry(newRecord);
@@ -1372,7 +1652,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                     }
                 }
             } else {
-                if (!expired) {
+                if (!expired && this.getCache().makeRoomFor(newRecord)) {
                     cacheOperation = Operation.Add;
                     this.getCache().addDNSEntry(newRecord);
                 }
@@ -1405,70 +1685,118 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
 
     /**
      * Handle an incoming response. Cache answers, and pass them on to the appropriate questions.
+     * <p>
+     * With record workers the answers are handled by the worker of their name and this returns at once. The prober is started once all the answers of the message are handled if one of them conflicts with our host or services.
+     * </p>
      *
      * @exception IOException
      */
     void handleResponse(DNSIncoming msg) throws IOException {
         final long now = System.currentTimeMillis();
-
-        boolean hostConflictDetected = false;
-        boolean serviceConflictDetected = false;
-
-        for (DNSRecord newRecord : msg.getAllAnswers()) {
-            this.handleRecord(newRecord, now);
-
-            if (DNSRecordType.TYPE_A.equals(newRecord.getRecordType()) || DNSRecordType.TYPE_AAAA.equals(newRecord.getRecordType())) {
-                hostConflictDetected |= newRecord.handleResponse(this);
-            } else {
-                serviceConflictDetected |= newRecord.handleResponse(this);
+        final Collection<? extends DNSRecord> answers = msg.getAllAnswers(_responseFilter);
+
+        final RecordProcessor recordProcessor = _recordProcessor;
+        if ((recordProcessor != null) && !answers.isEmpty()) {
+            final AtomicInteger pending = new AtomicInteger(answers.size());
+            final AtomicBoolean conflictDetected = new AtomicBoolean();
+            for (final DNSRecord newRecord : answers) {
+                recordProcessor.execute(newRecord.getKey(), new Runnable() {
+                    /** {@inheritDoc} */
+                    @Override
+                    public void run() {
+                        try {
+                            if (JmDNSImpl.this.handleResponseRecord(newRecord, now)) {
+                                conflictDetected.set(true);
+                            }
+                        } finally {
+                            if ((pending.decrementAndGet() == 0) && conflictDetected.get()) {
+                                JmDNSImpl.this.startProber();
+                            }
+                        }
+                    }
+                });
             }
+            return;
+        }
 
+        boolean conflictDetected = false;
+        for (DNSRecord newRecord : answers) {
+            conflictDetected |= this.handleResponseRecord(newRecord, now);
         }
 
-        if (hostConflictDetected || serviceConflictDetected) {
+        if (conflictDetected) {
             this.startProber();
         }
     }
 
+    /**
+     * Cache an answer of an incoming response and check it for conflicts.
+     *
+     * @return <code>true</code> if the answer conflicts with our host or one of our services
+     */
+    private boolean handleResponseRecord(DNSRecord newRecord, long now) {
+        this.handleRecord(newRecord, now);
+        synchronized (_conflictLock) {
+            return newRecord.handleResponse(this);
+        }
+    }
+
     /**
      * Handle an incoming query. See if we can answer any part of it given our service infos.
      *
      * @param in
      * @param addr
      * @param port
+     * @param respond
+     *            <code>false</code> to only check the known answers and the probes for conflicts, the questions are over their rate limit
      * @exception IOException
      */
-    void handleQuery(DNSIncoming in, InetAddress addr, int port) throws IOException {
+    void handleQuery(DNSIncoming in, InetAddress addr, int port, boolean respond) throws IOException {
         if (logger.isLoggable(Level.FINE)) {
             logger.fine(this.getName() + ".handle query: " + in);
         }
         // Track known answers
         boolean conflictDetected = false;
         final long expirationTime = System.currentTimeMillis() + DNSConstants.KNOWN_ANSWER_TTL;
-        for (DNSRecord answer : in.getAllAnswers()) {
-            conflictDetected |= answer.handleQuery(this, expirationTime);
+        synchronized (_conflictLock) {
+            for (DNSRecord answer : in.getAllAnswers()) {
+                conflictDetected |= answer.handleQuery(this, expirationTime);
+            }
         }
 
-        this.ioLock();
-        try {
+        if (respond) {
+            this.ioLock();
+            try {
 
-            if (_plannedAnswer != null) {
-                _plannedAnswer.append(in);
-            } else {
-                DNSIncoming plannedAnswer = in.clone();
-                if (in.isTruncated()) {
-                    _plannedAnswer = plannedAnswer;
+                if (_plannedAnswer != null) {
+                    _plannedAnswer.append(in);
+                } else {
+                    DNSIncoming plannedAnswer = in.clone();
+                    if (in.isTruncated()) {
+                        _plannedAnswer = plannedAnswer;
+                    }
+                    this.startResponder(plannedAnswer, port);
                 }
-                this.startResponder(plannedAnswer, port);
-            }
 
-        } finally {
-            this.ioUnlock();
+            } finally {
+                this.ioUnlock();
+            }
         }
 
         final long now = System.currentTimeMillis();
-        for (DNSRecord answer : in.getAnswers()) {
-            this.handleRecord(answer, now);
+        final RecordProcessor recordProcessor = _recordProcessor;
+        for (final DNSRecord answer : in.getAnswers()) {
+            if (recordProcessor != null) {
+                recordProcessor.execute(answer.getKey(), new Runnable() {
+                    /** {@inheritDoc} */
+                    @Override
+                    public void run() {
+                        JmDNSImpl.this.handleRecord(answer, now);
+                    }
+                });
+            } else {
+                this.handleRecord(answer, now);
+            }
         }
 
         if (conflictDetected) {
@@ -1488,7 +1816,90 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
     }
 
     /**
-     * Add an answer to a question. Deal with the case when the outgoing packet overflows
+     * Filter a received datagram and queue it for processing. It is handled at once when there is no queue.
+     *
+     * @param packet
+     *            received datagram, its buffer is not used after this returns
+     * @exception IOException
+     * @see DNSTransport
+     */
+    public void packetReceived(DatagramPacket packet) throws IOException {
+        if (this.getLocalHost().shouldIgnorePacket(packet)) {
+            return;
+        }
+        if (!_sourceLimiter.accept(packet.getAddress())) {
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer(this.getName() + ".packetReceived() source over its rate limit, datagram dropped: " + packet.getAddress());
+            }
+            return;
+        }
+        if (!_packetFilter.accept(packet) || !_duplicateFilter.accept(packet)) {
+            return;
+        }
+        if (_packetQueue != null) {
+            if (!_packetQueue.offer(packet) && logger.isLoggable(Level.FINER)) {
+                logger.finer(this.getName() + ".packetReceived() queue full, datagram dropped: " + _packetQueue);
+            }
+        } else {
+            this.handlePacket(packet);
+        }
+    }
+
+    /**
+     * Decode and handle a received datagram.
+     *
+     * @param packet
+     *            received datagram, its buffer is not used after this returns
+     * @exception IOException
+     */
+    void handlePacket(DatagramPacket packet) throws IOException {
+        // Responses only decode the records we care about, see handleResponse()
+        DNSIncoming msg = new DNSIncoming(packet, true);
+        if (msg.isValidResponseCode()) {
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.finest(this.getName() + ".handlePacket() JmDNS in:" + msg.print(true));
+            }
+            if (msg.isQuery()) {
+                // The known answers and the probes are always checked, so that a flood of queries cannot stop us from defending our names
+                boolean respond = this.acceptQuery(msg);
+                if (!respond && logger.isLoggable(Level.FINER)) {
+                    logger.finer(this.getName() + ".handlePacket() questions over their rate limit, query not answered: " + msg);
+                }
+                if (packet.getPort() != DNSConstants.MDNS_PORT) {
+                    this.handleQuery(msg, packet.getAddress(), packet.getPort(), respond);
+                }
+                this.handleQuery(msg, this.getGroup(), DNSConstants.MDNS_PORT, respond);
+            } else {
+                this.handleResponse(msg);
+            }
+        } else {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(this.getName() + ".handlePacket() JmDNS in message with error code:" + msg.print(true));
+            }
+        }
+    }
+
+    /**
+     * Take a token for each question of a query. A query is answered if one of its questions is under its limit, the continuations of a truncated query which only carry known answers and the probes are always answered.
+     *
+     * @param in
+     *            incoming query
+     * @return <code>true</code> if the query should be answered
+     */
+    private boolean acceptQuery(DNSIncoming in) {
+        RateLimiter questionLimiter = _questionLimiter;
+        if (!questionLimiter.isEnabled() || (in.getNumberOfQuestions() == 0) || (in.getNumberOfAuthorities() > 0)) {
+            return true;
+        }
+        boolean accepted = false;
+        for (DNSQuestion question : in.getQuestions()) {
+            accepted |= questionLimiter.accept(question.getKey());
+        }
+        return accepted;
+    }
+
+    /**
+     * Add an answer to a question. The outgoing message is split when it is sent if it overflows a datagram.
      *
      * @param in
      * @param addr
@@ -1503,45 +1914,68 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         if (newOut == null) {
             newOut = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, false, in.getSenderUDPPayload());
         }
-        try {
-            newOut.addAnswer(in, rec);
-        } catch (final IOException e) {
-            newOut.setFlags(newOut.getFlags() | DNSConstants.FLAGS_TC);
-            newOut.setId(in.getId());
-            send(newOut);
-
-            newOut = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, false, in.getSenderUDPPayload());
-            newOut.addAnswer(in, rec);
-        }
+        newOut.addAnswer(in, rec);
         return newOut;
     }
 
     /**
-     * Send an outgoing multicast DNS message.
+     * Send an outgoing multicast DNS message. A message larger than a datagram is split by a {@link MessagePacker}. A message without destination is sent to every group joined.
      *
      * @param out
      * @exception IOException
      */
     public void send(DNSOutgoing out) throws IOException {
         if (!out.isEmpty()) {
+            InetSocketAddress destination = out.getDestination();
             byte[] message = out.data();
-            final DatagramPacket packet = new DatagramPacket(message, message.length, _group, DNSConstants.MDNS_PORT);
-
-            if (logger.isLoggable(Level.FINEST)) {
-                try {
-                    final DNSIncoming msg = new DNSIncoming(packet);
-                    if (logger.isLoggable(Level.FINEST)) {
-                        logger.finest("send(" + this.getName() + ") JmDNS out:" + msg.print(true));
+            if (message.length <= out.getMaxUDPPayload()) {
+                this.send(message, destination);
+            } else {
+                for (DNSOutgoing packet : new MessagePacker(out).pack()) {
+                    this.send(packet.data(), destination);
+                }
+            }
+            if (!out.isQuery()) {
+                long now = System.currentTimeMillis();
+                if (destination == null) {
+                    _multicastHistory.sent(out, now);
+                    if (_alternateGroup != null) {
+                        _alternateMulticastHistory.sent(out, now);
                     }
-                } catch (final IOException e) {
-                    logger.throwing(getClass().toString(), "send(" + this.getName() + ") - JmDNS can not parse what it sends!!!", e);
+                } else if (destination.getAddress().isMulticastAddress()) {
+                    this.getMulticastHistory(destination.getAddress()).sent(out, now);
                 }
             }
-            final MulticastSocket ms = _socket;
-            if (ms != null && !ms.isClosed()) {
-                ms.send(packet);
+        }
+    }
+
+    private void send(byte[] message, InetSocketAddress destination) throws IOException {
+        if (destination != null) {
+            this.send(new DatagramPacket(message, message.length, destination));
+        } else {
+            this.send(new DatagramPacket(message, message.length, _group, DNSConstants.MDNS_PORT));
+            final InetAddress alternateGroup = _alternateGroup;
+            if (alternateGroup != null) {
+                this.send(new DatagramPacket(message, message.length, alternateGroup, DNSConstants.MDNS_PORT));
+            }
+        }
+    }
+
+    private void send(DatagramPacket packet) throws IOException {
+        if (logger.isLoggable(Level.FINEST)) {
+            try {
+                final DNSIncoming msg = new DNSIncoming(packet);
+                if (logger.isLoggable(Level.FINEST)) {
+                    logger.finest("send(" + this.getName() + ") JmDNS out:" + msg.print(true));
+                }
+            } catch (final IOException e) {
+                logger.throwing(getClass().toString(), "send(" + this.getName() + ") - JmDNS can not parse what it sends!!!", e);
             }
         }
+        final DNSTransport transport = _transport;
+        if (transport != null) {
+            transport.send(packet);
+        }
     }
 
     /*
@@ -1625,6 +2059,15 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         DNSTaskStarter.Factory.getInstance().getStarter(this.getDns()).startReaper();
     }
 
+    /*
+     * (non-Javadoc)
+     * @see javax.jmdns.impl.DNSTaskStarter#startRefresher()
+     */
+    @Override
+    public void startRefresher() {
+        DNSTaskStarter.Factory.getInstance().getStarter(this.getDns()).startRefresher();
+    }
+
     /*
      * (non-Javadoc)
      * @see javax.jmdns.impl.DNSTaskStarter#startServiceInfoResolver(javax.jmdns.impl.ServiceInfoImpl)
@@ -1722,6 +2165,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         logger.warning("RECOVERING");
         // Purge the timer
         this.purgeTimer();
+        this.dropPlannedResponse();
 
         // We need to keep a copy for reregistration
         final Collection<ServiceInfo> oldServiceInfos = new ArrayList<ServiceInfo>(getServices().values());
@@ -1740,7 +2184,9 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         this.closeMulticastSocket();
 
         //
+        this.saveCacheSnapshot();
         this.getCache().clear();
+        _duplicateFilter.clear();
         if (logger.isLoggable(Level.FINER)) {
             logger.finer(this.getName() + "recover() All is clean");
         }
@@ -1754,9 +2200,15 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
             }
             this.recoverState();
 
+            // Known peers are available right away, the resolvers revalidate them in the background
+            this.loadCacheSnapshot();
+
             try {
                 this.openMulticastSocket(this.getLocalHost());
                 this.start(oldServiceInfos);
+                for (String type : _serviceListeners.keySet()) {
+                    this.startServiceResolver(type);
+                }
             } catch (final Exception exception) {
                 logger.log(Level.WARNING, this.getName() + "recover() Start services exception ", exception);
             }
@@ -1771,23 +2223,29 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
 
     }
 
+    /**
+     * Remove the expired records from the cache. Only the records whose stale or expiration time has passed are looked at.
+     */
     public void cleanCache() {
+        long start = System.nanoTime();
+        int expired = 0;
         long now = System.currentTimeMillis();
-        for (DNSEntry entry : this.getCache().allValues()) {
+        for (DNSEntry entry : this.getCache().getDueEntries(now)) {
             try {
                 DNSRecord record = (DNSRecord) entry;
                 if (record.isExpired(now)) {
                     this.updateRecord(now, record, Operation.Remove);
-                    this.getCache().removeDNSEntry(record);
-                } else if (record.isStale(now)) {
-                    // we should query for the record we care about i.e. those in the service collectors
-                    this.renewServiceCollector(record);
+                    if (this.getCache().removeDNSEntry(record)) {
+                        expired++;
+                    }
                 }
+                // Stale records we care about are queried again by the RecordRefresher
             } catch (Exception exception) {
                 logger.log(Level.SEVERE, this.getName() + ".Error while reaping records: " + entry, exception);
                 logger.severe(this.toString());
             }
         }
+        this.getCache().countCleanup(expired, System.nanoTime() - start);
     }
 
     /**
@@ -1810,6 +2268,10 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
             // Stop the timer
             logger.finer("Canceling the timer");
             this.cancelTimer();
+            this.dropPlannedResponse();
+
+            // Keep the known peers for the next start
+            this.saveCacheSnapshot();
 
             // Cancel all services
             this.unregisterAllServices();
@@ -1937,6 +2399,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
             newCollectorCreated = _serviceCollectors.putIfAbsent(loType, new ServiceCollector(type)) == null;
             collector = _serviceCollectors.get(loType);
             if (newCollectorCreated) {
+                _interestVersion.incrementAndGet();
                 this.addServiceListener(type, collector, ListenerStatus.SYNCHONEOUS);
             }
         }
@@ -1992,6 +2455,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
             if (collector != null) {
                 this.removeServiceListener(type, collector);
                 _serviceCollectors.remove(type, collector);
+                _interestVersion.incrementAndGet();
             }
         }
     }
@@ -2146,6 +2610,61 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         }
     }
 
+    /**
+     * Cache eviction policy giving precedence to the records of the service types someone is listening to.
+     */
+    private class CacheEvictionPolicy implements DNSCache.EvictionPolicy {
+
+        CacheEvictionPolicy() {
+            super();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasInterest(DNSEntry dnsEntry) {
+            return JmDNSImpl.this.hasInterest(dnsEntry);
+        }
+    }
+
+    /**
+     * Accepts the response records someone may care about: address records, the records of the service types that are browsed or registered, and all the records while services are being resolved or types are browsed.
+     */
+    private class ResponseFilter implements DNSIncoming.RecordFilter {
+
+        ResponseFilter() {
+            super();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean accept(String name, DNSRecordType type) {
+            if (DNSRecordType.TYPE_A.equals(type) || DNSRecordType.TYPE_AAAA.equals(type)) {
+                return true;
+            }
+            if (JmDNSImpl.this.isInterestedInAllRecords()) {
+                return true;
+            }
+            // The service type is a suffix of the name
+            String key = name.toLowerCase();
+            int index = 0;
+            while (index < key.length()) {
+                String suffix = key.substring(index);
+                if (_serviceListeners.containsKey(suffix) || _serviceCollectors.containsKey(suffix) || _serviceTypes.containsKey(suffix)) {
+                    return true;
+                }
+                index = key.indexOf('.', index) + 1;
+                if (index == 0) {
+                    break;
+                }
+            }
+            return false;
+        }
+    }
+
     static String toUnqualifiedName(String type, String qualifiedName) {
         String loType = type.toLowerCase();
         String loQualifiedName = qualifiedName.toLowerCase();
@@ -2195,6 +2714,91 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         return _plannedAnswer;
     }
 
+    /**
+     * Check if one of our records may be answered by unicast to a query asking for it, see RFC 6762 section 5.4.
+     *
+     * @param record
+     *            one of our records
+     * @param address
+     *            address of the peer asking for it, the record must have been multicast to the group of its IP family
+     * @return <code>true</code> if the record was multicast within a quarter of its TTL
+     */
+    public boolean wasRecentlyMulticast(DNSRecord record, InetAddress address) {
+        return this.getMulticastHistory(this.getGroupFor(address)).isRecent(record, System.currentTimeMillis());
+    }
+
+    private MulticastHistory getMulticastHistory(InetAddress group) {
+        return ((group != null) && group.equals(_alternateGroup) ? _alternateMulticastHistory : _multicastHistory);
+    }
+
+    /**
+     * Merge a delayed multicast response into the one planned.
+     *
+     * @param responder
+     *            responder about to be scheduled
+     * @return <code>true</code> if the query is answered by the planned response and the responder must not be scheduled
+     */
+    public boolean mergePlannedResponse(Responder responder) {
+        this.ioLock();
+        try {
+            return (_plannedResponder != null) && _plannedResponder.merge(responder);
+        } finally {
+            this.ioUnlock();
+        }
+    }
+
+    /**
+     * Plan a delayed multicast response, the queries received until it is sent are merged into it. This must only be called once the responder has been scheduled.
+     *
+     * @param responder
+     *            scheduled responder
+     */
+    public void planResponse(Responder responder) {
+        this.ioLock();
+        try {
+            // The responder may already have run
+            if (responder.isMerging()) {
+                _plannedResponder = responder;
+            }
+        } finally {
+            this.ioUnlock();
+        }
+    }
+
+    /**
+     * Stop merging queries into a response about to be sent or cancelled.
+     *
+     * @param responder
+     *            responder starting to answer
+     * @return the queries merged into the response or <code>null</code>
+     */
+    public List<DNSIncoming> clearPlannedResponse(Responder responder) {
+        this.ioLock();
+        try {
+            if (_plannedResponder == responder) {
+                _plannedResponder = null;
+            }
+            return responder.stopMerging();
+        } finally {
+            this.ioUnlock();
+        }
+    }
+
+    /**
+     * Forget the planned response when the timer is purged or cancelled, it may never run.
+     */
+    private void dropPlannedResponse() {
+        this.ioLock();
+        try {
+            if (_plannedResponder != null) {
+                _plannedResponder.stopMerging();
+                _plannedResponder = null;
+            }
+        } finally {
+            this.ioUnlock();
+        }
+    }
+
     void setLocalHost(HostInfo localHost) {
         this._localHost = localHost;
     }
@@ -2203,14 +2807,39 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         return _serviceTypes;
     }
 
+    public DNSTransport getTransport() {
+        return _transport;
+    }
+
+    /**
+     * @return the multicast socket of the default transport, <code>null</code> if the transport does not use one
+     * @deprecated use {@link #getTransport()}, the datagrams may go through a channel or another transport
+     */
+    @Deprecated
     public MulticastSocket getSocket() {
-        return _socket;
+        final DNSTransport transport = _transport;
+        return (transport instanceof DNSTransport.DNSTransportImpl ? ((DNSTransport.DNSTransportImpl) transport).getSocket() : null);
     }
 
     public InetAddress getGroup() {
         return _group;
     }
 
+    /**
+     * Pick the group to multicast a response to a peer on, when both IP families are used.
+     *
+     * @param address
+     *            address of the peer
+     * @return the joined group of the IP family of the address, <code>null</code> if only one family is used and the responses go to every group joined
+     */
+    public InetAddress getGroupFor(InetAddress address) {
+        final InetAddress alternateGroup = _alternateGroup;
+        if ((alternateGroup == null) || (address == null)) {
+            return null;
+        }
+        return ((address instanceof Inet6Address) == (alternateGroup instanceof Inet6Address) ? alternateGroup : _group);
+    }
+
     @Override
     public Delegate getDelegate() {
         return this._delegate;
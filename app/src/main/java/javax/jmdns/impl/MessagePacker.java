@@ -0,0 +1,118 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jmdns.impl.constants.DNSConstants;
+
+/**
+ * Splits a message too large for a datagram into as few datagrams as possible. The size of each question and record is measured, compressed against the names of the datagram it is offered to, and it is placed in the first datagram
+ * with room for it. The sections are packed in their order so that the names are measured at the offsets they are written at.
+ * <p>
+ * Following RFC 6762:
+ * <ul>
+ * <li>a query split in several datagrams has the TC bit set on all of them but the last one, so that the responders wait for the rest of the known answers (section 7.2),</li>
+ * <li>a response never has the TC bit set (section 18.5),</li>
+ * <li>additional records are only a courtesy and are dropped when no datagram has room for them.</li>
+ * </ul>
+ * </p>
+ */
+final class MessagePacker {
+    private static Logger           logger = Logger.getLogger(MessagePacker.class.getName());
+
+    private final DNSOutgoing       _message;
+
+    private final List<DNSOutgoing> _packets;
+
+    /**
+     * @param message
+     *            message to split
+     */
+    MessagePacker(DNSOutgoing message) {
+        super();
+        _message = message;
+        _packets = new ArrayList<DNSOutgoing>();
+    }
+
+    /**
+     * Packs the questions and records of the message.
+     *
+     * @return datagrams to send, in order
+     */
+    List<DNSOutgoing> pack() {
+        for (DNSQuestion question : _message.getQuestions()) {
+            this.placeQuestion(question);
+        }
+        for (DNSRecord answer : _message.getAnswers()) {
+            this.placeAnswer(answer);
+        }
+        for (DNSRecord authority : _message.getAuthorities()) {
+            this.placeAuthorativeAnswer(authority);
+        }
+        int dropped = 0;
+        for (DNSRecord additional : _message.getAdditionals()) {
+            if (!this.placeAdditionalAnswer(additional)) {
+                dropped++;
+            }
+        }
+        int flags = _message.getFlags() & ~DNSConstants.FLAGS_TC;
+        for (int i = 0; i < _packets.size(); i++) {
+            boolean truncated = _message.isQuery() && (i + 1 < _packets.size());
+            _packets.get(i).setFlags(truncated ? flags | DNSConstants.FLAGS_TC : flags);
+        }
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer("pack() split message in " + _packets.size() + " datagrams, dropped " + dropped + " additional answers");
+        }
+        return _packets;
+    }
+
+    private void placeQuestion(DNSQuestion question) {
+        for (DNSOutgoing packet : _packets) {
+            if (packet.offerQuestion(question)) {
+                return;
+            }
+        }
+        // An empty datagram takes anything, even what will be fragmented
+        this.newPacket().offerQuestion(question);
+    }
+
+    private void placeAnswer(DNSRecord answer) {
+        for (DNSOutgoing packet : _packets) {
+            if (packet.offerAnswer(answer)) {
+                return;
+            }
+        }
+        this.newPacket().offerAnswer(answer);
+    }
+
+    private void placeAuthorativeAnswer(DNSRecord authority) {
+        for (DNSOutgoing packet : _packets) {
+            if (packet.offerAuthorativeAnswer(authority)) {
+                return;
+            }
+        }
+        this.newPacket().offerAuthorativeAnswer(authority);
+    }
+
+    private boolean placeAdditionalAnswer(DNSRecord additional) {
+        for (DNSOutgoing packet : _packets) {
+            if (packet.offerAdditionalAnswer(additional)) {
+                return true;
+            }
+        }
+        return _packets.isEmpty() && this.newPacket().offerAdditionalAnswer(additional);
+    }
+
+    private DNSOutgoing newPacket() {
+        DNSOutgoing packet = new DNSOutgoing(_message.getFlags(), _message.isMulticast(), _message.getMaxUDPPayload());
+        packet.setId(_message.getId());
+        packet.setDestination(_message.getDestination());
+        _packets.add(packet);
+        return packet;
+    }
+
+}
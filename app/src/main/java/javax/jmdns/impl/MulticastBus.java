@@ -0,0 +1,327 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jmdns.impl.constants.DNSConstants;
+
+/**
+ * In memory multicast network for the JmDNS instances of a JVM, to run many simulated nodes without a network. Each instance gets an endpoint with the address of its local host, the datagrams sent to a group reach every endpoint which
+ * joined it, including the sender as with multicast loopback, and the datagrams sent to an address reach the endpoint with that address.
+ * <p>
+ * Each datagram is lost for each receiver with a given probability, and is delivered after a latency plus a random jitter. Datagrams are reordered when the jitter is larger than the time between them. All the datagrams are delivered
+ * by a single thread, so a slow instance delays the others.
+ * </p>
+ * <p>
+ * Install the bus before creating the instances, with addresses which need not exist on this host:
+ * </p>
+ *
+ * <pre>
+ * MulticastBus bus = new MulticastBus(0.01, 2, 5, 42);
+ * DNSTransport.Factory.setClassDelegate(bus);
+ * JmDNS node = JmDNS.create(InetAddress.getByName(&quot;10.0.0.1&quot;), &quot;node1&quot;);
+ * </pre>
+ * <p>
+ * <b>Note: </b> This is not considered as part of the general public API of JmDNS.
+ * </p>
+ */
+public final class MulticastBus implements DNSTransport.Factory.ClassDelegate {
+    static Logger                         logger = Logger.getLogger(MulticastBus.class.getName());
+
+    private final double                  _loss;
+
+    private final long                    _latency;
+
+    private final long                    _jitter;
+
+    private final Random                  _random;
+
+    private final List<Endpoint>          _endpoints;
+
+    private final DelayQueue<Delivery>    _deliveries;
+
+    private final AtomicLong              _sequence;
+
+    private final AtomicLong              _sent;
+
+    private final AtomicLong              _delivered;
+
+    private final AtomicLong              _lost;
+
+    private Thread                        _thread;
+
+    private volatile boolean              _closed;
+
+    /**
+     * @param loss
+     *            probability that a datagram is lost for a receiver, between 0 and 1
+     * @param latency
+     *            time to deliver a datagram in milliseconds
+     * @param jitter
+     *            maximum random time added to the latency in milliseconds
+     * @param seed
+     *            seed of the random losses and jitter
+     */
+    public MulticastBus(double loss, long latency, long jitter, long seed) {
+        super();
+        _loss = loss;
+        _latency = Math.max(0, latency);
+        _jitter = Math.max(0, jitter);
+        _random = new Random(seed);
+        _endpoints = new CopyOnWriteArrayList<Endpoint>();
+        _deliveries = new DelayQueue<Delivery>();
+        _sequence = new AtomicLong();
+        _sent = new AtomicLong();
+        _delivered = new AtomicLong();
+        _lost = new AtomicLong();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DNSTransport newDNSTransport(JmDNSImpl jmDNSImpl) {
+        return new Endpoint(this, jmDNSImpl);
+    }
+
+    /**
+     * Stop delivering, the datagrams in flight and the ones sent afterwards are dropped.
+     */
+    public synchronized void close() {
+        _closed = true;
+        if (_thread != null) {
+            _thread.interrupt();
+            _thread = null;
+        }
+        _deliveries.clear();
+    }
+
+    void send(DatagramPacket packet, InetAddress source) {
+        if (_closed) {
+            return;
+        }
+        _sent.incrementAndGet();
+        byte[] data = new byte[packet.getLength()];
+        System.arraycopy(packet.getData(), packet.getOffset(), data, 0, data.length);
+        InetAddress destination = packet.getAddress();
+        boolean multicast = destination.isMulticastAddress();
+        long now = System.nanoTime();
+        for (Endpoint endpoint : _endpoints) {
+            if (multicast ? !endpoint.hasJoined(destination) : !(destination.equals(endpoint.getAddress()) && (packet.getPort() == DNSConstants.MDNS_PORT))) {
+                continue;
+            }
+            if ((_loss > 0) && (_random.nextDouble() < _loss)) {
+                _lost.incrementAndGet();
+                continue;
+            }
+            long delay = _latency + (_jitter > 0 ? (long) (_random.nextDouble() * (_jitter + 1)) : 0);
+            _deliveries.add(new Delivery(endpoint, data, source, now + TimeUnit.MILLISECONDS.toNanos(delay), _sequence.incrementAndGet()));
+        }
+        this.startDelivering();
+    }
+
+    void attach(Endpoint endpoint) {
+        _endpoints.add(endpoint);
+    }
+
+    void detach(Endpoint endpoint) {
+        _endpoints.remove(endpoint);
+    }
+
+    private synchronized void startDelivering() {
+        if ((_thread == null) && !_closed) {
+            _thread = new Thread("MulticastBus") {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            };
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+    }
+
+    void deliver() {
+        while (!_closed) {
+            Delivery delivery;
+            try {
+                delivery = _deliveries.take();
+            } catch (InterruptedException exception) {
+                break;
+            }
+            if (delivery._endpoint.receive(delivery._data, delivery._source)) {
+                _delivered.incrementAndGet();
+            }
+        }
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest("deliver() exiting.");
+        }
+    }
+
+    /**
+     * @return number of datagrams sent on the bus
+     */
+    public long getSentCount() {
+        return _sent.get();
+    }
+
+    /**
+     * @return number of datagrams handed to a receiver
+     */
+    public long getDeliveredCount() {
+        return _delivered.get();
+    }
+
+    /**
+     * @return number of datagrams lost for a receiver
+     */
+    public long getLostCount() {
+        return _lost.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "MulticastBus " + _endpoints.size() + " endpoints, sent " + _sent.get() + ", delivered " + _delivered.get() + ", lost " + _lost.get() + ", in flight " + _deliveries.size();
+    }
+
+    /**
+     * Transport of one instance on the bus.
+     */
+    static final class Endpoint implements DNSTransport {
+
+        private final MulticastBus     _bus;
+
+        private final JmDNSImpl        _jmDNSImpl;
+
+        private final Set<InetAddress> _groups;
+
+        private volatile InetAddress   _address;
+
+        private volatile boolean       _open;
+
+        Endpoint(MulticastBus bus, JmDNSImpl jmDNSImpl) {
+            super();
+            _bus = bus;
+            _jmDNSImpl = jmDNSImpl;
+            _groups = new CopyOnWriteArraySet<InetAddress>();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void open(InetAddress group, NetworkInterface networkInterface, boolean dualStack) throws IOException {
+            _address = _jmDNSImpl.getLocalHost().getInetAddress();
+            _groups.add(group);
+            _open = true;
+            _bus.attach(this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void join(InetAddress group, NetworkInterface networkInterface) throws IOException {
+            _groups.add(group);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            if (_open) {
+                _bus.send(packet, _address);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            _open = false;
+            _bus.detach(this);
+            _groups.clear();
+        }
+
+        InetAddress getAddress() {
+            return _address;
+        }
+
+        boolean hasJoined(InetAddress group) {
+            return _groups.contains(group);
+        }
+
+        boolean receive(byte[] data, InetAddress source) {
+            if (!_open || _jmDNSImpl.isCanceling() || _jmDNSImpl.isCanceled() || _jmDNSImpl.isClosing() || _jmDNSImpl.isClosed()) {
+                return false;
+            }
+            try {
+                _jmDNSImpl.packetReceived(new DatagramPacket(data, data.length, source, DNSConstants.MDNS_PORT));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, _jmDNSImpl.getName() + ".receive() exception ", e);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, _jmDNSImpl.getName() + ".receive() exception ", e);
+            }
+            return true;
+        }
+
+    }
+
+    private static final class Delivery implements Delayed {
+
+        private final Endpoint    _endpoint;
+
+        private final byte[]      _data;
+
+        private final InetAddress _source;
+
+        private final long        _due;
+
+        private final long        _sequence;
+
+        Delivery(Endpoint endpoint, byte[] data, InetAddress source, long due, long sequence) {
+            super();
+            _endpoint = endpoint;
+            _data = data;
+            _source = source;
+            _due = due;
+            _sequence = sequence;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(_due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Delivery delivery = (Delivery) other;
+            if (_due != delivery._due) {
+                return (_due - delivery._due < 0 ? -1 : 1);
+            }
+            return (_sequence < delivery._sequence ? -1 : (_sequence == delivery._sequence ? 0 : 1));
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Remembers when our records were last multicast, to answer the queries asking for a unicast response. Following RFC 6762 section 5.4 a record is only answered by unicast if it was multicast within a quarter of its TTL, otherwise
+ * the answer is multicast so that the caches of the peers stay up to date.
+ * <p>
+ * The entries are pruned once they are no longer recent, each time the map doubled since the last pruning.
+ * </p>
+ */
+final class MulticastHistory {
+
+    private static final int             MIN_PRUNE_SIZE = 64;
+
+    /**
+     * Time until which each record counts as recently multicast.
+     */
+    private final Map<DNSRecord, Long>   _recent;
+
+    private int                          _pruneSize;
+
+    MulticastHistory() {
+        super();
+        _recent = new HashMap<DNSRecord, Long>();
+        _pruneSize = MIN_PRUNE_SIZE;
+    }
+
+    /**
+     * Remember the records of a response sent to the mDNS group.
+     *
+     * @param out
+     *            multicast response
+     * @param now
+     */
+    synchronized void sent(DNSOutgoing out, long now) {
+        for (DNSRecord answer : out.getAnswers()) {
+            this.sent(answer, now);
+        }
+        for (DNSRecord additional : out.getAdditionals()) {
+            this.sent(additional, now);
+        }
+        if (_recent.size() > _pruneSize) {
+            for (Iterator<Long> i = _recent.values().iterator(); i.hasNext();) {
+                if (i.next().longValue() <= now) {
+                    i.remove();
+                }
+            }
+            _pruneSize = Math.max(MIN_PRUNE_SIZE, 2 * _recent.size());
+        }
+    }
+
+    private void sent(DNSRecord record, long now) {
+        _recent.put(record, Long.valueOf(now + record.getTTL() * 250L));
+    }
+
+    /**
+     * @param record
+     *            one of our records
+     * @param now
+     * @return <code>true</code> if the record was multicast within a quarter of its TTL
+     */
+    synchronized boolean isRecent(DNSRecord record, long now) {
+        Long until = _recent.get(record);
+        return (until != null) && (until.longValue() > now);
+    }
+
+}
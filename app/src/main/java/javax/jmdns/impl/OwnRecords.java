@@ -0,0 +1,94 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records a host or a service answers with. They are built and pre-encoded once for each uniqueness and TTL, then handed out again until the host or the service changes or the records become stale.
+ * <p>
+ * Invalidation does not lock: the records built while the owner changes are tagged with the previous version and are built again on the next call.
+ * </p>
+ */
+abstract class OwnRecords {
+
+    private static final class Entry {
+        final int             _version;
+
+        final String          _hostName;
+
+        final List<DNSRecord> _records;
+
+        Entry(int version, String hostName, List<DNSRecord> records) {
+            super();
+            _version = version;
+            _hostName = hostName;
+            _records = records;
+        }
+    }
+
+    private final ConcurrentMap<Integer, Entry> _entries = new ConcurrentHashMap<Integer, Entry>();
+
+    private final AtomicInteger                 _version = new AtomicInteger();
+
+    OwnRecords() {
+        super();
+    }
+
+    /**
+     * Returns the records, building them if needed.
+     *
+     * @param unique
+     *            unique flag of the records
+     * @param ttl
+     *            TTL of the records
+     * @param hostName
+     *            name of the host the records refer to
+     * @return unmodifiable list of pre-encoded records
+     */
+    List<DNSRecord> get(boolean unique, int ttl, String hostName) {
+        Integer key = Integer.valueOf((ttl << 1) | (unique ? 1 : 0));
+        int version = _version.get();
+        Entry entry = _entries.get(key);
+        if ((entry == null) || (entry._version != version) || !sameName(entry._hostName, hostName) || (!entry._records.isEmpty() && entry._records.get(0).isStale(System.currentTimeMillis()))) {
+            List<DNSRecord> records = new ArrayList<DNSRecord>(this.build(unique, ttl, hostName));
+            for (DNSRecord record : records) {
+                record.preEncode();
+            }
+            entry = new Entry(version, hostName, Collections.unmodifiableList(records));
+            _entries.put(key, entry);
+        }
+        return entry._records;
+    }
+
+    private static boolean sameName(String name, String other) {
+        return (name == null ? other == null : name.equals(other));
+    }
+
+    /**
+     * Drops the records, they are built again on the next call.
+     */
+    void invalidate() {
+        _version.incrementAndGet();
+    }
+
+    /**
+     * Creates the records.
+     *
+     * @param unique
+     *            unique flag of the records
+     * @param ttl
+     *            TTL of the records
+     * @param hostName
+     *            name of the host the records refer to
+     * @return new records
+     */
+    protected abstract Collection<DNSRecord> build(boolean unique, int ttl, String hostName);
+
+}
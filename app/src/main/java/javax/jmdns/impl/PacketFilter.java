@@ -0,0 +1,366 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.net.DatagramPacket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+/**
+ * Cheap classification of the incoming datagrams, run before a {@link DNSIncoming} is built. The names of the raw message are compared with the service types that are browsed, registered or resolved and with the host name, without
+ * creating any object:
+ * <ul>
+ * <li>a query is kept if one of its questions is about one of these names or if it is a probe,</li>
+ * <li>a response is kept if one of its records is about one of these names or if it only holds address records.</li>
+ * </ul>
+ * Everything is kept while service types are browsed or services are being resolved, and when the message cannot be classified. The filter counts the dropped packets.
+ * <p>
+ * <b>Note: </b> This is not considered as part of the general public API of JmDNS.
+ * </p>
+ */
+public final class PacketFilter {
+
+    /**
+     * Name suffixes of the queries which are always of interest: service type enumeration, domain enumeration and reverse lookups.
+     */
+    private static final String[]           QUERY_SUFFIXES = { "_dns-sd._udp.local.", "in-addr.arpa.", "ip6.arpa." };
+
+    /**
+     * Longest name handled, longer names are not classified.
+     */
+    private static final int                MAX_NAME       = 512;
+
+    /**
+     * Maximum number of compression pointers followed in a name.
+     */
+    private static final int                MAX_POINTERS   = 32;
+
+    /**
+     * Name buffer of the receiving thread.
+     */
+    private static final ThreadLocal<Scratch> _scratch     = new ThreadLocal<Scratch>() {
+                                                                @Override
+                                                                protected Scratch initialValue() {
+                                                                    return new Scratch();
+                                                                }
+                                                            };
+
+    private static final class Scratch {
+        final byte[] _name = new byte[MAX_NAME];
+
+        /**
+         * Offset right after the last name read in the message.
+         */
+        int          _next;
+
+        Scratch() {
+            super();
+        }
+    }
+
+    /**
+     * Immutable set of the lower case names of interest, matched against every label suffix of a name.
+     */
+    private static final class Interests {
+        final int      _version;
+
+        final String   _hostName;
+
+        final boolean  _all;
+
+        final byte[][] _keys;
+
+        final int      _mask;
+
+        Interests(int version, String hostName, List<String> names) {
+            _version = version;
+            _hostName = hostName;
+            int size = 4;
+            while (size < names.size() * 2) {
+                size <<= 1;
+            }
+            _keys = new byte[size][];
+            _mask = size - 1;
+            boolean all = false;
+            for (String name : names) {
+                byte[] key = toBytes(name.toLowerCase());
+                for (byte b : key) {
+                    // Only ASCII is lower cased on the wire, we cannot match other names reliably
+                    all |= (b < 0);
+                }
+                int slot = hash(key, 0, key.length) & _mask;
+                while ((_keys[slot] != null) && !equals(_keys[slot], key, 0, key.length)) {
+                    slot = (slot + 1) & _mask;
+                }
+                _keys[slot] = key;
+            }
+            _all = all;
+        }
+
+        boolean contains(byte[] name, int from, int to) {
+            int slot = hash(name, from, to) & _mask;
+            while (_keys[slot] != null) {
+                if (equals(_keys[slot], name, from, to)) {
+                    return true;
+                }
+                slot = (slot + 1) & _mask;
+            }
+            return false;
+        }
+
+        /**
+         * Check the name and each of its suffixes starting after a dot.
+         */
+        boolean matches(byte[] name, int length) {
+            for (int from = 0; from < length; from++) {
+                if (((from == 0) || (name[from - 1] == '.')) && this.contains(name, from, length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static byte[] toBytes(String name) {
+            try {
+                return name.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException exception) {
+                throw new InternalError();
+            }
+        }
+
+        private static int hash(byte[] bytes, int from, int to) {
+            int hash = 0x811C9DC5;
+            for (int i = from; i < to; i++) {
+                hash = (hash ^ bytes[i]) * 0x01000193;
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean equals(byte[] key, byte[] bytes, int from, int to) {
+            if (key.length != to - from) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != bytes[from + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final JmDNSImpl          _jmDNSImpl;
+
+    private volatile Interests       _interests;
+
+    private final AtomicLong         _packets = new AtomicLong();
+
+    private final AtomicLong         _dropped = new AtomicLong();
+
+    /**
+     * @param jmDNSImpl
+     *            JmDNS whose interests are used
+     */
+    PacketFilter(JmDNSImpl jmDNSImpl) {
+        super();
+        _jmDNSImpl = jmDNSImpl;
+    }
+
+    /**
+     * Check if the datagram is worth decoding.
+     *
+     * @param packet
+     *            received datagram
+     * @return <code>true</code> if the packet should be processed, <code>false</code> if it can be dropped
+     */
+    public boolean accept(DatagramPacket packet) {
+        _packets.incrementAndGet();
+        if (this.classify(packet.getData(), packet.getOffset(), packet.getLength())) {
+            return true;
+        }
+        _dropped.incrementAndGet();
+        return false;
+    }
+
+    private boolean classify(byte[] data, int offset, int length) {
+        if (length < 12) {
+            // Let DNSIncoming report the problem
+            return true;
+        }
+        int end = offset + length;
+        int flags = readUnsignedShort(data, offset + 2);
+        int numQuestions = readUnsignedShort(data, offset + 4);
+        int numAnswers = readUnsignedShort(data, offset + 6);
+        int numAuthorities = readUnsignedShort(data, offset + 8);
+        int numAdditionals = readUnsignedShort(data, offset + 10);
+        boolean query = (flags & DNSConstants.FLAGS_QR_MASK) == DNSConstants.FLAGS_QR_QUERY;
+
+        Interests interests = this.interests();
+        if (interests._all || (!query && _jmDNSImpl.isInterestedInAllRecords())) {
+            return true;
+        }
+        Scratch scratch = _scratch.get();
+        scratch._next = offset + 12;
+
+        if (query) {
+            if (numAuthorities > 0) {
+                // Probes must be checked for conflicts
+                return true;
+            }
+            for (int i = 0; i < numQuestions; i++) {
+                int nameLength = readName(data, offset, end, scratch);
+                if ((nameLength < 0) || interests.matches(scratch._name, nameLength) || matchesQuerySuffix(scratch._name, nameLength)) {
+                    return true;
+                }
+                scratch._next += 4;
+            }
+            return false;
+        }
+
+        for (int i = 0; i < numQuestions; i++) {
+            if (readName(data, offset, end, scratch) < 0) {
+                return true;
+            }
+            scratch._next += 4;
+        }
+        boolean onlyAddresses = true;
+        int numRecords = numAnswers + numAuthorities + numAdditionals;
+        for (int i = 0; i < numRecords; i++) {
+            int nameLength = readName(data, offset, end, scratch);
+            if ((nameLength < 0) || (scratch._next + 10 > end)) {
+                return true;
+            }
+            int typeIndex = readUnsignedShort(data, scratch._next);
+            int rdLength = readUnsignedShort(data, scratch._next + 8);
+            scratch._next += 10 + rdLength;
+            if (interests.matches(scratch._name, nameLength)) {
+                return true;
+            }
+            if ((typeIndex != DNSRecordType.TYPE_A.indexValue()) && (typeIndex != DNSRecordType.TYPE_AAAA.indexValue()) && (typeIndex != DNSRecordType.TYPE_OPT.indexValue())) {
+                onlyAddresses = false;
+            }
+        }
+        // Address records alone are kept, they may resolve a service we are interested in
+        return onlyAddresses;
+    }
+
+    /**
+     * Returns the names of interest, rebuilt when they have changed.
+     */
+    private Interests interests() {
+        Interests interests = _interests;
+        int version = _jmDNSImpl.getInterestVersion();
+        String hostName = _jmDNSImpl.getLocalHost().getName();
+        if ((interests == null) || (interests._version != version) || !interests._hostName.equals(hostName)) {
+            List<String> names = new ArrayList<String>(_jmDNSImpl.getInterestingNames());
+            names.add(hostName);
+            interests = new Interests(version, hostName, names);
+            _interests = interests;
+        }
+        return interests;
+    }
+
+    private static boolean matchesQuerySuffix(byte[] name, int length) {
+        for (String suffix : QUERY_SUFFIXES) {
+            int from = length - suffix.length();
+            if ((from >= 0) && ((from == 0) || (name[from - 1] == '.'))) {
+                boolean match = true;
+                for (int i = 0; match && (i < suffix.length()); i++) {
+                    match = (name[from + i] == suffix.charAt(i));
+                }
+                if (match) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the name at <code>scratch._next</code> in lower case and dotted form into the scratch buffer, and moves <code>scratch._next</code> after it.
+     *
+     * @return length of the name or -1 if it cannot be read
+     */
+    private static int readName(byte[] data, int offset, int end, Scratch scratch) {
+        byte[] name = scratch._name;
+        int length = 0;
+        int position = scratch._next;
+        int next = -1;
+        int pointers = 0;
+        while (true) {
+            if (position >= end) {
+                return -1;
+            }
+            int len = data[position] & 0xFF;
+            switch (len & 0xC0) {
+                case 0x00:
+                    if (len == 0) {
+                        scratch._next = (next >= 0 ? next : position + 1);
+                        return length;
+                    }
+                    if ((position + 1 + len > end) || (length + len + 1 > name.length)) {
+                        return -1;
+                    }
+                    for (int i = 0; i < len; i++) {
+                        byte b = data[position + 1 + i];
+                        name[length++] = (((b >= 'A') && (b <= 'Z')) ? (byte) (b + ('a' - 'A')) : b);
+                    }
+                    name[length++] = '.';
+                    position += 1 + len;
+                    break;
+                case 0xC0:
+                    if ((position + 1 >= end) || (++pointers > MAX_POINTERS)) {
+                        return -1;
+                    }
+                    if (next < 0) {
+                        next = position + 2;
+                    }
+                    position = offset + (((len & 0x3F) << 8) | (data[position + 1] & 0xFF));
+                    break;
+                default:
+                    // Extended or unknown labels
+                    return -1;
+            }
+        }
+    }
+
+    private static int readUnsignedShort(byte[] data, int index) {
+        return ((data[index] & 0xFF) << 8) | (data[index + 1] & 0xFF);
+    }
+
+    /**
+     * @return number of packets classified
+     */
+    public long getPacketCount() {
+        return _packets.get();
+    }
+
+    /**
+     * @return number of packets dropped
+     */
+    public long getDroppedCount() {
+        return _dropped.get();
+    }
+
+    /**
+     * @return fraction of the packets dropped, between 0 and 1
+     */
+    public double getDroppedRatio() {
+        long packets = _packets.get();
+        return (packets > 0 ? (double) _dropped.get() / packets : 0.0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "PacketFilter dropped " + this.getDroppedCount() + " of " + this.getPacketCount() + " packets";
+    }
+
+}
@@ -0,0 +1,68 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jmdns.impl.constants.DNSConstants;
+
+/**
+ * Process the datagrams queued by the listener.
+ */
+class PacketProcessor extends Thread {
+    static Logger             logger = Logger.getLogger(PacketProcessor.class.getName());
+
+    private final JmDNSImpl   _jmDNSImpl;
+
+    private final PacketQueue _queue;
+
+    private volatile boolean  _stopped;
+
+    /**
+     * @param jmDNSImpl
+     * @param queue
+     */
+    PacketProcessor(JmDNSImpl jmDNSImpl, PacketQueue queue) {
+        super("PacketProcessor(" + (jmDNSImpl != null ? jmDNSImpl.getName() : "") + ")");
+        this.setDaemon(true);
+        this._jmDNSImpl = jmDNSImpl;
+        this._queue = queue;
+    }
+
+    @Override
+    public void run() {
+        byte buf[] = new byte[DNSConstants.MAX_MSG_ABSOLUTE];
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        while (!_stopped) {
+            packet.setData(buf);
+            if (!_queue.take(packet, 1000)) {
+                continue;
+            }
+            try {
+                this._jmDNSImpl.handlePacket(packet);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, this.getName() + ".run() exception ", e);
+            }
+        }
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest(this.getName() + ".run() exiting.");
+        }
+    }
+
+    /**
+     * Stop once the current datagram is processed, the thread is not interrupted as it may be running listeners. The datagrams left in the queue are processed by the next thread.
+     */
+    void stopProcessing() {
+        _stopped = true;
+        LockSupport.unpark(this);
+    }
+
+    public JmDNSImpl getDns() {
+        return _jmDNSImpl;
+    }
+
+}
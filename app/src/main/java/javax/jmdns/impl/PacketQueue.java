@@ -0,0 +1,217 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jmdns.impl.constants.DNSConstants;
+
+/**
+ * Bounded queue of the datagrams received and waiting to be processed, so that the receiving thread goes back to the socket at once whatever the processing costs. When the queue is full the datagram is dropped, or the receiving thread
+ * waits for room if the queue is blocking, leaving the datagrams in the socket buffer.
+ * <p>
+ * This is a ring buffer with one producer, the receiving thread, which never locks: it copies the datagram into the buffer of a slot and publishes it by moving the head. The processing threads take the datagrams under the queue monitor,
+ * as a new processing thread may start while the previous one ends. The slot buffers are allocated once and reused.
+ * </p>
+ * <p>
+ * <b>Note: </b> This is not considered as part of the general public API of JmDNS.
+ * </p>
+ */
+public final class PacketQueue {
+
+    private final int           _capacity;
+
+    private final boolean       _blocking;
+
+    private final byte[][]      _data;
+
+    private final int[]         _lengths;
+
+    private final InetAddress[] _addresses;
+
+    private final int[]         _ports;
+
+    /**
+     * Number of datagrams ever put, the next one goes in slot <code>head % capacity</code>.
+     */
+    private final AtomicLong    _head;
+
+    /**
+     * Number of datagrams ever taken.
+     */
+    private final AtomicLong    _tail;
+
+    private final AtomicLong    _dropped;
+
+    private volatile int        _maxDepth;
+
+    private volatile Thread     _waitingConsumer;
+
+    private volatile Thread     _waitingProducer;
+
+    /**
+     * Create a queue using the default size and policy.
+     */
+    public PacketQueue() {
+        this(DNSConstants.PACKET_QUEUE_SIZE, DNSConstants.PACKET_QUEUE_BLOCKING);
+    }
+
+    /**
+     * @param capacity
+     *            maximum number of datagrams waiting
+     * @param blocking
+     *            <code>true</code> if the receiving thread waits when the queue is full, <code>false</code> if the datagram is dropped
+     */
+    public PacketQueue(int capacity, boolean blocking) {
+        super();
+        _capacity = Math.max(1, capacity);
+        _blocking = blocking;
+        _data = new byte[_capacity][];
+        _lengths = new int[_capacity];
+        _addresses = new InetAddress[_capacity];
+        _ports = new int[_capacity];
+        _head = new AtomicLong();
+        _tail = new AtomicLong();
+        _dropped = new AtomicLong();
+    }
+
+    /**
+     * Copy a datagram into the queue. Only one thread may put datagrams.
+     *
+     * @param packet
+     *            received datagram, its buffer may be reused once this returns
+     * @return <code>true</code> if the datagram was queued, <code>false</code> if it was dropped
+     */
+    public boolean offer(DatagramPacket packet) {
+        long head = _head.get();
+        while (head - _tail.get() >= _capacity) {
+            if (!_blocking) {
+                _dropped.incrementAndGet();
+                return false;
+            }
+            _waitingProducer = Thread.currentThread();
+            if (head - _tail.get() >= _capacity) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            _waitingProducer = null;
+            if (Thread.currentThread().isInterrupted()) {
+                _dropped.incrementAndGet();
+                return false;
+            }
+        }
+        int slot = (int) (head % _capacity);
+        int length = packet.getLength();
+        if ((_data[slot] == null) || (_data[slot].length < length)) {
+            _data[slot] = new byte[Math.max(length, DNSConstants.MAX_MSG_TYPICAL)];
+        }
+        System.arraycopy(packet.getData(), packet.getOffset(), _data[slot], 0, length);
+        _lengths[slot] = length;
+        _addresses[slot] = packet.getAddress();
+        _ports[slot] = packet.getPort();
+        _head.set(head + 1);
+
+        int depth = (int) (head + 1 - _tail.get());
+        if (depth > _maxDepth) {
+            _maxDepth = depth;
+        }
+        Thread consumer = _waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Take the oldest datagram, waiting for one if the queue is empty.
+     *
+     * @param packet
+     *            datagram whose buffer receives the data, it must be large enough for any datagram
+     * @param timeout
+     *            maximum number of milliseconds to wait
+     * @return <code>true</code> if a datagram was copied into the packet, <code>false</code> if the timeout elapsed or the thread was interrupted
+     */
+    public synchronized boolean take(DatagramPacket packet, long timeout) {
+        long tail = _tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (_head.get() == tail) {
+            long remaining = deadline - System.nanoTime();
+            if ((remaining <= 0) || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            _waitingConsumer = Thread.currentThread();
+            if (_head.get() == tail) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            _waitingConsumer = null;
+        }
+        int slot = (int) (tail % _capacity);
+        int length = _lengths[slot];
+        System.arraycopy(_data[slot], 0, packet.getData(), packet.getOffset(), length);
+        packet.setLength(length);
+        packet.setAddress(_addresses[slot]);
+        packet.setPort(_ports[slot]);
+        _addresses[slot] = null;
+        _tail.set(tail + 1);
+
+        Thread producer = _waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        return true;
+    }
+
+    /**
+     * @return maximum number of datagrams waiting
+     */
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * @return <code>true</code> if the receiving thread waits when the queue is full
+     */
+    public boolean isBlocking() {
+        return _blocking;
+    }
+
+    /**
+     * @return number of datagrams waiting
+     */
+    public int getDepth() {
+        return (int) Math.max(0, _head.get() - _tail.get());
+    }
+
+    /**
+     * @return highest number of datagrams that have been waiting
+     */
+    public int getMaxDepth() {
+        return _maxDepth;
+    }
+
+    /**
+     * @return number of datagrams queued
+     */
+    public long getPacketCount() {
+        return _head.get();
+    }
+
+    /**
+     * @return number of datagrams dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return _dropped.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "PacketQueue " + this.getDepth() + "/" + _capacity + " (max " + _maxDepth + "), queued " + this.getPacketCount() + ", dropped " + this.getDroppedCount() + (_blocking ? ", blocking" : "");
+    }
+
+}
@@ -0,0 +1,136 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.net.InetAddress;
+
+/**
+ * Token buckets limiting the rate of the incoming messages per source address or per question name, so that a peer answering everything or a flood cannot keep JmDNS busy. Each key may send a burst of messages and then gets a
+ * token back at a steady rate, the messages which find the bucket of their key empty are suppressed and counted.
+ * <p>
+ * The buckets are kept in a small direct mapped table, a key pushed out by another one starts again with a full bucket. The memory used does not depend on the number of sources, and a colliding key is never suppressed because of
+ * another one. A bucket is stored as the time at which it will be full again, the usual generic cell rate algorithm.
+ * </p>
+ * <p>
+ * <b>Note: </b> This is not considered as part of the general public API of JmDNS.
+ * </p>
+ */
+public final class RateLimiter {
+
+    private static final int SLOTS = 256;
+
+    private final String     _name;
+
+    private final long       _interval;
+
+    private final long       _tolerance;
+
+    private final long[]     _keys;
+
+    private final long[]     _full;
+
+    private long             _checked;
+
+    private long             _suppressed;
+
+    /**
+     * @param name
+     *            what is limited, for the logs
+     * @param rate
+     *            messages per second, 0 disables the limit
+     * @param burst
+     *            messages accepted at once after a quiet period
+     */
+    public RateLimiter(String name, int rate, int burst) {
+        super();
+        _name = name;
+        _interval = (rate > 0 ? 1000000000L / rate : 0);
+        _tolerance = _interval * Math.max(0, burst - 1);
+        _keys = new long[SLOTS];
+        _full = new long[SLOTS];
+    }
+
+    /**
+     * Take a token for a source address.
+     *
+     * @param address
+     *            source of the message
+     * @return <code>true</code> if the message should be processed, <code>false</code> if the source is over its limit
+     */
+    public boolean accept(InetAddress address) {
+        return this.accept(address != null ? address.hashCode() : 0);
+    }
+
+    /**
+     * Take a token for a name.
+     *
+     * @param name
+     *            lower case name, see {@link DNSEntry#getKey()}
+     * @return <code>true</code> if the message should be processed, <code>false</code> if the name is over its limit
+     */
+    public boolean accept(String name) {
+        return this.accept(name != null ? name.hashCode() : 0);
+    }
+
+    private synchronized boolean accept(int hash) {
+        _checked++;
+        if (_interval <= 0) {
+            return true;
+        }
+        long key = key(hash);
+        int slot = slot(key);
+        long now = System.nanoTime();
+        long full = now;
+        if ((_keys[slot] == key) && (_full[slot] - now > 0)) {
+            full = _full[slot];
+        }
+        if (full - now > _tolerance) {
+            _suppressed++;
+            return false;
+        }
+        _keys[slot] = key;
+        _full[slot] = full + _interval;
+        return true;
+    }
+
+    /**
+     * Spreads the hash code of a key, never 0 so that an empty slot matches no key.
+     */
+    static long key(int hash) {
+        return (hash * 0x9E3779B97F4A7C15L) | 1L;
+    }
+
+    static int slot(long key) {
+        return (int) (key >>> 56) & (SLOTS - 1);
+    }
+
+    /**
+     * @return <code>true</code> if messages are limited
+     */
+    public boolean isEnabled() {
+        return _interval > 0;
+    }
+
+    /**
+     * @return number of messages checked
+     */
+    public synchronized long getCheckedCount() {
+        return _checked;
+    }
+
+    /**
+     * @return number of messages suppressed because their key was over its limit
+     */
+    public synchronized long getSuppressedCount() {
+        return _suppressed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "RateLimiter " + _name + " suppressed " + _suppressed + " of " + _checked;
+    }
+
+}
@@ -0,0 +1,147 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Handle the records of the incoming messages on a few worker threads. The work is striped by record key: all the records of a name are handled by the same worker in the order they were received, so the cache and the listeners see
+ * the updates of a name in order while different names are handled in parallel.
+ * <p>
+ * Each worker has a bounded queue, the processing thread waits when it is full rather than letting the work pile up. The workers are not interrupted when they stop, they handle the records already queued first.
+ * </p>
+ */
+final class RecordProcessor {
+    static Logger                logger          = Logger.getLogger(RecordProcessor.class.getName());
+
+    /**
+     * Maximum number of records waiting for a worker.
+     */
+    private static final int     STRIPE_CAPACITY = 1024;
+
+    /**
+     * Time in milliseconds to wait for room in a full queue before checking if the workers were stopped.
+     */
+    private static final long    OFFER_TIMEOUT   = 100;
+
+    private final Worker[]       _workers;
+
+    private volatile boolean     _stopped;
+
+    /**
+     * @param name
+     *            name of the JmDNS instance, used to name the threads
+     * @param workers
+     *            number of worker threads
+     */
+    RecordProcessor(String name, int workers) {
+        super();
+        _workers = new Worker[Math.max(1, workers)];
+        for (int i = 0; i < _workers.length; i++) {
+            _workers[i] = new Worker(this, "RecordProcessor(" + (name != null ? name : "") + ")-" + i);
+        }
+    }
+
+    /**
+     * Start the worker threads.
+     */
+    void start() {
+        for (Worker worker : _workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stop the worker threads once the records already queued are handled.
+     */
+    void stop() {
+        _stopped = true;
+    }
+
+    /**
+     * Queue some work on the worker of a record key. The work is done by the calling thread once the workers are stopped.
+     * <p>
+     * The processing thread is not waited for when the workers stop, so it may still queue work. It does not wait for a full queue once they are stopped, and it takes back the work queued as they stopped, as the worker may
+     * already have exited. That work may then run before the work still queued for the key.
+     * </p>
+     *
+     * @param key
+     *            record key, see {@link DNSEntry#getKey()}
+     * @param task
+     *            work on the records of the key
+     */
+    void execute(String key, Runnable task) {
+        if (!_stopped) {
+            int hash = (key != null ? key.hashCode() : 0);
+            hash ^= (hash >>> 16);
+            BlockingQueue<Runnable> tasks = _workers[(hash & 0x7FFFFFFF) % _workers.length]._tasks;
+            try {
+                while (!_stopped) {
+                    if (tasks.offer(task, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                        if (_stopped && tasks.remove(task)) {
+                            break;
+                        }
+                        return;
+                    }
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * @return number of worker threads
+     */
+    int getWorkerCount() {
+        return _workers.length;
+    }
+
+    boolean isStopped() {
+        return _stopped;
+    }
+
+    private static final class Worker extends Thread {
+
+        private final RecordProcessor         _processor;
+
+        private final BlockingQueue<Runnable> _tasks;
+
+        Worker(RecordProcessor processor, String name) {
+            super(name);
+            this.setDaemon(true);
+            _processor = processor;
+            _tasks = new ArrayBlockingQueue<Runnable>(STRIPE_CAPACITY);
+        }
+
+        @Override
+        public void run() {
+            while (!_processor.isStopped() || !_tasks.isEmpty()) {
+                Runnable task;
+                try {
+                    task = _tasks.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException exception) {
+                    break;
+                }
+                if (task == null) {
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException exception) {
+                    logger.log(Level.WARNING, this.getName() + ".run() exception ", exception);
+                }
+            }
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.finest(this.getName() + ".run() exiting.");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,259 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.DatagramPacket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jmdns.impl.constants.DNSConstants;
+
+/**
+ * Listen for multicast packets of all the JmDNS instances with a single thread. Each instance has a non blocking datagram channel bound to the mDNS port and joined to the group on its interface, one selector waits on all of them. The
+ * datagrams are read into one buffer and handed to the instance owning the channel, which also sends through it.
+ * <p>
+ * Multicast channels were added in Java 7 and Android API level 24, they are used through reflection. The listener is only used when the <code>net.mdns.selector</code> property is set and the platform supports it, otherwise each
+ * instance has its own {@link SocketListener}.
+ * </p>
+ */
+final class SelectorListener implements Runnable {
+    private static Logger                 logger        = Logger.getLogger(SelectorListener.class.getName());
+
+    /**
+     * Maximum number of datagrams read from a channel before the other ones are serviced.
+     */
+    private static final int              RECEIVE_BATCH = 16;
+
+    private static final SelectorListener INSTANCE      = new SelectorListener();
+
+    private static final Method           OPEN;
+
+    private static final Method           SET_OPTION;
+
+    private static final Method           JOIN;
+
+    private static final Object           INET;
+
+    private static final Object           INET6;
+
+    private static final Object           IP_MULTICAST_IF;
+
+    private static final Object           IP_MULTICAST_TTL;
+
+    static {
+        Method open = null;
+        Method setOption = null;
+        Method join = null;
+        Object inet = null;
+        Object inet6 = null;
+        Object multicastInterface = null;
+        Object multicastTTL = null;
+        try {
+            Class<?> protocolFamily = Class.forName("java.net.StandardProtocolFamily");
+            Class<?> socketOptions = Class.forName("java.net.StandardSocketOptions");
+            inet = protocolFamily.getField("INET").get(null);
+            inet6 = protocolFamily.getField("INET6").get(null);
+            multicastInterface = socketOptions.getField("IP_MULTICAST_IF").get(null);
+            multicastTTL = socketOptions.getField("IP_MULTICAST_TTL").get(null);
+            open = DatagramChannel.class.getMethod("open", Class.forName("java.net.ProtocolFamily"));
+            setOption = DatagramChannel.class.getMethod("setOption", Class.forName("java.net.SocketOption"), Object.class);
+            join = DatagramChannel.class.getMethod("join", InetAddress.class, NetworkInterface.class);
+        } catch (Exception exception) {
+            // We do not want to throw anything if multicast channels do not exist.
+            join = null;
+        }
+        OPEN = open;
+        SET_OPTION = setOption;
+        JOIN = join;
+        INET = inet;
+        INET6 = inet6;
+        IP_MULTICAST_IF = multicastInterface;
+        IP_MULTICAST_TTL = multicastTTL;
+    }
+
+    /**
+     * Held while registering a channel so that the selector does not block again in between.
+     */
+    private final Object                  _gate         = new Object();
+
+    private Selector                      _selector;
+
+    private Thread                        _thread;
+
+    private SelectorListener() {
+        super();
+    }
+
+    /**
+     * @return <code>true</code> if the instances should use the shared listener
+     */
+    static boolean isEnabled() {
+        return DNSConstants.SELECTOR_RECEIVE && (JOIN != null);
+    }
+
+    /**
+     * @return the listener shared by all the instances
+     */
+    static SelectorListener getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Opens a channel for the instance and starts listening to it.
+     *
+     * @param jmDNSImpl
+     *            instance the datagrams are handed to
+     * @param group
+     *            mDNS multicast group
+     * @param dualStack
+     *            <code>true</code> if the group of the other IP family will be joined too
+     * @param networkInterface
+     *            interface to join the group on and to send from
+     * @return channel to send through, to be closed with {@link #close(DatagramChannel)}
+     * @exception IOException
+     */
+    DatagramChannel open(JmDNSImpl jmDNSImpl, InetAddress group, boolean dualStack, NetworkInterface networkInterface) throws IOException {
+        DatagramChannel channel = (DatagramChannel) invoke(OPEN, null, (dualStack || (group instanceof Inet6Address) ? INET6 : INET));
+        try {
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(new InetSocketAddress(DNSConstants.MDNS_PORT));
+            invoke(SET_OPTION, channel, IP_MULTICAST_IF, networkInterface);
+            invoke(SET_OPTION, channel, IP_MULTICAST_TTL, Integer.valueOf(255));
+            invoke(JOIN, channel, group, networkInterface);
+            channel.configureBlocking(false);
+            synchronized (_gate) {
+                if (_selector == null) {
+                    _selector = Selector.open();
+                }
+                _selector.wakeup();
+                channel.register(_selector, SelectionKey.OP_READ, jmDNSImpl);
+                if (_thread == null) {
+                    _thread = new Thread(this, "SelectorListener");
+                    _thread.setDaemon(true);
+                    _thread.start();
+                }
+            }
+            return channel;
+        } catch (IOException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Joins another group on a channel opened for both IP families.
+     *
+     * @param channel
+     * @param group
+     *            mDNS multicast group of the other IP family
+     * @param networkInterface
+     * @exception IOException
+     */
+    void join(DatagramChannel channel, InetAddress group, NetworkInterface networkInterface) throws IOException {
+        invoke(JOIN, channel, group, networkInterface);
+    }
+
+    /**
+     * Stops listening to the channel and closes it. The thread ends once no channel is left.
+     *
+     * @param channel
+     */
+    void close(DatagramChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            logger.log(Level.FINE, "close() exception ", exception);
+        }
+        synchronized (_gate) {
+            if (_selector != null) {
+                _selector.wakeup();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(DNSConstants.MAX_MSG_ABSOLUTE);
+        DatagramPacket packet = new DatagramPacket(buffer.array(), buffer.capacity());
+        while (true) {
+            synchronized (_gate) {
+                if (_selector.keys().isEmpty()) {
+                    _thread = null;
+                    break;
+                }
+            }
+            try {
+                _selector.select();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "run() select exception ", e);
+                continue;
+            }
+            for (Iterator<SelectionKey> keys = _selector.selectedKeys().iterator(); keys.hasNext();) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isValid() && key.isReadable()) {
+                    this.receive(key, buffer, packet);
+                }
+            }
+        }
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest("run() exiting.");
+        }
+    }
+
+    private void receive(SelectionKey key, ByteBuffer buffer, DatagramPacket packet) {
+        DatagramChannel channel = (DatagramChannel) key.channel();
+        JmDNSImpl jmDNSImpl = (JmDNSImpl) key.attachment();
+        for (int i = 0; i < RECEIVE_BATCH; i++) {
+            SocketAddress source;
+            try {
+                buffer.clear();
+                source = channel.receive(buffer);
+            } catch (IOException e) {
+                key.cancel();
+                if (!jmDNSImpl.isCanceling() && !jmDNSImpl.isCanceled() && !jmDNSImpl.isClosing() && !jmDNSImpl.isClosed()) {
+                    logger.log(Level.WARNING, jmDNSImpl.getName() + ".receive() exception ", e);
+                    jmDNSImpl.recover();
+                }
+                return;
+            }
+            if ((source == null) || jmDNSImpl.isCanceling() || jmDNSImpl.isCanceled() || jmDNSImpl.isClosing() || jmDNSImpl.isClosed()) {
+                return;
+            }
+            packet.setData(buffer.array(), 0, buffer.position());
+            packet.setSocketAddress(source);
+            try {
+                jmDNSImpl.packetReceived(packet);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, jmDNSImpl.getName() + ".receive() exception ", e);
+            }
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... arguments) throws IOException {
+        try {
+            return method.invoke(target, arguments);
+        } catch (InvocationTargetException exception) {
+            if (exception.getCause() instanceof IOException) {
+                throw (IOException) exception.getCause();
+            }
+            throw new IOException(String.valueOf(exception.getCause()));
+        } catch (IllegalAccessException exception) {
+            throw new IOException(exception.toString());
+        }
+    }
+
+}
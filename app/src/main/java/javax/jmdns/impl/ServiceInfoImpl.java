@@ -63,6 +63,23 @@ public class ServiceInfoImpl extends ServiceInfo implements DNSListener, DNSStat
 
     private final ServiceInfoState  _state;
 
+    /**
+     * Records this service answers with, kept pre-encoded while the service does not change.
+     */
+    private final OwnRecords        _answers = new OwnRecords() {
+                                                 @Override
+                                                 protected Collection<DNSRecord> build(boolean unique, int ttl, String hostName) {
+                                                     List<DNSRecord> list = new ArrayList<DNSRecord>();
+                                                     if (ServiceInfoImpl.this.getSubtype().length() > 0) {
+                                                         list.add(new Pointer(ServiceInfoImpl.this.getTypeWithSubtype(), DNSRecordClass.CLASS_IN, DNSRecordClass.NOT_UNIQUE, ttl, ServiceInfoImpl.this.getQualifiedName()));
+                                                     }
+                                                     list.add(new Pointer(ServiceInfoImpl.this.getType(), DNSRecordClass.CLASS_IN, DNSRecordClass.NOT_UNIQUE, ttl, ServiceInfoImpl.this.getQualifiedName()));
+                                                     list.add(new Service(ServiceInfoImpl.this.getQualifiedName(), DNSRecordClass.CLASS_IN, unique, ttl, _priority, _weight, _port, hostName));
+                                                     list.add(new Text(ServiceInfoImpl.this.getQualifiedName(), DNSRecordClass.CLASS_IN, unique, ttl, ServiceInfoImpl.this.getTextBytes()));
+                                                     return list;
+                                                 }
+                                             };
+
     private Delegate                _delegate;
 
     public static interface Delegate {
@@ -433,6 +450,7 @@ public class ServiceInfoImpl extends ServiceInfo implements DNSListener, DNSStat
     void setName(String name) {
         this._name = name;
         this._key = null;
+        _answers.invalidate();
     }
 
     /**
@@ -464,6 +482,7 @@ public class ServiceInfoImpl extends ServiceInfo implements DNSListener, DNSStat
      */
     void setServer(String server) {
         this._server = server;
+        _answers.invalidate();
     }
 
     /**
@@ -906,6 +925,7 @@ public class ServiceInfoImpl extends ServiceInfo implements DNSListener, DNSStat
                         _port = srv.getPort();
                         _weight = srv.getWeight();
                         _priority = srv.getPriority();
+                        _answers.invalidate();
                         if (serverChanged) {
                             _ipv4Addresses.clear();
                             _ipv6Addresses.clear();
@@ -926,12 +946,14 @@ public class ServiceInfoImpl extends ServiceInfo implements DNSListener, DNSStat
                         Text txt = (Text) rec;
                         _text = txt.getText();
                         _props = null; // set it null for apply update text data
+                        _answers.invalidate();
                         serviceUpdated = true;
                     }
                     break;
                 case TYPE_PTR:
                     if ((this.getSubtype().length() == 0) && (rec.getSubtype().length() != 0)) {
                         _subtype = rec.getSubtype();
+                        _answers.invalidate();
                         serviceUpdated = true;
                     }
                     break;
@@ -1223,12 +1245,7 @@ public class ServiceInfoImpl extends ServiceInfo implements DNSListener, DNSStat
         List<DNSRecord> list = new ArrayList<DNSRecord>();
         // [PJYF Dec 6 2011] This is bad hack as I don't know what the spec should really means in this case. i.e. what is the class of our registered services.
         if ((recordClass == DNSRecordClass.CLASS_ANY) || (recordClass == DNSRecordClass.CLASS_IN)) {
-            if (this.getSubtype().length() > 0) {
-                list.add(new Pointer(this.getTypeWithSubtype(), DNSRecordClass.CLASS_IN, DNSRecordClass.NOT_UNIQUE, ttl, this.getQualifiedName()));
-            }
-            list.add(new Pointer(this.getType(), DNSRecordClass.CLASS_IN, DNSRecordClass.NOT_UNIQUE, ttl, this.getQualifiedName()));
-            list.add(new Service(this.getQualifiedName(), DNSRecordClass.CLASS_IN, unique, ttl, _priority, _weight, _port, localHost.getName()));
-            list.add(new Text(this.getQualifiedName(), DNSRecordClass.CLASS_IN, unique, ttl, this.getTextBytes()));
+            list.addAll(_answers.get(unique, ttl, localHost.getName()));
         }
         return list;
     }
@@ -1241,6 +1258,7 @@ public class ServiceInfoImpl extends ServiceInfo implements DNSListener, DNSStat
         synchronized (this) {
             this._text = text;
             this._props = null;
+            _answers.invalidate();
             this.setNeedTextAnnouncing(true);
         }
     }
@@ -1261,6 +1279,7 @@ public class ServiceInfoImpl extends ServiceInfo implements DNSListener, DNSStat
     void _setText(byte[] text) {
         this._text = text;
         this._props = null;
+        _answers.invalidate();
     }
 
     private static byte[] textFromProperties(Map<String, ?> props) {
@@ -6,13 +6,14 @@ package javax.jmdns.impl;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.net.MulticastSocket;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.jmdns.impl.constants.DNSConstants;
 
 /**
- * Listen for multicast packets.
+ * Listen for multicast packets on the socket of a {@link DNSTransport.DNSTransportImpl}.
  */
 class SocketListener extends Thread {
     static Logger           logger = Logger.getLogger(SocketListener.class.getName());
@@ -20,15 +21,19 @@ class SocketListener extends Thread {
     /**
      *
      */
-    private final JmDNSImpl _jmDNSImpl;
+    private final JmDNSImpl       _jmDNSImpl;
+
+    private final MulticastSocket _socket;
 
     /**
      * @param jmDNSImpl
+     * @param socket
      */
-    SocketListener(JmDNSImpl jmDNSImpl) {
+    SocketListener(JmDNSImpl jmDNSImpl, MulticastSocket socket) {
         super("SocketListener(" + (jmDNSImpl != null ? jmDNSImpl.getName() : "") + ")");
         this.setDaemon(true);
         this._jmDNSImpl = jmDNSImpl;
+        this._socket = socket;
     }
 
     @Override
@@ -38,33 +43,12 @@ class SocketListener extends Thread {
             DatagramPacket packet = new DatagramPacket(buf, buf.length);
             while (!this._jmDNSImpl.isCanceling() && !this._jmDNSImpl.isCanceled()) {
                 packet.setLength(buf.length);
-                this._jmDNSImpl.getSocket().receive(packet);
+                this._socket.receive(packet);
                 if (this._jmDNSImpl.isCanceling() || this._jmDNSImpl.isCanceled() || this._jmDNSImpl.isClosing() || this._jmDNSImpl.isClosed()) {
                     break;
                 }
                 try {
-                    if (this._jmDNSImpl.getLocalHost().shouldIgnorePacket(packet)) {
-                        continue;
-                    }
-
-                    DNSIncoming msg = new DNSIncoming(packet);
-                    if (msg.isValidResponseCode()) {
-                        if (logger.isLoggable(Level.FINEST)) {
-                            logger.finest(this.getName() + ".run() JmDNS in:" + msg.print(true));
-                        }
-                        if (msg.isQuery()) {
-                            if (packet.getPort() != DNSConstants.MDNS_PORT) {
-                                this._jmDNSImpl.handleQuery(msg, packet.getAddress(), packet.getPort());
-                            }
-                            this._jmDNSImpl.handleQuery(msg, this._jmDNSImpl.getGroup(), DNSConstants.MDNS_PORT);
-                        } else {
-                            this._jmDNSImpl.handleResponse(msg);
-                        }
-                    } else {
-                        if (logger.isLoggable(Level.FINE)) {
-                            logger.fine(this.getName() + ".run() JmDNS in message with error code:" + msg.print(true));
-                        }
-                    }
+                    this._jmDNSImpl.packetReceived(packet);
                 } catch (IOException e) {
                     logger.log(Level.WARNING, this.getName() + ".run() exception ", e);
                 }
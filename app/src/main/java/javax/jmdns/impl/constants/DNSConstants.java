@@ -50,6 +50,7 @@ public final class DNSConstants {
     public static final int    PROBE_THROTTLE_COUNT_INTERVAL  = 5000;                                                         // We only increment the throttle count, if the previous increment is inside this interval.
     public static final int    ANNOUNCE_WAIT_INTERVAL         = 1000;                                                         // milliseconds between Announce loops.
     public static final int    RECORD_REAPER_INTERVAL         = 10000;                                                        // milliseconds between cache cleanups.
+    public static final int    RECORD_REFRESH_INTERVAL        = 1000;                                                         // milliseconds between checks for records to refresh.
     public static final int    RECORD_EXPIRY_DELAY            = 1;                                                            // This is 1s delay used in ttl and therefore in seconds
     public static final int    KNOWN_ANSWER_TTL               = 120;
     public static final int    ANNOUNCED_RENEWAL_TTL_INTERVAL = DNS_TTL * 500;                                                // 50% of the TTL in milliseconds
@@ -59,4 +60,20 @@ public final class DNSConstants {
 
     public static final int    NETWORK_CHECK_INTERVAL         = 10 * 1000;                                                    // 10 secondes
 
+    public static final int    CACHE_MAX_ENTRIES              = Integer.parseInt(System.getProperty("net.mdns.cache.maxEntries", "0"));       // maximum number of cached records, 0 is unbounded
+    public static final long   CACHE_MAX_BYTES                = Long.parseLong(System.getProperty("net.mdns.cache.maxBytes", "0"));           // maximum approximate memory used by cached records, 0 is unbounded
+    public static final String CACHE_SNAPSHOT_DIRECTORY       = System.getProperty("net.mdns.cache.snapshot", "");                            // directory of the warm start cache snapshots, empty disables them
+    public static final int    DUPLICATE_PACKET_WINDOW        = Integer.parseInt(System.getProperty("net.mdns.duplicate.window", "1500"));    // milliseconds during which a repeated response from the same source is ignored, 0 disables it
+    public static final int    NAME_POOL_SIZE                 = Integer.parseInt(System.getProperty("net.mdns.names.poolSize", "4096"));      // number of names, labels and service types shared between the records
+    public static final boolean SELECTOR_RECEIVE              = Boolean.parseBoolean(System.getProperty("net.mdns.selector", "false"));       // receive on non blocking channels serviced by one thread shared by all instances
+    public static final int    PACKET_QUEUE_SIZE              = Integer.parseInt(System.getProperty("net.mdns.queue.size", "0"));             // datagrams received and waiting to be processed, 0 processes them on the receiving thread
+    public static final boolean PACKET_QUEUE_BLOCKING         = Boolean.parseBoolean(System.getProperty("net.mdns.queue.blocking", "false")); // the receiving thread waits when the queue is full instead of dropping the datagram
+    public static final int    RECORD_WORKERS                 = Integer.parseInt(System.getProperty("net.mdns.workers", "0"));                // threads handling the incoming records striped by name, 0 handles them on the processing thread
+    public static final boolean DUAL_STACK                    = Boolean.parseBoolean(System.getProperty("net.mdns.dualstack", "false"));      // join the IPv4 and IPv6 groups on the interface with one instance
+    public static final boolean QUERY_UNICAST_RESPONSE        = Boolean.parseBoolean(System.getProperty("net.mdns.query.qu", "true"));        // the first query of a resolver asks for unicast responses
+    public static final int    SOURCE_RATE_LIMIT              = Integer.parseInt(System.getProperty("net.mdns.limit.source.rate", "0"));      // datagrams per second accepted from a source address, 0 disables the limit
+    public static final int    SOURCE_RATE_BURST              = Integer.parseInt(System.getProperty("net.mdns.limit.source.burst", "200"));   // datagrams accepted at once from a quiet source address
+    public static final int    QUESTION_RATE_LIMIT            = Integer.parseInt(System.getProperty("net.mdns.limit.question.rate", "0"));    // queries per second answered for a question name, 0 disables the limit
+    public static final int    QUESTION_RATE_BURST            = Integer.parseInt(System.getProperty("net.mdns.limit.question.burst", "20"));  // queries answered at once for a quiet question name
+
 }
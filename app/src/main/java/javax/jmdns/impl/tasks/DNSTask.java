@@ -10,10 +10,12 @@ import javax.jmdns.impl.DNSOutgoing;
 import javax.jmdns.impl.DNSQuestion;
 import javax.jmdns.impl.DNSRecord;
 import javax.jmdns.impl.JmDNSImpl;
-import javax.jmdns.impl.constants.DNSConstants;
 
 /**
  * This is the root class for all task scheduled by the timer in JmDNS.
+ * <p>
+ * The messages built by the tasks may grow larger than a datagram, they are split when they are sent.
+ * </p>
  * 
  * @author Pierre Frisch
  */
@@ -76,23 +78,8 @@ public abstract class DNSTask extends TimerTask {
      * @exception IOException
      */
     public DNSOutgoing addQuestion(DNSOutgoing out, DNSQuestion rec) throws IOException {
-        DNSOutgoing newOut = out;
-        try {
-            newOut.addQuestion(rec);
-        } catch (final IOException e) {
-            int flags = newOut.getFlags();
-            boolean multicast = newOut.isMulticast();
-            int maxUDPPayload = newOut.getMaxUDPPayload();
-            int id = newOut.getId();
-
-            newOut.setFlags(flags | DNSConstants.FLAGS_TC);
-            newOut.setId(id);
-            this._jmDNSImpl.send(newOut);
-
-            newOut = new DNSOutgoing(flags, multicast, maxUDPPayload);
-            newOut.addQuestion(rec);
-        }
-        return newOut;
+        out.addQuestion(rec);
+        return out;
     }
 
     /**
@@ -108,23 +95,8 @@ public abstract class DNSTask extends TimerTask {
      * @exception IOException
      */
     public DNSOutgoing addAnswer(DNSOutgoing out, DNSIncoming in, DNSRecord rec) throws IOException {
-        DNSOutgoing newOut = out;
-        try {
-            newOut.addAnswer(in, rec);
-        } catch (final IOException e) {
-            int flags = newOut.getFlags();
-            boolean multicast = newOut.isMulticast();
-            int maxUDPPayload = newOut.getMaxUDPPayload();
-            int id = newOut.getId();
-
-            newOut.setFlags(flags | DNSConstants.FLAGS_TC);
-            newOut.setId(id);
-            this._jmDNSImpl.send(newOut);
-
-            newOut = new DNSOutgoing(flags, multicast, maxUDPPayload);
-            newOut.addAnswer(in, rec);
-        }
-        return newOut;
+        out.addAnswer(in, rec);
+        return out;
     }
 
     /**
@@ -139,23 +111,8 @@ public abstract class DNSTask extends TimerTask {
      * @exception IOException
      */
     public DNSOutgoing addAnswer(DNSOutgoing out, DNSRecord rec, long now) throws IOException {
-        DNSOutgoing newOut = out;
-        try {
-            newOut.addAnswer(rec, now);
-        } catch (final IOException e) {
-            int flags = newOut.getFlags();
-            boolean multicast = newOut.isMulticast();
-            int maxUDPPayload = newOut.getMaxUDPPayload();
-            int id = newOut.getId();
-
-            newOut.setFlags(flags | DNSConstants.FLAGS_TC);
-            newOut.setId(id);
-            this._jmDNSImpl.send(newOut);
-
-            newOut = new DNSOutgoing(flags, multicast, maxUDPPayload);
-            newOut.addAnswer(rec, now);
-        }
-        return newOut;
+        out.addAnswer(rec, now);
+        return out;
     }
 
     /**
@@ -169,27 +126,12 @@ public abstract class DNSTask extends TimerTask {
      * @exception IOException
      */
     public DNSOutgoing addAuthoritativeAnswer(DNSOutgoing out, DNSRecord rec) throws IOException {
-        DNSOutgoing newOut = out;
-        try {
-            newOut.addAuthorativeAnswer(rec);
-        } catch (final IOException e) {
-            int flags = newOut.getFlags();
-            boolean multicast = newOut.isMulticast();
-            int maxUDPPayload = newOut.getMaxUDPPayload();
-            int id = newOut.getId();
-
-            newOut.setFlags(flags | DNSConstants.FLAGS_TC);
-            newOut.setId(id);
-            this._jmDNSImpl.send(newOut);
-
-            newOut = new DNSOutgoing(flags, multicast, maxUDPPayload);
-            newOut.addAuthorativeAnswer(rec);
-        }
-        return newOut;
+        out.addAuthorativeAnswer(rec);
+        return out;
     }
 
     /**
-     * Add an additional answer to the record. Omit if there is no room.
+     * Add an additional answer to the record. It is omitted if there is no room when the message is split.
      * 
      * @param out
      *            outgoing message
@@ -201,23 +143,8 @@ public abstract class DNSTask extends TimerTask {
      * @exception IOException
      */
     public DNSOutgoing addAdditionalAnswer(DNSOutgoing out, DNSIncoming in, DNSRecord rec) throws IOException {
-        DNSOutgoing newOut = out;
-        try {
-            newOut.addAdditionalAnswer(in, rec);
-        } catch (final IOException e) {
-            int flags = newOut.getFlags();
-            boolean multicast = newOut.isMulticast();
-            int maxUDPPayload = newOut.getMaxUDPPayload();
-            int id = newOut.getId();
-
-            newOut.setFlags(flags | DNSConstants.FLAGS_TC);
-            newOut.setId(id);
-            this._jmDNSImpl.send(newOut);
-
-            newOut = new DNSOutgoing(flags, multicast, maxUDPPayload);
-            newOut.addAdditionalAnswer(in, rec);
-        }
-        return newOut;
+        out.addAdditionalAnswer(in, rec);
+        return out;
     }
 
 }
@@ -0,0 +1,78 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl.tasks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Timer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jmdns.impl.DNSOutgoing;
+import javax.jmdns.impl.DNSQuestion;
+import javax.jmdns.impl.DNSRecord;
+import javax.jmdns.impl.JmDNSImpl;
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordClass;
+
+/**
+ * Periodically queries the cached records which are getting close to their expiration, as described in RFC 6762 section 5.2. Only the records someone is interested in are queried, the questions due at the same time are sent in one
+ * message.
+ */
+public class RecordRefresher extends DNSTask {
+    static Logger logger = Logger.getLogger(RecordRefresher.class.getName());
+
+    /**
+     * @param jmDNSImpl
+     */
+    public RecordRefresher(JmDNSImpl jmDNSImpl) {
+        super(jmDNSImpl);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.jmdns.impl.tasks.DNSTask#getName()
+     */
+    @Override
+    public String getName() {
+        return "RecordRefresher(" + (this.getDns() != null ? this.getDns().getName() : "") + ")";
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see javax.jmdns.impl.tasks.DNSTask#start(java.util.Timer)
+     */
+    @Override
+    public void start(Timer timer) {
+        if (!this.getDns().isCanceling() && !this.getDns().isCanceled()) {
+            timer.schedule(this, DNSConstants.RECORD_REFRESH_INTERVAL, DNSConstants.RECORD_REFRESH_INTERVAL);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (this.getDns().isCanceling() || this.getDns().isCanceled()) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_QUERY);
+            Set<String> asked = new HashSet<String>();
+            for (DNSRecord record : this.getDns().getCache().getRefreshDueEntries(now)) {
+                if (this.getDns().needsRefresh(record) && asked.add(record.getKey() + ":" + record.getRecordType())) {
+                    out = this.addQuestion(out, DNSQuestion.newQuestion(record.getName(), record.getRecordType(), record.getRecordClass(), DNSRecordClass.NOT_UNIQUE));
+                }
+            }
+            if (!out.isEmpty()) {
+                if (logger.isLoggable(Level.FINER)) {
+                    logger.finer(this.getName() + ".run() JmDNS refreshing " + asked.size() + " records");
+                }
+                this.getDns().send(out);
+            }
+        } catch (Throwable e) {
+            logger.log(Level.WARNING, this.getName() + ".run() exception ", e);
+            this.getDns().recover();
+        }
+    }
+
+}
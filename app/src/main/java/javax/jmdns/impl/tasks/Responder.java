@@ -4,7 +4,13 @@
 
 package javax.jmdns.impl.tasks;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.Timer;
 import java.util.logging.Level;
@@ -19,6 +25,14 @@ import javax.jmdns.impl.constants.DNSConstants;
 
 /**
  * The Responder sends a single answer for the specified service infos and for the host name.
+ * <p>
+ * The multicast queries received while a delayed multicast answer is planned are merged into it, so that the peers browsing at the same time get a single response. Known answer suppression is applied per query: a record is
+ * left out only if none of the queries asking for it is missing it.
+ * </p>
+ * <p>
+ * The questions asking for a unicast response (QU) are answered by unicast with the records multicast within a quarter of their TTL, the other records are multicast so that the caches of the peers stay up to date (RFC 6762
+ * section 5.4). The legacy queries, sent from another port than the mDNS one, are answered by unicast to their port.
+ * </p>
  */
 public class Responder extends DNSTask {
     static Logger             logger = Logger.getLogger(Responder.class.getName());
@@ -33,10 +47,97 @@ public class Responder extends DNSTask {
      */
     private final boolean     _unicast;
 
+    private final int         _port;
+
+    /**
+     * True if some questions of the query ask for a unicast response.
+     */
+    private final boolean     _unicastRequested;
+
+    /**
+     * Queries merged into this response, guarded by the JmDNS io lock until the response is sent.
+     */
+    private List<DNSIncoming> _merged;
+
+    /**
+     * False once the response is sent or cancelled, no query is merged into it then. Guarded by the JmDNS io lock.
+     */
+    private boolean           _merging;
+
+    /**
+     * Time the delayed response is scheduled at.
+     */
+    private volatile long     _plannedTime;
+
     public Responder(JmDNSImpl jmDNSImpl, DNSIncoming in, int port) {
         super(jmDNSImpl);
         this._in = in;
         this._unicast = (port != DNSConstants.MDNS_PORT);
+        this._port = port;
+        boolean unicastRequested = false;
+        if (!_unicast) {
+            for (DNSQuestion question : in.getQuestions()) {
+                unicastRequested |= question.isUnique();
+            }
+        }
+        this._unicastRequested = unicastRequested;
+        this._merging = true;
+    }
+
+    /**
+     * Only the delayed multicast responses to complete queries not asking for unicast responses are merged.
+     */
+    private boolean isMergeable() {
+        return !_unicast && !_unicastRequested && !_in.isTruncated();
+    }
+
+    /**
+     * Merge the query of another responder into this response. The query is not merged if this response is sent before the minimum delay of the query. Must be called with the JmDNS io lock held.
+     *
+     * @param responder
+     *            responder not started yet
+     * @return <code>true</code> if the query will be answered by this response
+     */
+    public boolean merge(Responder responder) {
+        if (!_merging || !this.isMergeable() || !responder.isMergeable()) {
+            return false;
+        }
+        long earliest = System.currentTimeMillis() - responder._in.elapseSinceArrival() + DNSConstants.RESPONSE_MIN_WAIT_INTERVAL;
+        if (_plannedTime < earliest) {
+            return false;
+        }
+        if (_merged == null) {
+            _merged = new ArrayList<DNSIncoming>();
+        }
+        _merged.add(responder._in);
+        return true;
+    }
+
+    /**
+     * Stop merging queries into this response. Must be called with the JmDNS io lock held.
+     *
+     * @return the queries merged so far or <code>null</code>
+     */
+    public List<DNSIncoming> stopMerging() {
+        _merging = false;
+        return _merged;
+    }
+
+    /**
+     * @return <code>true</code> if queries can still be merged into this response. Must be called with the JmDNS io lock held.
+     */
+    public boolean isMerging() {
+        return _merging;
+    }
+
+    /**
+     * A cancelled response is no longer planned, the queries received afterwards get their own response.
+     */
+    @Override
+    public boolean cancel() {
+        boolean result = super.cancel();
+        this.getDns().clearPlannedResponse(this);
+        return result;
     }
 
     /*
@@ -88,6 +189,19 @@ public class Responder extends DNSTask {
             logger.finest(this.getName() + "start() Responder chosen delay=" + delay);
         }
         if (!this.getDns().isCanceling() && !this.getDns().isCanceled()) {
+            if ((delay > 0) && this.isMergeable()) {
+                if (this.getDns().mergePlannedResponse(this)) {
+                    if (logger.isLoggable(Level.FINEST)) {
+                        logger.finest(this.getName() + "start() Responder merged into the planned response");
+                    }
+                    return;
+                }
+                _plannedTime = System.currentTimeMillis() + delay;
+                timer.schedule(this, delay);
+                // Only a response which will run takes the queries received meanwhile
+                this.getDns().planResponse(this);
+                return;
+            }
             timer.schedule(this, delay);
         }
     }
@@ -95,6 +209,7 @@ public class Responder extends DNSTask {
     @Override
     public void run() {
         this.getDns().respondToQuery(_in);
+        List<DNSIncoming> merged = this.getDns().clearPlannedResponse(this);
 
         // We use these sets to prevent duplicate records
         Set<DNSQuestion> questions = new HashSet<DNSQuestion>();
@@ -102,38 +217,63 @@ public class Responder extends DNSTask {
 
         if (this.getDns().isAnnounced()) {
             try {
-                // Answer questions
-                for (DNSQuestion question : _in.getQuestions()) {
-                    if (logger.isLoggable(Level.FINER)) {
-                        logger.finer(this.getName() + "run() JmDNS responding to: " + question);
-                    }
-                    // for unicast responses the question must be included
-                    if (_unicast) {
-                        // out.addQuestion(q);
-                        questions.add(question);
+                long now = System.currentTimeMillis();
+                int udpPayload = _in.getSenderUDPPayload();
+                Set<DNSRecord> unicastAnswers = (_unicastRequested ? new HashSet<DNSRecord>() : null);
+                this.addAnswers(_in, questions, answers, unicastAnswers, now);
+                if (merged != null) {
+                    for (DNSIncoming in : merged) {
+                        this.addAnswers(in, questions, answers, null, now);
+                        udpPayload = Math.min(udpPayload, in.getSenderUDPPayload());
                     }
-
-                    question.addAnswers(this.getDns(), answers);
                 }
 
-                // remove known answers, if the ttl is at least half of the correct value. (See Draft Cheshire chapter 7.1.).
-                long now = System.currentTimeMillis();
-                for (DNSRecord knownAnswer : _in.getAnswers()) {
-                    if (knownAnswer.isStale(now)) {
-                        answers.remove(knownAnswer);
+                // answer by unicast the records the peers have seen recently
+                if (unicastAnswers != null) {
+                    for (Iterator<DNSRecord> i = unicastAnswers.iterator(); i.hasNext();) {
+                        DNSRecord answer = i.next();
+                        if (answers.contains(answer) && this.getDns().wasRecentlyMulticast(answer, _in.getSource())) {
+                            answers.remove(answer);
+                        } else {
+                            i.remove();
+                        }
+                    }
+                    if (!unicastAnswers.isEmpty()) {
                         if (logger.isLoggable(Level.FINER)) {
-                            logger.finer(this.getName() + "JmDNS Responder Known Answer Removed");
+                            logger.finer(this.getName() + "run() JmDNS responding by unicast to " + _in.getSource());
+                        }
+                        DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, true, udpPayload);
+                        out.setDestination(new InetSocketAddress(_in.getSource(), DNSConstants.MDNS_PORT));
+                        for (DNSRecord answer : unicastAnswers) {
+                            out = this.addAnswer(out, null, answer);
                         }
+                        this.sendUnicast(out);
                     }
                 }
 
                 // respond if we have answers
                 if (!answers.isEmpty()) {
                     if (logger.isLoggable(Level.FINER)) {
-                        logger.finer(this.getName() + "run() JmDNS responding");
+                        logger.finer(this.getName() + "run() JmDNS responding" + (merged != null ? " to " + (merged.size() + 1) + " queries" : ""));
+                    }
+                    DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, !_unicast, udpPayload);
+                    out.setId(merged != null ? 0 : _in.getId());
+                    if (_unicast) {
+                        out.setDestination(new InetSocketAddress(_in.getSource(), _port));
+                    } else {
+                        // with both IP families the response goes to the group of the queriers only
+                        InetAddress group = this.getDns().getGroupFor(_in.getSource());
+                        if (merged != null) {
+                            for (DNSIncoming in : merged) {
+                                if ((group != null) && !group.equals(this.getDns().getGroupFor(in.getSource()))) {
+                                    group = null;
+                                }
+                            }
+                        }
+                        if (group != null) {
+                            out.setDestination(new InetSocketAddress(group, DNSConstants.MDNS_PORT));
+                        }
                     }
-                    DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, !_unicast, _in.getSenderUDPPayload());
-                    out.setId(_in.getId());
                     for (DNSQuestion question : questions) {
                         if (question != null) {
                             out = this.addQuestion(out, question);
@@ -141,11 +281,18 @@ public class Responder extends DNSTask {
                     }
                     for (DNSRecord answer : answers) {
                         if (answer != null) {
-                            out = this.addAnswer(out, _in, answer);
+                            // the answers suppressed by the known answers of their query are already removed
+                            out = this.addAnswer(out, null, answer);
 
                         }
                     }
-                    if (!out.isEmpty()) this.getDns().send(out);
+                    if (!out.isEmpty()) {
+                        if (_unicast) {
+                            this.sendUnicast(out);
+                        } else {
+                            this.getDns().send(out);
+                        }
+                    }
                 }
                 // this.cancel();
             } catch (Throwable e) {
@@ -154,4 +301,57 @@ public class Responder extends DNSTask {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Send a response to the querier, which may not be reachable. This is no reason to stop JmDNS.
+     */
+    private void sendUnicast(DNSOutgoing out) {
+        try {
+            this.getDns().send(out);
+        } catch (IOException e) {
+            logger.log(Level.FINE, this.getName() + "run() unicast response to " + out.getDestination() + " exception ", e);
+        }
+    }
+
+    /**
+     * Add the answers to the questions of a query, less the ones it already knows. The answers only asked for by the questions requesting a unicast response are also added to the unicast answers.
+     */
+    private void addAnswers(DNSIncoming in, Set<DNSQuestion> questions, Set<DNSRecord> answers, Set<DNSRecord> unicastAnswers, long now) {
+        Set<DNSRecord> queryAnswers = new HashSet<DNSRecord>();
+        Set<DNSRecord> requested = (unicastAnswers != null ? new HashSet<DNSRecord>() : null);
+        // Answer questions
+        for (DNSQuestion question : in.getQuestions()) {
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer(this.getName() + "run() JmDNS responding to: " + question);
+            }
+            // for unicast responses the question must be included
+            if (_unicast) {
+                // out.addQuestion(q);
+                questions.add(question);
+            }
+
+            question.addAnswers(this.getDns(), ((requested != null) && question.isUnique()) ? requested : queryAnswers);
+        }
+        if (requested != null) {
+            // a record also asked for by a multicast question is multicast
+            requested.removeAll(queryAnswers);
+            unicastAnswers.addAll(requested);
+            queryAnswers.addAll(requested);
+        }
+
+        // remove known answers, if the ttl is at least half of the correct value. (See Draft Cheshire chapter 7.1.).
+        for (DNSRecord knownAnswer : in.getAnswers()) {
+            if (knownAnswer.isStale(now)) {
+                queryAnswers.remove(knownAnswer);
+                if (logger.isLoggable(Level.FINER)) {
+                    logger.finer(this.getName() + "JmDNS Responder Known Answer Removed");
+                }
+            }
+        }
+        for (DNSRecord answer : queryAnswers) {
+            if (!answer.suppressedBy(in)) {
+                answers.add(answer);
+            }
+        }
+    }
+}
@@ -95,6 +95,15 @@ public abstract class DNSResolverTask extends DNSTask {
      */
     protected abstract DNSOutgoing addQuestions(DNSOutgoing out) throws IOException;
 
+    /**
+     * Returns if the questions being added should ask for a unicast response (QU). Only the first query does, as RFC 6762 section 5.4 recommends, the next ones ask for multicast responses so that the peers learn from them too.
+     *
+     * @return <code>true</code> if the questions should ask for a unicast response
+     */
+    protected boolean isUnicastResponseRequested() {
+        return DNSConstants.QUERY_UNICAST_RESPONSE && (_count == 1);
+    }
+
     /**
      * Overridden by subclasses to add questions to the message.<br/>
      * <b>Note:</b> Because of message size limitation the returned message may be different than the message parameter.
@@ -0,0 +1,97 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl.util;
+
+/**
+ * Bounded pool of canonical strings. Equal strings interned through the pool are usually the same instance, so that they do not use memory twice and compare by identity.
+ * <p>
+ * The pool is a direct mapped table: a string replaces the one in its slot, so the pool never holds more than its size and a string may be returned as a new instance after it has been pushed out. The slots are updated without
+ * locking, strings are immutable and safe to share between threads.
+ * </p>
+ */
+public final class InternPool {
+
+    private final String[] _strings;
+
+    private final int      _mask;
+
+    /**
+     * @param size
+     *            maximum number of strings kept, rounded up to a power of 2
+     */
+    public InternPool(int size) {
+        super();
+        int capacity = 16;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        _strings = new String[capacity];
+        _mask = capacity - 1;
+    }
+
+    /**
+     * Returns the canonical instance of the string.
+     *
+     * @param string
+     *            string to intern, may be <code>null</code>
+     * @return pooled string equal to <code>string</code>
+     */
+    public String intern(String string) {
+        if (string == null) {
+            return null;
+        }
+        int slot = spread(string.hashCode()) & _mask;
+        String pooled = _strings[slot];
+        if (string.equals(pooled)) {
+            return pooled;
+        }
+        _strings[slot] = string;
+        return string;
+    }
+
+    /**
+     * Returns the canonical instance of the string held by the characters. No string is created if it is already in the pool.
+     *
+     * @param chars
+     *            characters of the string
+     * @param offset
+     *            index of the first character
+     * @param length
+     *            number of characters
+     * @return pooled string
+     */
+    public String intern(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = spread(hash) & _mask;
+        String pooled = _strings[slot];
+        if ((pooled != null) && (pooled.length() == length)) {
+            int i = 0;
+            while ((i < length) && (pooled.charAt(i) == chars[offset + i])) {
+                i++;
+            }
+            if (i == length) {
+                return pooled;
+            }
+        }
+        String string = new String(chars, offset, length);
+        _strings[slot] = string;
+        return string;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Empties the pool.
+     */
+    public void clear() {
+        for (int i = 0; i < _strings.length; i++) {
+            _strings[i] = null;
+        }
+    }
+
+}
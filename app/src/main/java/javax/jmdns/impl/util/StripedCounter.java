@@ -0,0 +1,75 @@
+// Licensed under Apache License version 2.0
+
+package javax.jmdns.impl.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading its updates over several cells so that threads counting at the same time do not contend on a single value. Reading the counter sums the cells and is therefore more expensive than updating it.
+ */
+public final class StripedCounter {
+    /**
+     * Distance between two cells in longs, keeps the cells in different cache lines.
+     */
+    private static final int      PADDING = 8;
+
+    private static final int      STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray _cells;
+
+    /**
+     * Creates a counter starting at 0.
+     */
+    public StripedCounter() {
+        super();
+        _cells = new AtomicLongArray(STRIPES * PADDING);
+    }
+
+    private static int stripes(int processors) {
+        int stripes = 1;
+        while ((stripes < processors * 2) && (stripes < 64)) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * Adds 1 to the counter.
+     */
+    public void increment() {
+        this.add(1L);
+    }
+
+    /**
+     * Adds a value to the counter.
+     *
+     * @param value
+     *            value to add
+     */
+    public void add(long value) {
+        int cell = ((int) Thread.currentThread().getId()) & (STRIPES - 1);
+        _cells.addAndGet(cell * PADDING, value);
+    }
+
+    /**
+     * Returns the current value. Updates made while the cells are summed may or may not be included.
+     *
+     * @return current value
+     */
+    public long sum() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += _cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return Long.toString(this.sum());
+    }
+
+}
@@ -0,0 +1,99 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import javax.jmdns.impl.constants.DNSRecordClass;
+
+import org.junit.Test;
+
+/**
+ * Compares the record reaper pass over the deadline queue of the cache with the full sweep of the cache it replaced, at 1k, 10k and 100k cached records. This is a timing harness, it only runs when the <code>jmdns.benchmark</code>
+ * system property is set:
+ *
+ * <pre>
+ * ./gradlew testDebugUnitTest -Pbenchmark --tests javax.jmdns.impl.DNSCacheReaperBenchmark
+ * </pre>
+ */
+public class DNSCacheReaperBenchmark {
+
+    private static final int[] SIZES      = { 1000, 10000, 100000 };
+
+    private static final int   ITERATIONS = 50;
+
+    /**
+     * One in that many records has a short TTL and is due when the cache is reaped.
+     */
+    private static final int   SHORT_TTL  = 100;
+
+    @Test
+    public void reaperPass() {
+        assumeTrue(Boolean.getBoolean("jmdns.benchmark"));
+        for (int size : SIZES) {
+            long now = System.currentTimeMillis();
+            DNSCache cache = fill(size);
+
+            // A tick of the reaper with nothing due, the common case
+            long sweep = Long.MAX_VALUE;
+            long due = Long.MAX_VALUE;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                int found = sweep(cache, now).size();
+                sweep = Math.min(sweep, System.nanoTime() - start);
+                assertEquals(0, found);
+
+                start = System.nanoTime();
+                found = cache.getDueEntries(now).size();
+                due = Math.min(due, System.nanoTime() - start);
+                assertEquals(0, found);
+            }
+
+            // A tick once the short TTL records are stale, both must find the same records
+            long later = now + 60 * 1000;
+            long start = System.nanoTime();
+            Set<DNSEntry> expected = sweep(cache, later);
+            long sweepDue = System.nanoTime() - start;
+            start = System.nanoTime();
+            Collection<DNSEntry> actual = cache.getDueEntries(later);
+            long dueDue = System.nanoTime() - start;
+            assertEquals(size / SHORT_TTL, expected.size());
+            assertEquals(expected, identitySet(actual));
+
+            System.out.println(String.format("%6d records: nothing due sweep %8.3f ms, deadlines %8.3f ms; %d due sweep %8.3f ms, deadlines %8.3f ms", size, sweep / 1e6, due / 1e6, expected.size(), sweepDue / 1e6, dueDue / 1e6));
+        }
+    }
+
+    private static DNSCache fill(int size) {
+        DNSCache cache = new DNSCache();
+        for (int i = 0; i < size; i++) {
+            int ttl = (i % SHORT_TTL == 0 ? 100 : 4500);
+            cache.addDNSEntry(new DNSRecord.Text("node" + i + "._mesh._tcp.local.", DNSRecordClass.CLASS_IN, true, ttl, new byte[] { 0 }));
+        }
+        return cache;
+    }
+
+    /**
+     * The reaper pass before the deadline queue: check every cached record.
+     */
+    private static Set<DNSEntry> sweep(DNSCache cache, long now) {
+        Set<DNSEntry> result = Collections.newSetFromMap(new IdentityHashMap<DNSEntry, Boolean>());
+        for (DNSEntry entry : cache.allValues()) {
+            if (entry.isExpired(now) || entry.isStale(now)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private static Set<DNSEntry> identitySet(Collection<DNSEntry> entries) {
+        Set<DNSEntry> result = Collections.newSetFromMap(new IdentityHashMap<DNSEntry, Boolean>());
+        result.addAll(entries);
+        return result;
+    }
+
+}
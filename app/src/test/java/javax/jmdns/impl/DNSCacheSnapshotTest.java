@@ -0,0 +1,211 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordClass;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the records saved by {@link DNSCacheSnapshot} come back as they were, and that a damaged snapshot is rejected.
+ */
+public class DNSCacheSnapshotTest {
+
+    private static final String HTTP = "_http._tcp.local.";
+
+    private File                _file;
+
+    @Before
+    public void setUp() throws IOException {
+        _file = File.createTempFile("jmdns-cache", ".snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        _file.delete();
+        new File(_file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void restoresRecordsAsSaved() throws IOException {
+        List<DNSRecord> records = records();
+        DNSCache cache = new DNSCache();
+        for (DNSRecord record : records) {
+            cache.addDNSEntry(record);
+        }
+        // Expired records are not saved
+        DNSRecord expired = new DNSRecord.IPv4Address("gone.local.", DNSRecordClass.CLASS_IN, true, 120, InetAddress.getByName("192.0.2.99"));
+        expired.restoreTTL(120, System.currentTimeMillis() - 1000);
+        cache.addDNSEntry(expired);
+
+        assertEquals(records.size(), DNSCacheSnapshot.write(cache, _file));
+        Collection<DNSRecord> restored = DNSCacheSnapshot.read(_file);
+        assertEquals(records.size(), restored.size());
+        for (DNSRecord record : records) {
+            assertRestored(record, restored);
+        }
+
+        DNSCache restoredCache = new DNSCache();
+        assertEquals(records.size(), DNSCacheSnapshot.restore(restoredCache, _file));
+        for (DNSRecord record : records) {
+            assertNotNull(record.toString(), restoredCache.getDNSEntry(record));
+        }
+        // Records already cached are kept
+        assertEquals(0, DNSCacheSnapshot.restore(restoredCache, _file));
+    }
+
+    @Test
+    public void skipsRecordsExpiredSinceSaved() throws IOException, InterruptedException {
+        DNSCache cache = new DNSCache();
+        DNSRecord shortLived = new DNSRecord.IPv4Address("brief.local.", DNSRecordClass.CLASS_IN, true, 120, InetAddress.getByName("192.0.2.98"));
+        shortLived.restoreTTL(120, System.currentTimeMillis() + 100);
+        cache.addDNSEntry(shortLived);
+        DNSRecord lasting = new DNSRecord.IPv4Address("printer.local.", DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, InetAddress.getByName("192.0.2.10"));
+        cache.addDNSEntry(lasting);
+
+        assertEquals(2, DNSCacheSnapshot.write(cache, _file));
+        Thread.sleep(200);
+        Collection<DNSRecord> restored = DNSCacheSnapshot.read(_file);
+        assertEquals(1, restored.size());
+        assertRestored(lasting, restored);
+    }
+
+    @Test
+    public void replacesPreviousSnapshot() throws IOException {
+        DNSCache cache = new DNSCache();
+        for (DNSRecord record : records()) {
+            cache.addDNSEntry(record);
+        }
+        DNSCacheSnapshot.write(cache, _file);
+        DNSCache smaller = new DNSCache();
+        smaller.addDNSEntry(new DNSRecord.IPv4Address("printer.local.", DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, InetAddress.getByName("192.0.2.10")));
+        assertEquals(1, DNSCacheSnapshot.write(smaller, _file));
+        assertEquals(1, DNSCacheSnapshot.read(_file).size());
+        assertFalse(new File(_file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void rejectsTruncatedSnapshot() throws IOException {
+        DNSCache cache = new DNSCache();
+        for (DNSRecord record : records()) {
+            cache.addDNSEntry(record);
+        }
+        DNSCacheSnapshot.write(cache, _file);
+        byte[] data = readFile(_file);
+        Logger logger = Logger.getLogger(DNSCacheSnapshot.class.getName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.OFF);
+        try {
+            for (int length = 0; length < data.length; length++) {
+                writeFile(_file, data, length);
+                assertRejected("snapshot truncated to " + length + " bytes");
+                assertEquals(0, DNSCacheSnapshot.restore(new DNSCache(), _file));
+            }
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    @Test
+    public void rejectsBadMagic() throws IOException {
+        DNSCache cache = new DNSCache();
+        for (DNSRecord record : records()) {
+            cache.addDNSEntry(record);
+        }
+        DNSCacheSnapshot.write(cache, _file);
+        byte[] data = readFile(_file);
+        data[0] ^= 0x20;
+        writeFile(_file, data, data.length);
+        assertRejected("snapshot with a bad magic");
+    }
+
+    @Test
+    public void readsNothingWithoutSnapshot() throws IOException {
+        _file.delete();
+        assertTrue(DNSCacheSnapshot.read(_file).isEmpty());
+    }
+
+    /**
+     * A record of each type saved, with shared and unique records.
+     */
+    private static List<DNSRecord> records() throws IOException {
+        String name = "Printer Web Page." + HTTP;
+        List<DNSRecord> records = new ArrayList<DNSRecord>();
+        records.add(new DNSRecord.IPv4Address("printer.local.", DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, InetAddress.getByName("192.0.2.10")));
+        records.add(new DNSRecord.IPv6Address("printer.local.", DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, InetAddress.getByName("fd00::10")));
+        records.add(new DNSRecord.Pointer(HTTP, DNSRecordClass.CLASS_IN, false, DNSConstants.DNS_TTL, name));
+        records.add(new DNSRecord.Text(name, DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, new byte[] { 9, 't', 'x', 't', 'v', 'e', 'r', 's', '=', '1' }));
+        records.add(new DNSRecord.Service(name, DNSRecordClass.CLASS_IN, true, 120, 1, 2, 631, "printer.local."));
+        return records;
+    }
+
+    private static void assertRestored(DNSRecord expected, Collection<DNSRecord> restored) {
+        for (DNSRecord record : restored) {
+            if (record.equals(expected)) {
+                assertEquals(expected + " class", expected.getClass(), record.getClass());
+                assertEquals(expected + " unique", expected.isUnique(), record.isUnique());
+                assertEquals(expected + " ttl", expected.getTTL(), record.getTTL());
+                assertEquals(expected + " expiration", expected.getExpirationTime(100), record.getExpirationTime(100));
+                return;
+            }
+        }
+        fail(expected + " not restored");
+    }
+
+    private void assertRejected(String message) {
+        try {
+            DNSCacheSnapshot.read(_file);
+            fail(message + " was read");
+        } catch (IOException exception) {
+            // Expected
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count < 0) {
+                    throw new IOException("Short read " + file);
+                }
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static void writeFile(File file, byte[] data, int length) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordClass;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+import org.junit.Test;
+
+/**
+ * Checks the bounded {@link DNSCache}.
+ */
+public class DNSCacheTest {
+
+    private static final int CAPACITY = 10000;
+
+    /**
+     * Entries whose name starts with "keep" are of interest, the policy counts how often it is asked.
+     */
+    private static final class CountingPolicy implements DNSCache.EvictionPolicy {
+        final AtomicInteger _calls = new AtomicInteger();
+
+        @Override
+        public boolean hasInterest(DNSEntry dnsEntry) {
+            _calls.incrementAndGet();
+            return dnsEntry.getName().startsWith("keep");
+        }
+    }
+
+    /**
+     * The lookups by name, by name type and class, and by entry see the same entries after each add, replace and remove.
+     */
+    @Test
+    public void keepsLookupsConsistent() throws Exception {
+        DNSCache cache = new DNSCache();
+        String name = "Printer._http._tcp.local.";
+        DNSRecord text = text("Printer", "txtvers=1");
+        DNSRecord service = new DNSRecord.Service(name, DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, 0, 0, 80, "printer.local.");
+        DNSRecord address = new DNSRecord.IPv4Address("printer.local.", DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, InetAddress.getByName("192.0.2.10"));
+        cache.addDNSEntry(text);
+        cache.addDNSEntry(service);
+        cache.addDNSEntry(address);
+
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(2, cache.getDNSEntryList(name).size());
+        assertSame(text, cache.getDNSEntry(name, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_IN));
+        assertSame(text, cache.getDNSEntry(name, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_ANY));
+        assertSame(service, cache.getDNSEntry(name, DNSRecordType.TYPE_SRV, DNSRecordClass.CLASS_IN));
+        assertSame(service, cache.getDNSEntry(service));
+        assertNull(cache.getDNSEntry(name, DNSRecordType.TYPE_A, DNSRecordClass.CLASS_IN));
+        assertSame(address, cache.getDNSEntry("printer.local.", DNSRecordType.TYPE_A, DNSRecordClass.CLASS_IN));
+        assertContainsOnly(cache.getDNSEntryList(name, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_IN), text);
+
+        DNSRecord newText = text("Printer", "txtvers=2");
+        assertTrue(cache.replaceDNSEntry(newText, text));
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(2, cache.getDNSEntryList(name).size());
+        assertFalse(containsInstance(cache.getDNSEntryList(name), text));
+        assertTrue(containsInstance(cache.getDNSEntryList(name), newText));
+        assertSame(newText, cache.getDNSEntry(name, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_IN));
+        assertContainsOnly(cache.getDNSEntryList(name, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_IN), newText);
+
+        assertTrue(cache.removeDNSEntry(service));
+        assertFalse(cache.removeDNSEntry(service));
+        assertEquals(2, cache.getEntryCount());
+        assertContainsOnly(cache.getDNSEntryList(name), newText);
+        assertNull(cache.getDNSEntry(name, DNSRecordType.TYPE_SRV, DNSRecordClass.CLASS_IN));
+        assertNull(cache.getDNSEntry(service));
+        assertTrue(cache.getDNSEntryList(name, DNSRecordType.TYPE_SRV, DNSRecordClass.CLASS_IN).isEmpty());
+
+        assertTrue(cache.removeDNSEntry(newText));
+        assertTrue(cache.removeDNSEntry(address));
+        assertEquals(0, cache.getEntryCount());
+        assertTrue(cache.getDNSEntryList(name).isEmpty());
+        assertTrue(cache.getDNSEntryList(name, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_ANY).isEmpty());
+        assertNull(cache.getDNSEntry(name, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_ANY));
+        assertTrue(cache.allValues().isEmpty());
+    }
+
+    @Test
+    public void ignoresCaseOfNames() {
+        DNSCache cache = new DNSCache();
+        DNSRecord text = text("Printer", "txtvers=1");
+        cache.addDNSEntry(text);
+
+        String lower = "printer._http._tcp.local.";
+        String upper = "PRINTER._HTTP._TCP.LOCAL.";
+        assertContainsOnly(cache.getDNSEntryList(lower), text);
+        assertContainsOnly(cache.getDNSEntryList(upper), text);
+        assertSame(text, cache.getDNSEntry(upper, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_IN));
+        assertContainsOnly(cache.getDNSEntryList(lower, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_IN), text);
+
+        DNSRecord sameInOtherCase = new DNSRecord.Text(upper, DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, ((DNSRecord.Text) text).getText());
+        assertSame(text, cache.getDNSEntry(sameInOtherCase));
+        assertTrue(cache.removeDNSEntry(sameInOtherCase));
+        assertTrue(cache.getDNSEntryList(lower).isEmpty());
+        assertNull(cache.getDNSEntry(lower, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_IN));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    /**
+     * Two threads adding and removing records of the same name must not lose an update of the entry list or of the index.
+     */
+    @Test
+    public void addsAndRemovesSameNameConcurrently() throws InterruptedException {
+        final DNSCache cache = new DNSCache();
+        final String name = "Printer._http._tcp.local.";
+        final int rounds = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            final DNSRecord own = text("Printer", "thread=" + t);
+            // Kept during the whole run
+            cache.addDNSEntry(text("Printer", "kept=" + t));
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException exception) {
+                        return;
+                    }
+                    for (int i = 0; (i < rounds) && (failure.get() == null); i++) {
+                        cache.addDNSEntry(own);
+                        if (!containsInstance(cache.getDNSEntryList(name), own) || !containsInstance(cache.getDNSEntryList(name, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_IN), own)) {
+                            failure.compareAndSet(null, own + " not found after add " + i);
+                        }
+                        if (!cache.removeDNSEntry(own)) {
+                            failure.compareAndSet(null, own + " not removed " + i);
+                        }
+                        if (containsInstance(cache.getDNSEntryList(name), own) || containsInstance(cache.getDNSEntryList(name, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_IN), own)) {
+                            failure.compareAndSet(null, own + " found after remove " + i);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(2, cache.getDNSEntryList(name).size());
+        assertEquals(2, cache.getDNSEntryList(name, DNSRecordType.TYPE_TXT, DNSRecordClass.CLASS_IN).size());
+        assertEquals(2, cache.allValues().size());
+    }
+
+    @Test
+    public void evictsEntriesWithoutInterestFirst() {
+        DNSCache cache = new DNSCache();
+        cache.setEvictionPolicy(new CountingPolicy());
+        cache.setCapacity(100, 0);
+        for (int i = 0; i < 50; i++) {
+            add(cache, text("keep" + i));
+            add(cache, text("drop" + i));
+        }
+        assertTrue(add(cache, text("keep-new")));
+        assertTrue(cache.getEntryCount() <= 100);
+        for (int i = 0; i < 50; i++) {
+            assertNotNull(cache.getDNSEntry(text("keep" + i)));
+        }
+        assertEquals(0, cache.getEvictedLeastRecentlyUsedCount());
+        assertTrue(cache.getEvictedWithoutInterestCount() > 0);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntryOfInterest() throws InterruptedException {
+        DNSCache cache = new DNSCache();
+        cache.setEvictionPolicy(new CountingPolicy());
+        cache.setCapacity(10, 0);
+        for (int i = 0; i < 10; i++) {
+            add(cache, text("keep" + i));
+        }
+        Thread.sleep(5);
+        // Use all but the first entry
+        for (int i = 1; i < 10; i++) {
+            assertNotNull(cache.getDNSEntry(text("keep" + i)));
+        }
+        assertTrue(add(cache, text("keep-new")));
+        assertEquals(10, cache.getEntryCount());
+        assertEquals(1, cache.getEvictedLeastRecentlyUsedCount());
+        assertNull(cache.getDNSEntry(text("keep0")));
+        assertNotNull(cache.getDNSEntry(text("keep-new")));
+    }
+
+    /**
+     * A flood of records nobody is interested in must neither evict the entries of interest nor walk the whole cache for each of them.
+     */
+    @Test
+    public void rejectsEntriesWithoutInterestWhenFullOfInterest() {
+        DNSCache cache = new DNSCache();
+        CountingPolicy policy = new CountingPolicy();
+        cache.setEvictionPolicy(policy);
+        cache.setCapacity(CAPACITY, 0);
+        for (int i = 0; i < CAPACITY; i++) {
+            add(cache, text("keep" + i));
+        }
+        int flood = 1000;
+        policy._calls.set(0);
+        for (int i = 0; i < flood; i++) {
+            assertFalse(add(cache, text("drop" + i)));
+        }
+        assertEquals(CAPACITY, cache.getEntryCount());
+        assertEquals(flood, cache.getRejectedCount());
+        assertEquals(0, cache.getEvictedLeastRecentlyUsedCount());
+        // The new entry and a bounded sample of the cache, not the whole cache
+        assertTrue("interest checks " + policy._calls.get(), policy._calls.get() <= flood * 100);
+    }
+
+    /**
+     * Shortening the TTL of a record replaces its deadline, the previous one neither piles up nor reports the record again.
+     */
+    @Test
+    public void replacesDeadlineWhenExpirationIsUpdated() {
+        DNSCache cache = new DNSCache();
+        DNSRecord record = text("printer");
+        cache.addDNSEntry(record);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            cache.updateDNSEntryExpiration(record);
+        }
+        assertTrue("deadlines " + cache.getDeadlineCount(), cache.getDeadlineCount() <= 2);
+
+        // Flushed, stale in 500 ms and expired in 1 s
+        record.restoreTTL(1, now + 1000);
+        cache.updateDNSEntryExpiration(record);
+        assertTrue(cache.getDueEntries(now + 400).isEmpty());
+        assertTrue(cache.getDueEntries(now + 600).contains(record));
+        assertTrue(cache.getDueEntries(now + 600).isEmpty());
+        assertTrue(cache.getDueEntries(now + 1100).contains(record));
+        // The deadline of the original TTL is gone
+        assertTrue(cache.getDueEntries(now + DNSConstants.DNS_TTL * 1000L).isEmpty());
+        assertEquals(0, cache.getDeadlineCount());
+    }
+
+    private static boolean add(DNSCache cache, DNSEntry entry) {
+        if (!cache.makeRoomFor(entry)) {
+            return false;
+        }
+        return cache.addDNSEntry(entry);
+    }
+
+    private static void assertContainsOnly(Collection<? extends DNSEntry> entries, DNSEntry entry) {
+        assertEquals(entries.toString(), 1, entries.size());
+        assertSame(entry, entries.iterator().next());
+    }
+
+    private static boolean containsInstance(Collection<? extends DNSEntry> entries, DNSEntry entry) {
+        for (DNSEntry candidate : entries) {
+            if (candidate == entry) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static DNSRecord text(String name, String text) {
+        byte[] bytes = new byte[text.length() + 1];
+        bytes[0] = (byte) text.length();
+        for (int i = 0; i < text.length(); i++) {
+            bytes[i + 1] = (byte) text.charAt(i);
+        }
+        return new DNSRecord.Text(name + "._http._tcp.local.", DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, bytes);
+    }
+
+    private static DNSRecord text(String name) {
+        return new DNSRecord.Text(name + "._http._tcp.local.", DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, new byte[] { 0 });
+    }
+
+}
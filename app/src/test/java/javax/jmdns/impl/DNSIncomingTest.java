@@ -0,0 +1,187 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jmdns.impl.constants.DNSConstants;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link DNSIncoming} against the stream based decoder it replaced, {@link LegacyDNSIncoming}, on the captured messages of <code>packets.txt</code>. The timing comparison only runs when the <code>jmdns.benchmark</code> system
+ * property is set:
+ *
+ * <pre>
+ * ./gradlew testDebugUnitTest -Pbenchmark --tests javax.jmdns.impl.DNSIncomingTest
+ * </pre>
+ */
+public class DNSIncomingTest {
+
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void decodesLikeLegacyDecoder() throws IOException {
+        List<byte[]> messages = readMessages();
+        assertTrue(messages.size() > 0);
+        for (int i = 0; i < messages.size(); i++) {
+            byte[] message = messages.get(i);
+            LegacyDNSIncoming expected = new LegacyDNSIncoming(packet(message, message.length));
+            assertSameMessage("message " + i, expected, new DNSIncoming(packet(message, message.length)));
+            assertSameMessage("lazy message " + i, expected, new DNSIncoming(packet(message, message.length), true));
+        }
+    }
+
+    /**
+     * The stream based decoder read past the end of a truncated message as if it went on, the ByteBuffer decoder rejects it.
+     */
+    @Test
+    public void rejectsTruncatedMessages() throws IOException {
+        Logger logger = Logger.getLogger(DNSIncoming.class.getName());
+        Level level = logger.getLevel();
+        // Every rejected message is dumped as a warning
+        logger.setLevel(Level.OFF);
+        try {
+            List<byte[]> messages = readMessages();
+            for (int i = 0; i < messages.size(); i++) {
+                byte[] message = messages.get(i);
+                for (int length = 0; length < message.length; length++) {
+                    assertRejected("message " + i + " truncated to " + length + " bytes", packet(message, length), false);
+                    assertRejected("lazy message " + i + " truncated to " + length + " bytes", packet(message, length), true);
+                }
+            }
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    @Test
+    public void decodingTime() throws IOException {
+        assumeTrue(Boolean.getBoolean("jmdns.benchmark"));
+        List<byte[]> messages = readMessages();
+        List<DatagramPacket> packets = new ArrayList<DatagramPacket>(messages.size());
+        for (byte[] message : messages) {
+            packets.add(packet(message, message.length));
+        }
+        long legacy = Long.MAX_VALUE;
+        long current = Long.MAX_VALUE;
+        long lazy = Long.MAX_VALUE;
+        int records = 0;
+        // Several rounds so that both decoders are compiled
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (DatagramPacket packet : packets) {
+                    records += new LegacyDNSIncoming(packet).getAllAnswers().size();
+                }
+            }
+            legacy = Math.min(legacy, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (DatagramPacket packet : packets) {
+                    records += new DNSIncoming(packet).getAllAnswers().size();
+                }
+            }
+            current = Math.min(current, System.nanoTime() - start);
+
+            // What the listener pays for a response it has no interest in
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (DatagramPacket packet : packets) {
+                    records += new DNSIncoming(packet, true).getNumberOfAnswers();
+                }
+            }
+            lazy = Math.min(lazy, System.nanoTime() - start);
+        }
+        double count = (double) ITERATIONS * packets.size();
+        System.out.println(String.format("%d messages (%d records): legacy %.2f us, ByteBuffer %.2f us, lazy without records %.2f us per message", packets.size(), records, legacy / count / 1000, current / count / 1000, lazy / count / 1000));
+    }
+
+    private static void assertRejected(String message, DatagramPacket packet, boolean lazy) {
+        try {
+            new DNSIncoming(packet, lazy);
+            fail(message + " was decoded");
+        } catch (IOException exception) {
+            // Expected
+        }
+    }
+
+    private static void assertSameMessage(String message, LegacyDNSIncoming expected, DNSIncoming actual) {
+        assertEquals(message + " id", expected.getId(), actual.getId());
+        assertEquals(message + " flags", expected.getFlags(), actual.getFlags());
+        assertEquals(message + " payload", expected.getSenderUDPPayload(), actual.getSenderUDPPayload());
+        assertSameEntries(message + " question", expected.getQuestions(), actual.getQuestions());
+        assertSameEntries(message + " answer", expected.getAnswers(), actual.getAnswers());
+        assertSameEntries(message + " authority", expected.getAuthorities(), actual.getAuthorities());
+        assertSameEntries(message + " additional", expected.getAdditionals(), actual.getAdditionals());
+    }
+
+    private static void assertSameEntries(String message, Collection<? extends DNSEntry> expected, Collection<? extends DNSEntry> actual) {
+        assertEquals(message + " count", expected.size(), actual.size());
+        Iterator<? extends DNSEntry> actualEntries = actual.iterator();
+        int index = 0;
+        for (DNSEntry expectedEntry : expected) {
+            DNSEntry actualEntry = actualEntries.next();
+            String entry = message + " " + index++;
+            assertEquals(entry + " class", expectedEntry.getClass(), actualEntry.getClass());
+            assertEquals(entry + " name", expectedEntry.getName(), actualEntry.getName());
+            assertEquals(entry + " type", expectedEntry.getRecordType(), actualEntry.getRecordType());
+            assertEquals(entry + " record class", expectedEntry.getRecordClass(), actualEntry.getRecordClass());
+            assertEquals(entry + " unique", expectedEntry.isUnique(), actualEntry.isUnique());
+            // Records also compare their value
+            assertEquals(entry, expectedEntry, actualEntry);
+            if (expectedEntry instanceof DNSRecord) {
+                assertEquals(entry + " ttl", ((DNSRecord) expectedEntry).getTTL(), ((DNSRecord) actualEntry).getTTL());
+            }
+        }
+    }
+
+    private static DatagramPacket packet(byte[] message, int length) throws IOException {
+        return new DatagramPacket(message, length, InetAddress.getByName("192.0.2.1"), DNSConstants.MDNS_PORT);
+    }
+
+    /**
+     * Reads the hex encoded messages of <code>packets.txt</code>.
+     */
+    static List<byte[]> readMessages() throws IOException {
+        List<byte[]> messages = new ArrayList<byte[]>();
+        InputStream input = DNSIncomingTest.class.getResourceAsStream("packets.txt");
+        if (input == null) {
+            throw new IOException("packets.txt not found");
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "US-ASCII"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if ((line.length() == 0) || line.startsWith("#")) {
+                    continue;
+                }
+                byte[] message = new byte[line.length() / 2];
+                for (int i = 0; i < message.length; i++) {
+                    message[i] = (byte) Integer.parseInt(line.substring(2 * i, 2 * i + 2), 16);
+                }
+                messages.add(message);
+            }
+        } finally {
+            reader.close();
+        }
+        return messages;
+    }
+
+}
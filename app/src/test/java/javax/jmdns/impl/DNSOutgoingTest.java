@@ -0,0 +1,236 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordClass;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link DNSOutgoing} against the stream based encoder it replaced, {@link LegacyDNSOutgoing}: both must report the same {@link DNSOutgoing#availableSpace()} as the message is built and write the same bytes. The timing
+ * comparison only runs when the <code>jmdns.benchmark</code> system property is set:
+ *
+ * <pre>
+ * ./gradlew testDebugUnitTest -Pbenchmark --tests javax.jmdns.impl.DNSOutgoingTest
+ * </pre>
+ */
+public class DNSOutgoingTest {
+
+    private static final int ITERATIONS = 20000;
+
+    private static final int SERVICES   = 20;
+
+    /**
+     * Questions and records of a message, in the order they are added.
+     */
+    private static final class Message {
+        final int               _flags;
+
+        final int               _payload;
+
+        final List<DNSQuestion> _questions   = new ArrayList<DNSQuestion>();
+
+        final List<DNSRecord>   _answers     = new ArrayList<DNSRecord>();
+
+        final List<DNSRecord>   _authorities = new ArrayList<DNSRecord>();
+
+        final List<DNSRecord>   _additionals = new ArrayList<DNSRecord>();
+
+        Message(int flags, int payload) {
+            super();
+            _flags = flags;
+            _payload = payload;
+        }
+
+        LegacyDNSOutgoing legacy(List<Integer> space) throws IOException {
+            LegacyDNSOutgoing out = new LegacyDNSOutgoing(_flags, true, _payload);
+            for (DNSQuestion question : _questions) {
+                out.addQuestion(question);
+                space.add(out.availableSpace());
+            }
+            for (DNSRecord record : _answers) {
+                out.addAnswer(record, 0);
+                space.add(out.availableSpace());
+            }
+            for (DNSRecord record : _authorities) {
+                out.addAuthorativeAnswer(record);
+                space.add(out.availableSpace());
+            }
+            for (DNSRecord record : _additionals) {
+                out.addAdditionalAnswer(null, record);
+                space.add(out.availableSpace());
+            }
+            return out;
+        }
+
+        DNSOutgoing current(List<Integer> space) throws IOException {
+            DNSOutgoing out = new DNSOutgoing(_flags, true, _payload);
+            for (DNSQuestion question : _questions) {
+                out.addQuestion(question);
+                space.add(out.availableSpace());
+            }
+            for (DNSRecord record : _answers) {
+                out.addAnswer(record, 0);
+                space.add(out.availableSpace());
+            }
+            for (DNSRecord record : _authorities) {
+                out.addAuthorativeAnswer(record);
+                space.add(out.availableSpace());
+            }
+            for (DNSRecord record : _additionals) {
+                out.addAdditionalAnswer(null, record);
+                space.add(out.availableSpace());
+            }
+            return out;
+        }
+
+        /**
+         * Encodes our own records once, as they are before they are sent.
+         */
+        void preEncode() {
+            for (DNSRecord record : _answers) {
+                record.preEncode();
+            }
+            for (DNSRecord record : _authorities) {
+                record.preEncode();
+            }
+            for (DNSRecord record : _additionals) {
+                record.preEncode();
+            }
+        }
+    }
+
+    @Test
+    public void encodesLikeLegacyEncoder() throws IOException {
+        for (boolean preEncoded : new boolean[] { false, true }) {
+            assertSameEncoding("announce", announce(), preEncoded);
+            assertSameEncoding("response", response(), preEncoded);
+            assertSameEncoding("probe", probe(), preEncoded);
+        }
+    }
+
+    @Test
+    public void encodingTime() throws IOException {
+        assumeTrue(Boolean.getBoolean("jmdns.benchmark"));
+        time("announce (PTR, SRV, TXT, A)", announce());
+        time("response (" + SERVICES + " services, " + (4 * SERVICES) + " records)", response());
+    }
+
+    private static void assertSameEncoding(String name, Message message, boolean preEncoded) throws IOException {
+        if (preEncoded) {
+            message.preEncode();
+            name = "pre-encoded " + name;
+        }
+        List<Integer> expectedSpace = new ArrayList<Integer>();
+        List<Integer> actualSpace = new ArrayList<Integer>();
+        LegacyDNSOutgoing expected = message.legacy(expectedSpace);
+        DNSOutgoing actual = message.current(actualSpace);
+        assertEquals(name + " available space", expectedSpace, actualSpace);
+        assertArrayEquals(name + " bytes", expected.data(), actual.data());
+    }
+
+    private static void time(String name, Message message) throws IOException {
+        long legacy = Long.MAX_VALUE;
+        long current = Long.MAX_VALUE;
+        int bytes = 0;
+        List<Integer> space = new ArrayList<Integer>();
+        // Several rounds so that both encoders are compiled
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                space.clear();
+                bytes = message.legacy(space).data().length;
+            }
+            legacy = Math.min(legacy, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                space.clear();
+                bytes = message.current(space).data().length;
+            }
+            current = Math.min(current, System.nanoTime() - start);
+        }
+        System.out.println(String.format("%s: legacy %.2f us, single pass %.2f us per message of %d bytes", name, legacy / 1000.0 / ITERATIONS, current / 1000.0 / ITERATIONS, bytes));
+    }
+
+    /**
+     * Records announced for a service: its pointer, service, text and the address of its host.
+     */
+    private static Message announce() throws IOException {
+        Message message = new Message(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, DNSConstants.MAX_MSG_TYPICAL);
+        addService(message._answers, message._answers, 0);
+        message._answers.add(address(host(0), 1));
+        return message;
+    }
+
+    /**
+     * Answer to a browse, the pointers to all the services with their service, text and address records.
+     */
+    private static Message response() throws IOException {
+        Message message = new Message(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, DNSConstants.MAX_MSG_ABSOLUTE);
+        for (int i = 0; i < SERVICES; i++) {
+            addService(message._answers, message._additionals, i);
+        }
+        for (int i = 0; i < SERVICES; i++) {
+            message._additionals.add(address(host(i), i + 1));
+        }
+        return message;
+    }
+
+    /**
+     * Probe for a service name, with the records proposed in the authority section.
+     */
+    private static Message probe() throws IOException {
+        Message message = new Message(DNSConstants.FLAGS_QR_QUERY, DNSConstants.MAX_MSG_TYPICAL);
+        message._questions.add(DNSQuestion.newQuestion("Printer Web Page._http._tcp.local.", DNSRecordType.TYPE_ANY, DNSRecordClass.CLASS_IN, false));
+        message._questions.add(DNSQuestion.newQuestion("printer.local.", DNSRecordType.TYPE_ANY, DNSRecordClass.CLASS_IN, false));
+        List<DNSRecord> pointer = new ArrayList<DNSRecord>();
+        addService(pointer, message._authorities, 0);
+        message._authorities.add(address(host(0), 1));
+        return message;
+    }
+
+    private static void addService(List<DNSRecord> pointers, List<DNSRecord> records, int index) {
+        String name = (index == 0 ? "Printer Web Page" : "Printer " + index) + "._http._tcp.local.";
+        String host = host(index);
+        pointers.add(fixed(new DNSRecord.Pointer("_http._tcp.local.", DNSRecordClass.CLASS_IN, false, DNSConstants.DNS_TTL, name)));
+        records.add(fixed(new DNSRecord.Service(name, DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, 0, 0, 8080 + index, host)));
+        records.add(fixed(new DNSRecord.Text(name, DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, text("txtvers=1", "path=/index" + index + ".html"))));
+    }
+
+    private static String host(int index) {
+        return (index == 0 ? "printer.local." : "host" + index + ".local.");
+    }
+
+    private static DNSRecord address(String host, int index) throws IOException {
+        return fixed(new DNSRecord.IPv4Address(host, DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, InetAddress.getByName("192.0.2." + index)));
+    }
+
+    private static byte[] text(String... strings) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String string : strings) {
+            out.write(string.length());
+            out.write(string.getBytes(), 0, string.length());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The messages are written with the remaining TTL of the records, keep it whole for the next 900 ms, as pre-encoded records are always written with their full TTL.
+     */
+    private static DNSRecord fixed(DNSRecord record) {
+        record.restoreTTL(record.getTTL(), System.currentTimeMillis() + record.getTTL() * 1000L + 900L);
+        return record;
+    }
+
+}
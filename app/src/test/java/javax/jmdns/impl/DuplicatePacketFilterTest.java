@@ -0,0 +1,106 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordClass;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link DuplicatePacketFilter} only drops a response repeating the previous response of its source within the window.
+ */
+public class DuplicatePacketFilterTest {
+
+    private static final long WINDOW = 1500;
+
+    @Test
+    public void dropsRepeatWithinWindow() throws IOException {
+        DuplicatePacketFilter filter = new DuplicatePacketFilter(WINDOW);
+        byte[] response = response("printer.local.", "192.0.2.10");
+        assertTrue(filter.accept(packet(response, "192.0.2.1")));
+        assertFalse(filter.accept(packet(response, "192.0.2.1")));
+        assertFalse(filter.accept(packet(response, "192.0.2.1")));
+        assertEquals(3, filter.getPacketCount());
+        assertEquals(2, filter.getDuplicateCount());
+        assertEquals(2L * response.length, filter.getDuplicateBytes());
+    }
+
+    @Test
+    public void acceptsRepeatFromAnotherSource() throws IOException {
+        DuplicatePacketFilter filter = new DuplicatePacketFilter(WINDOW);
+        byte[] response = response("printer.local.", "192.0.2.10");
+        assertTrue(filter.accept(packet(response, "192.0.2.1")));
+        assertTrue(filter.accept(packet(response, "192.0.2.2")));
+    }
+
+    @Test
+    public void acceptsRepeatAfterOtherTrafficFromSource() throws IOException {
+        DuplicatePacketFilter filter = new DuplicatePacketFilter(WINDOW);
+        byte[] response = response("printer.local.", "192.0.2.10");
+        assertTrue(filter.accept(packet(response, "192.0.2.1")));
+        assertTrue(filter.accept(packet(response("printer.local.", "192.0.2.11"), "192.0.2.1")));
+        assertTrue(filter.accept(packet(response, "192.0.2.1")));
+        assertEquals(0, filter.getDuplicateCount());
+    }
+
+    @Test
+    public void acceptsRepeatAfterWindow() throws IOException, InterruptedException {
+        DuplicatePacketFilter filter = new DuplicatePacketFilter(50);
+        byte[] response = response("printer.local.", "192.0.2.10");
+        assertTrue(filter.accept(packet(response, "192.0.2.1")));
+        Thread.sleep(100);
+        assertTrue(filter.accept(packet(response, "192.0.2.1")));
+    }
+
+    @Test
+    public void acceptsRepeatAfterClear() throws IOException {
+        DuplicatePacketFilter filter = new DuplicatePacketFilter(WINDOW);
+        byte[] response = response("printer.local.", "192.0.2.10");
+        assertTrue(filter.accept(packet(response, "192.0.2.1")));
+        filter.clear();
+        assertTrue(filter.accept(packet(response, "192.0.2.1")));
+    }
+
+    @Test
+    public void neverDropsQueries() throws IOException {
+        DuplicatePacketFilter filter = new DuplicatePacketFilter(WINDOW);
+        DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_QUERY);
+        out.addQuestion(DNSQuestion.newQuestion("_http._tcp.local.", DNSRecordType.TYPE_PTR, DNSRecordClass.CLASS_IN, DNSRecordClass.NOT_UNIQUE));
+        byte[] query = out.data();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(filter.accept(packet(query, "192.0.2.1")));
+        }
+        assertEquals(0, filter.getDuplicateCount());
+    }
+
+    @Test
+    public void acceptsEverythingWhenDisabled() throws IOException {
+        DuplicatePacketFilter filter = new DuplicatePacketFilter(0);
+        byte[] response = response("printer.local.", "192.0.2.10");
+        assertTrue(filter.accept(packet(response, "192.0.2.1")));
+        assertTrue(filter.accept(packet(response, "192.0.2.1")));
+    }
+
+    private static byte[] response(String host, String address) throws IOException {
+        DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA);
+        out.addAnswer(new DNSRecord.IPv4Address(host, DNSRecordClass.CLASS_IN, DNSRecordClass.UNIQUE, DNSConstants.DNS_TTL, InetAddress.getByName(address)), 0);
+        return out.data();
+    }
+
+    /**
+     * A copy of the datagram, as received in a new buffer.
+     */
+    private static DatagramPacket packet(byte[] data, String source) throws IOException {
+        byte[] copy = data.clone();
+        return new DatagramPacket(copy, copy.length, InetAddress.getByName(source), DNSConstants.MDNS_PORT);
+    }
+
+}
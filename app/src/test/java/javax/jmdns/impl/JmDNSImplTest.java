@@ -0,0 +1,301 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jmdns.ServiceEvent;
+import javax.jmdns.ServiceInfo;
+import javax.jmdns.ServiceListener;
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordClass;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the instances running on a {@link MulticastBus}, without a network.
+ */
+public class JmDNSImplTest {
+
+    private static final String HTTP = "_http._tcp.local.";
+
+    private MulticastBus        _bus;
+
+    @Before
+    public void setUp() {
+        _bus = new MulticastBus(0, 1, 0, 42);
+        DNSTransport.Factory.setClassDelegate(_bus);
+    }
+
+    @After
+    public void tearDown() {
+        DNSTransport.Factory.setClassDelegate(null);
+        _bus.close();
+    }
+
+    /**
+     * Two instances on the bus find the service the other registered.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void discoversEachOther() throws IOException {
+        JmDNSImpl node1 = new JmDNSImpl(InetAddress.getByName("10.0.0.1"), "node1");
+        try {
+            JmDNSImpl node2 = new JmDNSImpl(InetAddress.getByName("10.0.0.2"), "node2");
+            try {
+                // No socket on the bus
+                assertNull(node1.getSocket());
+                node1.registerService(ServiceInfo.create(HTTP, "Printer", 80, "path=/printer"));
+                node2.registerService(ServiceInfo.create(HTTP, "Scanner", 8080, "path=/scanner"));
+
+                ServiceInfo printer = node2.getServiceInfo(HTTP, "Printer", 5000);
+                assertNotNull("Printer not resolved", printer);
+                assertEquals(80, printer.getPort());
+                assertEquals(InetAddress.getByName("10.0.0.1"), printer.getInet4Addresses()[0]);
+                assertEquals("/printer", printer.getPropertyString("path"));
+
+                ServiceInfo scanner = node1.getServiceInfo(HTTP, "Scanner", 5000);
+                assertNotNull("Scanner not resolved", scanner);
+                assertEquals(8080, scanner.getPort());
+                assertEquals(InetAddress.getByName("10.0.0.2"), scanner.getInet4Addresses()[0]);
+            } finally {
+                node2.close();
+            }
+        } finally {
+            node1.close();
+        }
+    }
+
+    /**
+     * Only the address of the host running a service someone browses is kept alive with refresh queries.
+     */
+    @Test
+    public void refreshesOnlyTheAddressesOfServicesOfInterest() throws IOException {
+        JmDNSImpl dns = new JmDNSImpl(InetAddress.getByName("10.0.0.1"), "node1");
+        try {
+            dns.addServiceListener(HTTP, new NoServiceListener());
+            DNSCache cache = dns.getCache();
+            cache.addDNSEntry(new DNSRecord.Pointer(HTTP, DNSRecordClass.CLASS_IN, false, DNSConstants.DNS_TTL, "Printer." + HTTP));
+            cache.addDNSEntry(new DNSRecord.Service("Printer." + HTTP, DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, 0, 0, 80, "printer.local."));
+            DNSRecord printer = new DNSRecord.IPv4Address("printer.local.", DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, InetAddress.getByName("192.0.2.10"));
+            DNSRecord other = new DNSRecord.IPv4Address("other.local.", DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, InetAddress.getByName("192.0.2.11"));
+            cache.addDNSEntry(printer);
+            cache.addDNSEntry(other);
+
+            assertTrue(dns.needsRefresh(printer));
+            assertFalse(dns.needsRefresh(other));
+        } finally {
+            dns.close();
+        }
+    }
+
+    /**
+     * A probe for our host name is checked for conflicts even when the name is over its query rate limit.
+     */
+    @Test
+    public void checksProbesOverTheQuestionLimitForConflicts() throws IOException {
+        JmDNSImpl dns = new JmDNSImpl(InetAddress.getByName("10.0.0.1"), "node1");
+        try {
+            assertTrue(dns.waitForAnnounced(10000));
+            String host = dns.getLocalHost().getName();
+            RateLimiter limiter = new RateLimiter("question", 1, 1);
+            dns.setQuestionRateLimiter(limiter);
+
+            DNSOutgoing query = new DNSOutgoing(DNSConstants.FLAGS_QR_QUERY);
+            query.addQuestion(DNSQuestion.newQuestion(host, DNSRecordType.TYPE_A, DNSRecordClass.CLASS_IN, DNSRecordClass.NOT_UNIQUE));
+            dns.handlePacket(packet(query, "10.0.0.2"));
+            dns.handlePacket(packet(query, "10.0.0.2"));
+            assertEquals(1, limiter.getSuppressedCount());
+
+            // Another host probes for our name with another address
+            DNSOutgoing probe = new DNSOutgoing(DNSConstants.FLAGS_QR_QUERY);
+            probe.addQuestion(DNSQuestion.newQuestion(host, DNSRecordType.TYPE_ANY, DNSRecordClass.CLASS_IN, DNSRecordClass.NOT_UNIQUE));
+            probe.addAuthorativeAnswer(new DNSRecord.IPv4Address(host, DNSRecordClass.CLASS_IN, DNSRecordClass.UNIQUE, DNSConstants.DNS_TTL, InetAddress.getByName("10.0.0.99")));
+            dns.handlePacket(packet(probe, "10.0.0.3"));
+
+            assertEquals(1, limiter.getSuppressedCount());
+            // The conflict sends us back to probing
+            assertTrue(dns.isProbing());
+        } finally {
+            dns.close();
+        }
+    }
+
+    /**
+     * A question asking for a unicast response is answered by unicast with a record multicast within a quarter of its TTL.
+     */
+    @Test
+    public void answersUnicastQuestionByUnicastWhenRecentlyMulticast() throws IOException, InterruptedException {
+        RecordingBus recorder = new RecordingBus(_bus);
+        DNSTransport.Factory.setClassDelegate(recorder);
+        JmDNSImpl dns = new JmDNSImpl(InetAddress.getByName("10.0.0.1"), "node1");
+        try {
+            assertTrue(dns.waitForAnnounced(10000));
+            String host = dns.getLocalHost().getName();
+            // The announcements are all sent once announced
+            recorder.clear();
+            dns.handlePacket(packet(unicastQuery(host), "10.0.0.2"));
+
+            DatagramPacket response = recorder.nextResponse(2000);
+            assertNotNull("no response", response);
+            assertEquals(InetAddress.getByName("10.0.0.2"), response.getAddress());
+            assertTrue(answers(response, host));
+            // Nothing multicast
+            assertNull(recorder.nextResponse(200));
+        } finally {
+            dns.close();
+        }
+    }
+
+    /**
+     * A question asking for a unicast response is answered by multicast with a record the peers have not seen for a quarter of its TTL.
+     */
+    @Test
+    public void answersUnicastQuestionByMulticastWhenNotRecentlyMulticast() throws IOException, InterruptedException {
+        RecordingBus recorder = new RecordingBus(_bus);
+        DNSTransport.Factory.setClassDelegate(recorder);
+        JmDNSImpl dns = new JmDNSImpl(InetAddress.getByName("10.0.0.1"), "node1") {
+            @Override
+            public boolean wasRecentlyMulticast(DNSRecord record, InetAddress address) {
+                // As if announced more than a quarter of the TTL ago
+                return false;
+            }
+        };
+        try {
+            assertTrue(dns.waitForAnnounced(10000));
+            String host = dns.getLocalHost().getName();
+            // The announcements are all sent once announced
+            recorder.clear();
+            dns.handlePacket(packet(unicastQuery(host), "10.0.0.2"));
+
+            DatagramPacket response = recorder.nextResponse(2000);
+            assertNotNull("no response", response);
+            assertTrue(response.getAddress().isMulticastAddress());
+            assertTrue(answers(response, host));
+            // Nothing sent by unicast
+            assertNull(recorder.nextResponse(200));
+        } finally {
+            dns.close();
+        }
+    }
+
+    private static DNSOutgoing unicastQuery(String host) throws IOException {
+        DNSOutgoing query = new DNSOutgoing(DNSConstants.FLAGS_QR_QUERY);
+        query.addQuestion(DNSQuestion.newQuestion(host, DNSRecordType.TYPE_A, DNSRecordClass.CLASS_IN, DNSRecordClass.UNIQUE));
+        return query;
+    }
+
+    private static boolean answers(DatagramPacket response, String host) throws IOException {
+        for (DNSRecord answer : new DNSIncoming(response).getAllAnswers()) {
+            if ((answer.getRecordType() == DNSRecordType.TYPE_A) && answer.getName().equalsIgnoreCase(host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static DatagramPacket packet(DNSOutgoing out, String source) throws IOException {
+        byte[] data = out.data();
+        return new DatagramPacket(data, data.length, InetAddress.getByName(source), DNSConstants.MDNS_PORT);
+    }
+
+    /**
+     * Keeps a copy of the datagrams sent through the bus.
+     */
+    static class RecordingBus implements DNSTransport.Factory.ClassDelegate {
+
+        private final MulticastBus                  _bus;
+
+        private final BlockingQueue<DatagramPacket> _sent;
+
+        RecordingBus(MulticastBus bus) {
+            super();
+            _bus = bus;
+            _sent = new LinkedBlockingQueue<DatagramPacket>();
+        }
+
+        @Override
+        public DNSTransport newDNSTransport(JmDNSImpl jmDNSImpl) {
+            final DNSTransport transport = _bus.newDNSTransport(jmDNSImpl);
+            return new DNSTransport() {
+
+                @Override
+                public void open(InetAddress group, NetworkInterface networkInterface, boolean dualStack) throws IOException {
+                    transport.open(group, networkInterface, dualStack);
+                }
+
+                @Override
+                public void join(InetAddress group, NetworkInterface networkInterface) throws IOException {
+                    transport.join(group, networkInterface);
+                }
+
+                @Override
+                public void send(DatagramPacket packet) throws IOException {
+                    byte[] data = new byte[packet.getLength()];
+                    System.arraycopy(packet.getData(), packet.getOffset(), data, 0, data.length);
+                    _sent.add(new DatagramPacket(data, data.length, packet.getAddress(), packet.getPort()));
+                    transport.send(packet);
+                }
+
+                @Override
+                public void close() {
+                    transport.close();
+                }
+            };
+        }
+
+        void clear() {
+            _sent.clear();
+        }
+
+        /**
+         * @return the next response sent, <code>null</code> if none is sent in time
+         */
+        DatagramPacket nextResponse(long timeout) throws IOException, InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            for (long wait = timeout; wait > 0; wait = end - System.currentTimeMillis()) {
+                DatagramPacket packet = _sent.poll(wait, TimeUnit.MILLISECONDS);
+                if (packet == null) {
+                    break;
+                }
+                DNSIncoming in = new DNSIncoming(packet);
+                if (in.isResponse()) {
+                    return packet;
+                }
+            }
+            return null;
+        }
+    }
+
+    static class NoServiceListener implements ServiceListener {
+
+        @Override
+        public void serviceAdded(ServiceEvent event) {
+            // Nothing to do
+        }
+
+        @Override
+        public void serviceRemoved(ServiceEvent event) {
+            // Nothing to do
+        }
+
+        @Override
+        public void serviceResolved(ServiceEvent event) {
+            // Nothing to do
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordClass;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+import org.junit.Test;
+
+/**
+ * Checks how {@link MessagePacker} splits messages larger than a datagram.
+ */
+public class MessagePackerTest {
+
+    private static final String HTTP = "_http._tcp.local.";
+
+    @Test
+    public void splitsResponseWithinPayload() throws IOException {
+        DNSOutgoing message = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, true, DNSConstants.MAX_MSG_TYPICAL);
+        for (int i = 0; i < 40; i++) {
+            message.addAnswer(text(i), 0);
+        }
+        for (int i = 0; i < 10; i++) {
+            message.addAuthorativeAnswer(service(i));
+        }
+        List<DNSOutgoing> packets = new MessagePacker(message).pack();
+
+        assertTrue("datagrams " + packets.size(), packets.size() > 1);
+        for (DNSOutgoing packet : packets) {
+            assertFalse("a response is never truncated", (packet.getFlags() & DNSConstants.FLAGS_TC) != 0);
+        }
+        assertWithinPayload(packets);
+        assertPackedInOrder("answers", message.getAnswers(), packets, Section.ANSWERS);
+        assertPackedInOrder("authorities", message.getAuthorities(), packets, Section.AUTHORITIES);
+    }
+
+    @Test
+    public void truncatesAllButLastQueryDatagram() throws IOException {
+        DNSOutgoing message = new DNSOutgoing(DNSConstants.FLAGS_QR_QUERY, true, DNSConstants.MAX_MSG_TYPICAL);
+        message.addQuestion(DNSQuestion.newQuestion(HTTP, DNSRecordType.TYPE_PTR, DNSRecordClass.CLASS_IN, DNSRecordClass.NOT_UNIQUE));
+        // Known answers
+        for (int i = 0; i < 200; i++) {
+            message.addAnswer(new DNSRecord.Pointer(HTTP, DNSRecordClass.CLASS_IN, false, DNSConstants.DNS_TTL, "Printer number " + i + "." + HTTP), 0);
+        }
+        List<DNSOutgoing> packets = new MessagePacker(message).pack();
+
+        assertTrue("datagrams " + packets.size(), packets.size() > 2);
+        for (int i = 0; i < packets.size(); i++) {
+            boolean last = (i == packets.size() - 1);
+            assertEquals("TC of datagram " + i, !last, (packets.get(i).getFlags() & DNSConstants.FLAGS_TC) != 0);
+            assertTrue(packets.get(i).isQuery());
+        }
+        assertEquals(1, packets.get(0).getQuestions().size());
+        assertWithinPayload(packets);
+        assertPackedInOrder("known answers", message.getAnswers(), packets, Section.ANSWERS);
+    }
+
+    @Test
+    public void dropsAdditionalsThatDoNotFit() throws IOException {
+        DNSOutgoing answers = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, true, DNSConstants.MAX_MSG_TYPICAL);
+        DNSOutgoing message = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, true, DNSConstants.MAX_MSG_TYPICAL);
+        for (int i = 0; i < 25; i++) {
+            answers.addAnswer(text(i), 0);
+            message.addAnswer(text(i), 0);
+        }
+        for (int i = 0; i < 40; i++) {
+            message.addAdditionalAnswer(null, text(100 + i));
+        }
+        int needed = new MessagePacker(answers).pack().size();
+        List<DNSOutgoing> packets = new MessagePacker(message).pack();
+
+        assertEquals("additionals never add a datagram", needed, packets.size());
+        assertWithinPayload(packets);
+        assertPackedInOrder("answers", message.getAnswers(), packets, Section.ANSWERS);
+        int additionals = 0;
+        Map<DNSRecord, Integer> order = indexes(message.getAdditionals());
+        for (DNSOutgoing packet : packets) {
+            assertInOrder("additionals", order, packet.getAdditionals());
+            additionals += packet.getAdditionals().size();
+        }
+        assertTrue("additionals " + additionals, additionals < message.getAdditionals().size());
+    }
+
+    private enum Section {
+        ANSWERS, AUTHORITIES
+    }
+
+    /**
+     * Every datagram fits in the payload once encoded, and is decoded with the counts of its sections.
+     */
+    private static void assertWithinPayload(List<DNSOutgoing> packets) throws IOException {
+        for (int i = 0; i < packets.size(); i++) {
+            DNSOutgoing packet = packets.get(i);
+            byte[] data = packet.data();
+            assertTrue("datagram " + i + " is " + data.length + " bytes", data.length <= DNSConstants.MAX_MSG_TYPICAL);
+            DNSIncoming in = new DNSIncoming(new DatagramPacket(data, data.length, InetAddress.getByName("192.0.2.1"), DNSConstants.MDNS_PORT));
+            assertEquals("questions of datagram " + i, packet.getQuestions().size(), in.getNumberOfQuestions());
+            assertEquals("answers of datagram " + i, packet.getAnswers().size(), in.getNumberOfAnswers());
+            assertEquals("authorities of datagram " + i, packet.getAuthorities().size(), in.getNumberOfAuthorities());
+            assertEquals("additionals of datagram " + i, packet.getAdditionals().size(), in.getNumberOfAdditionals());
+        }
+    }
+
+    /**
+     * Each record of the section is in exactly one datagram, and the records of a datagram keep their order in the message.
+     */
+    private static void assertPackedInOrder(String name, Collection<? extends DNSRecord> records, List<DNSOutgoing> packets, Section section) {
+        Map<DNSRecord, Integer> order = indexes(records);
+        int count = 0;
+        for (DNSOutgoing packet : packets) {
+            Collection<? extends DNSRecord> packed = (section == Section.ANSWERS ? packet.getAnswers() : packet.getAuthorities());
+            assertInOrder(name, order, packed);
+            count += packed.size();
+        }
+        assertEquals(name, records.size(), count);
+    }
+
+    private static void assertInOrder(String name, Map<DNSRecord, Integer> order, Collection<? extends DNSRecord> packed) {
+        int previous = -1;
+        for (DNSRecord record : packed) {
+            Integer index = order.remove(record);
+            assertTrue(name + " packed twice or unknown: " + record, index != null);
+            assertTrue(name + " out of order: " + record, index.intValue() > previous);
+            previous = index.intValue();
+        }
+    }
+
+    private static Map<DNSRecord, Integer> indexes(Collection<? extends DNSRecord> records) {
+        Map<DNSRecord, Integer> order = new IdentityHashMap<DNSRecord, Integer>();
+        for (DNSRecord record : records) {
+            order.put(record, Integer.valueOf(order.size()));
+        }
+        return order;
+    }
+
+    /**
+     * Text records of varying sizes, so that a later record may fit where an earlier one did not.
+     */
+    private static DNSRecord text(int index) {
+        byte[] text = new byte[60 + (index * 37) % 190];
+        text[0] = (byte) (text.length - 1);
+        for (int i = 1; i < text.length; i++) {
+            text[i] = (byte) ('a' + i % 26);
+        }
+        return new DNSRecord.Text("Service " + index + "." + HTTP, DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, text);
+    }
+
+    private static DNSRecord service(int index) {
+        return new DNSRecord.Service("Service " + index + "." + HTTP, DNSRecordClass.CLASS_IN, true, DNSConstants.DNS_TTL, 0, 0, 80, "host" + index + ".local.");
+    }
+
+}
@@ -0,0 +1,75 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordClass;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link MulticastHistory} counts a record as recently multicast for a quarter of its TTL.
+ */
+public class MulticastHistoryTest {
+
+    @Test
+    public void recentForAQuarterOfTheTTL() throws IOException {
+        MulticastHistory history = new MulticastHistory();
+        DNSRecord record = address("printer.local.", 120);
+        long now = 1000000L;
+        assertFalse(history.isRecent(record, now));
+
+        history.sent(response(record), now);
+        assertTrue(history.isRecent(record, now));
+        assertTrue(history.isRecent(record, now + 30 * 1000L - 1));
+        assertFalse(history.isRecent(record, now + 30 * 1000L));
+
+        // Multicast again
+        history.sent(response(record), now + 40 * 1000L);
+        assertTrue(history.isRecent(record, now + 69 * 1000L));
+    }
+
+    @Test
+    public void recentAsAdditional() throws IOException {
+        MulticastHistory history = new MulticastHistory();
+        DNSRecord record = address("printer.local.", 120);
+        DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA);
+        out.addAdditionalAnswer(null, record);
+        history.sent(out, 0);
+        assertTrue(history.isRecent(record, 1));
+    }
+
+    /**
+     * Pruning the stale entries keeps the recent ones.
+     */
+    @Test
+    public void prunesOnlyStaleRecords() throws IOException {
+        MulticastHistory history = new MulticastHistory();
+        long now = 1000000L;
+        for (int i = 0; i < 100; i++) {
+            history.sent(response(address("stale" + i + ".local.", 4)), now);
+        }
+        DNSRecord recent = address("printer.local.", 120);
+        history.sent(response(recent), now + 2000);
+        // Over the pruning size, the stale records are dropped
+        history.sent(response(address("other.local.", 120)), now + 2000);
+
+        assertTrue(history.isRecent(recent, now + 2000));
+        assertFalse(history.isRecent(address("stale0.local.", 4), now + 2000));
+    }
+
+    private static DNSRecord address(String name, int ttl) throws IOException {
+        return new DNSRecord.IPv4Address(name, DNSRecordClass.CLASS_IN, true, ttl, InetAddress.getByName("192.0.2.10"));
+    }
+
+    private static DNSOutgoing response(DNSRecord record) throws IOException {
+        DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA);
+        out.addAnswer(record, 0);
+        return out;
+    }
+
+}
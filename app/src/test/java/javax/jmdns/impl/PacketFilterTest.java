@@ -0,0 +1,118 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.List;
+
+import javax.jmdns.ServiceInfo;
+import javax.jmdns.impl.constants.DNSConstants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the classification of {@link PacketFilter} on the captured messages of <code>packets.txt</code>, for an instance on a {@link MulticastBus} which neither browses nor resolves anything.
+ */
+public class PacketFilterTest {
+
+    /**
+     * Probe of the printer for its host name.
+     */
+    private static final int PROBE           = 0;
+
+    /**
+     * Announcement of the address of the printer, without any other record.
+     */
+    private static final int ADDRESS         = 3;
+
+    /**
+     * Announcement of the pointer, service and text of "Printer Web Page._http._tcp.local.".
+     */
+    private static final int HTTP_ANNOUNCE   = 6;
+
+    /**
+     * Query of the laptop browsing _http._tcp.local.
+     */
+    private static final int HTTP_QUERY      = 16;
+
+    private MulticastBus     _bus;
+
+    private JmDNSImpl        _dns;
+
+    private List<byte[]>     _messages;
+
+    @Before
+    public void setUp() throws IOException {
+        _bus = new MulticastBus(0, 1, 0, 42);
+        DNSTransport.Factory.setClassDelegate(_bus);
+        _dns = new JmDNSImpl(InetAddress.getByName("10.0.0.1"), "node1");
+        _messages = DNSIncomingTest.readMessages();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _dns.close();
+        DNSTransport.Factory.setClassDelegate(null);
+        _bus.close();
+    }
+
+    @Test
+    public void dropsQueryForUnrelatedType() throws IOException {
+        PacketFilter filter = _dns.getPacketFilter();
+        assertFalse(filter.accept(packet(_messages.get(HTTP_QUERY))));
+        assertEquals(1, filter.getDroppedCount());
+    }
+
+    @Test
+    public void keepsProbes() throws IOException {
+        assertTrue(_dns.getPacketFilter().accept(packet(_messages.get(PROBE))));
+    }
+
+    @Test
+    public void keepsAddressOnlyResponses() throws IOException {
+        assertTrue(_dns.getPacketFilter().accept(packet(_messages.get(ADDRESS))));
+    }
+
+    @Test
+    public void keepsResponsesForRegisteredServiceType() throws IOException {
+        PacketFilter filter = _dns.getPacketFilter();
+        assertFalse(filter.accept(packet(_messages.get(HTTP_ANNOUNCE))));
+        _dns.registerService(ServiceInfo.create("_http._tcp.local.", "Printer Web Page", 80, "path=/index.html"));
+        assertTrue(filter.accept(packet(_messages.get(HTTP_ANNOUNCE))));
+        assertTrue(filter.accept(packet(_messages.get(HTTP_QUERY))));
+    }
+
+    /**
+     * A name made of a compression pointer to itself cannot be classified, the message is kept for the decoder to reject.
+     */
+    @Test
+    public void keepsCompressionLoopWithoutSpinning() throws Exception {
+        final byte[] loop = { 0, 0, (byte) 0x84, 0, 0, 0, 0, 1, 0, 0, 0, 0, (byte) 0xC0, 12, 0, 1, 0, 1, 0, 0, 0, 120, 0, 4, 10, 0, 0, 1 };
+        final boolean[] accepted = new boolean[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    accepted[0] = _dns.getPacketFilter().accept(packet(loop));
+                } catch (IOException exception) {
+                    // Not for a literal address
+                }
+            }
+        };
+        thread.start();
+        thread.join(5000);
+        assertFalse("classification still running", thread.isAlive());
+        assertTrue(accepted[0]);
+    }
+
+    private static DatagramPacket packet(byte[] message) throws IOException {
+        return new DatagramPacket(message, message.length, InetAddress.getByName("10.0.0.2"), DNSConstants.MDNS_PORT);
+    }
+
+}
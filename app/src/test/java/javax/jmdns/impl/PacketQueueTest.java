@@ -0,0 +1,171 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.jmdns.impl.constants.DNSConstants;
+
+import org.junit.Test;
+
+/**
+ * Checks the ring buffer of {@link PacketQueue} with one producer and one consumer.
+ */
+public class PacketQueueTest {
+
+    @Test
+    public void wrapsAround() throws IOException {
+        PacketQueue queue = new PacketQueue(4, false);
+        DatagramPacket received = receiveBuffer();
+        int offered = 0;
+        int next = 0;
+        // One datagram stays behind so that the head and the tail go around the ring at different slots
+        assertTrue(queue.offer(packet(offered++)));
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.offer(packet(offered++)));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.take(received, 0));
+                assertPacket(next++, received);
+            }
+        }
+        assertEquals(1, queue.getDepth());
+        assertTrue(queue.take(received, 0));
+        assertPacket(next++, received);
+        assertEquals(4, queue.getMaxDepth());
+        assertEquals(16, next);
+        assertEquals(16, queue.getPacketCount());
+        assertEquals(0, queue.getDroppedCount());
+        assertFalse(queue.take(received, 0));
+    }
+
+    @Test
+    public void dropsWhenFull() throws IOException {
+        PacketQueue queue = new PacketQueue(2, false);
+        assertTrue(queue.offer(packet(0)));
+        assertTrue(queue.offer(packet(1)));
+        assertFalse(queue.offer(packet(2)));
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(2, queue.getDepth());
+        assertEquals(2, queue.getMaxDepth());
+
+        DatagramPacket received = receiveBuffer();
+        assertTrue(queue.take(received, 0));
+        assertPacket(0, received);
+        assertTrue(queue.offer(packet(3)));
+        assertTrue(queue.take(received, 0));
+        assertPacket(1, received);
+        assertTrue(queue.take(received, 0));
+        assertPacket(3, received);
+    }
+
+    @Test
+    public void takeTimesOutWhenEmpty() {
+        PacketQueue queue = new PacketQueue(2, false);
+        long start = System.nanoTime();
+        assertFalse(queue.take(receiveBuffer(), 50));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+    }
+
+    @Test
+    public void blockingProducerWaitsForRoom() throws Exception {
+        final PacketQueue queue = new PacketQueue(1, true);
+        assertTrue(queue.offer(packet(0)));
+        final AtomicBoolean offered = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    offered.set(queue.offer(packet(1)));
+                } catch (IOException exception) {
+                    // Not for a literal address
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        producer.start();
+        assertFalse("offer returned while the queue was full", done.await(100, TimeUnit.MILLISECONDS));
+
+        DatagramPacket received = receiveBuffer();
+        assertTrue(queue.take(received, 0));
+        assertPacket(0, received);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(offered.get());
+        assertTrue(queue.take(received, 0));
+        assertPacket(1, received);
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    /**
+     * Every datagram arrives once and in order when the producer and the consumer run at the same time.
+     */
+    @Test
+    public void deliversInOrderBetweenThreads() throws Exception {
+        final int count = 100000;
+        final PacketQueue queue = new PacketQueue(8, true);
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        if (!queue.offer(packet(i))) {
+                            failed.set(true);
+                        }
+                    }
+                } catch (IOException exception) {
+                    failed.set(true);
+                }
+            }
+        };
+        producer.start();
+        DatagramPacket received = receiveBuffer();
+        for (int i = 0; i < count; i++) {
+            assertTrue("datagram " + i, queue.take(received, 5000));
+            assertPacket(i, received);
+        }
+        producer.join();
+        assertFalse(failed.get());
+        assertEquals(0, queue.getDepth());
+    }
+
+    /**
+     * A datagram whose length, content, source and port depend on its number.
+     */
+    static DatagramPacket packet(int number) throws IOException {
+        byte[] data = new byte[16 + (number % 7)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (number + i);
+        }
+        // Received in a larger buffer at an offset, only the datagram is queued
+        byte[] buffer = new byte[data.length + 8];
+        System.arraycopy(data, 0, buffer, 4, data.length);
+        return new DatagramPacket(buffer, 4, data.length, InetAddress.getByName("192.0.2." + (number % 250 + 1)), DNSConstants.MDNS_PORT + (number % 3));
+    }
+
+    static void assertPacket(int number, DatagramPacket received) throws IOException {
+        DatagramPacket expected = packet(number);
+        assertEquals("length of " + number, expected.getLength(), received.getLength());
+        for (int i = 0; i < expected.getLength(); i++) {
+            assertEquals("byte " + i + " of " + number, expected.getData()[expected.getOffset() + i], received.getData()[received.getOffset() + i]);
+        }
+        assertEquals("address of " + number, expected.getAddress(), received.getAddress());
+        assertEquals("port of " + number, expected.getPort(), received.getPort());
+    }
+
+    private static DatagramPacket receiveBuffer() {
+        byte[] buffer = new byte[DNSConstants.MAX_MSG_ABSOLUTE];
+        return new DatagramPacket(buffer, buffer.length);
+    }
+
+}
@@ -0,0 +1,84 @@
+package javax.jmdns.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the token buckets of {@link RateLimiter}.
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void acceptsEverythingWhenDisabled() {
+        RateLimiter limiter = new RateLimiter("test", 0, 1);
+        assertFalse(limiter.isEnabled());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.accept("printer.local."));
+        }
+        assertEquals(1000, limiter.getCheckedCount());
+        assertEquals(0, limiter.getSuppressedCount());
+    }
+
+    @Test
+    public void acceptsBurstThenSuppresses() {
+        // One token every 100 ms, far longer than the burst takes
+        RateLimiter limiter = new RateLimiter("test", 10, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue("message " + i, limiter.accept("printer.local."));
+        }
+        assertFalse(limiter.accept("printer.local."));
+        assertFalse(limiter.accept("printer.local."));
+        assertEquals(7, limiter.getCheckedCount());
+        assertEquals(2, limiter.getSuppressedCount());
+        // Other keys have their own bucket
+        assertTrue(limiter.accept("scanner.local."));
+    }
+
+    @Test
+    public void refillsAtTheRate() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter("test", 10, 2);
+        assertTrue(limiter.accept("printer.local."));
+        assertTrue(limiter.accept("printer.local."));
+        assertFalse(limiter.accept("printer.local."));
+        // Two tokens come back in 200 ms
+        Thread.sleep(250);
+        assertTrue(limiter.accept("printer.local."));
+        assertTrue(limiter.accept("printer.local."));
+        assertFalse(limiter.accept("printer.local."));
+    }
+
+    /**
+     * A key pushing another one out of its slot starts with a full bucket, and so does the pushed out key when it comes back.
+     */
+    @Test
+    public void collidingKeysAreNotSuppressedByEachOther() {
+        String name = "printer.local.";
+        String colliding = collidingName(name);
+        RateLimiter limiter = new RateLimiter("test", 10, 2);
+        assertTrue(limiter.accept(name));
+        assertTrue(limiter.accept(name));
+        assertFalse(limiter.accept(name));
+
+        assertTrue(limiter.accept(colliding));
+        assertTrue(limiter.accept(colliding));
+        assertFalse(limiter.accept(colliding));
+
+        assertTrue(limiter.accept(name));
+    }
+
+    private static String collidingName(String name) {
+        long key = RateLimiter.key(name.hashCode());
+        int slot = RateLimiter.slot(key);
+        for (int i = 0;; i++) {
+            String other = "host" + i + ".local.";
+            long otherKey = RateLimiter.key(other.hashCode());
+            if ((otherKey != key) && (RateLimiter.slot(otherKey) == slot)) {
+                return other;
+            }
+        }
+    }
+
+}